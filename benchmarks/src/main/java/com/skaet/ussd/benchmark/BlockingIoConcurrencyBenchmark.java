@@ -0,0 +1,72 @@
+package com.skaet.ussd.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates a burst of USSD hops that spend their time blocked on MySQL, Redis and HTTP calls, run
+ * on a Tomcat-sized platform pool versus one virtual thread per hop. The virtual variant needs a
+ * Java 21 runtime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class BlockingIoConcurrencyBenchmark {
+    private static final int TOMCAT_MAX_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"2000"})
+    public int concurrentHops;
+
+    @Param({"20"})
+    public int blockedMillis;
+
+    private ExecutorService platformPool;
+    private AsyncTaskExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = switch (threads) {
+            case "platform" -> {
+                platformPool = Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+                yield new TaskExecutorAdapter(platformPool);
+            }
+            case "virtual" -> new VirtualThreadTaskExecutor("hop-");
+            default -> throw new IllegalArgumentException(threads);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (platformPool != null) {
+            platformPool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2000)
+    public void burst() throws Exception {
+        List<Future<?>> hops = new ArrayList<>(concurrentHops);
+        for (int i = 0; i < concurrentHops; i++) {
+            hops.add(executor.submit(() -> LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(blockedMillis))));
+        }
+        for (Future<?> hop : hops) {
+            hop.get();
+        }
+    }
+}
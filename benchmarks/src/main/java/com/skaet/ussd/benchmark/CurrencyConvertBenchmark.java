@@ -0,0 +1,46 @@
+package com.skaet.ussd.benchmark;
+
+import com.skaet.ussd.currency.CurrencyService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CurrencyService.convert against a loaded rate matrix: cross-rate lookup, BigDecimal multiply
+ * and rounding. No HTTP is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CurrencyConvertBenchmark {
+    @Param({"NGN:GBP", "USD:NGN", "EUR:EUR"})
+    public String pair;
+
+    private CurrencyService currencyService;
+    private String from;
+    private String to;
+    private BigDecimal amount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        currencyService = Fixtures.currencyService();
+        String[] currencies = pair.split(":");
+        from = currencies[0];
+        to = currencies[1];
+        amount = new BigDecimal("250000.50");
+    }
+
+    @Benchmark
+    public BigDecimal convert() {
+        return currencyService.convert(from, to, amount);
+    }
+
+    @Benchmark
+    public BigDecimal exchangeRate() {
+        return currencyService.getExchangeRate(from, to);
+    }
+}
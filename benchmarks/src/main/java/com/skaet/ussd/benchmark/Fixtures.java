@@ -0,0 +1,131 @@
+package com.skaet.ussd.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skaet.ussd.account.service.AccountService;
+import com.skaet.ussd.currency.CurrencyService;
+import com.skaet.ussd.session.UssdSession;
+import com.skaet.ussd.session.UssdSessionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Application objects wired for benchmarks: real code paths, with Redis and HTTP replaced by
+ * in-memory stand-ins.
+ */
+final class Fixtures {
+    static final String RATES_JSON = """
+            {"data":{"NGN":1538.2513,"EUR":0.9213,"GBP":0.7894}}""";
+
+    private Fixtures() {
+    }
+
+    /**
+     * A CurrencyService whose rate matrix has been loaded from a canned response and never expires.
+     */
+    static CurrencyService currencyService() {
+        RestTemplate cannedRates = new RestTemplate() {
+            @Override
+            public <T> T getForObject(URI url, Class<T> responseType) {
+                return responseType.cast(RATES_JSON);
+            }
+        };
+        CurrencyService service = new CurrencyService(cannedRates, new ObjectMapper(), new SimpleMeterRegistry(), null);
+        set(service, "apiKey", "benchmark");
+        set(service, "baseUrl", "http://rates.invalid");
+        set(service, "rateBase", "USD");
+        set(service, "maxAgeSeconds", Long.MAX_VALUE / 1_000_000_000L);
+        set(service, "maxStaleSeconds", Long.MAX_VALUE / 1_000_000_000L);
+        Method buildRatesUri = ReflectionUtils.findMethod(CurrencyService.class, "buildRatesUri");
+        ReflectionUtils.makeAccessible(buildRatesUri);
+        ReflectionUtils.invokeMethod(buildRatesUri, service);
+        service.refreshRates();
+        return service;
+    }
+
+    /**
+     * An AccountService that answers terminal menu hops with fixed replies and touches nothing else.
+     */
+    static AccountService accountService() {
+        return new CannedAccountService();
+    }
+
+    private static void set(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    /**
+     * Session store that hands out a fresh copy of a fixed session on every read, so each
+     * benchmark invocation replays the same hop.
+     */
+    static final class ReplaySessionService extends UssdSessionService {
+        private final Map<String, UssdSession> sessions = new HashMap<>();
+
+        ReplaySessionService() {
+            super(null, null, null, null, new SimpleMeterRegistry());
+        }
+
+        void prime(UssdSession session) {
+            sessions.put(session.getSessionId(), session);
+        }
+
+        @Override
+        public UssdSession getSession(String sessionId, String phoneNumber) {
+            UssdSession primed = sessions.get(sessionId);
+            return primed == null ? null : copyOf(primed);
+        }
+
+        @Override
+        public void saveSession(UssdSession session) {
+        }
+
+        @Override
+        public void clearSession(String sessionId) {
+        }
+
+        private static UssdSession copyOf(UssdSession source) {
+            UssdSession copy = new UssdSession();
+            copy.setSessionId(source.getSessionId());
+            copy.setPhoneNumber(source.getPhoneNumber());
+            copy.setState(source.getState());
+            copy.setFirstName(source.getFirstName());
+            copy.setLastName(source.getLastName());
+            copy.setDepositMethod(source.getDepositMethod());
+            copy.setWithdrawMethod(source.getWithdrawMethod());
+            copy.setAmount(source.getAmount());
+            copy.setBaseCurrency(source.getBaseCurrency());
+            copy.setTargetCurrency(source.getTargetCurrency());
+            return copy;
+        }
+    }
+
+    static final class CannedAccountService extends AccountService {
+        CannedAccountService() {
+            // One null per AccountService dependency; none of them is reached
+            super(null, null, null, null, null, null, null, null, null, null, null, null);
+        }
+
+        @Override
+        public String createAccount(String phoneNumber, String firstName, String lastName, String pin) {
+            return "END Account created successfully";
+        }
+
+        @Override
+        public String checkBalance(String phoneNumber, String pin) {
+            return "END Your balance is NGN 100.00";
+        }
+
+        @Override
+        public String handleDeposit(String phoneNumber, String amountStr) {
+            return "END Deposit initiated via Flutterwave";
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.skaet.ussd.benchmark;
+
+import com.skaet.ussd.controller.UssdController;
+import com.skaet.ussd.controller.UssdHopMetrics;
+import com.skaet.ussd.menu.UssdMenu;
+import com.skaet.ussd.menu.UssdMenuDefinition;
+import com.skaet.ussd.session.UssdSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One USSD hop through {@link UssdController}: phone formatting, session read, menu dispatch and
+ * session write, with Redis replaced by an in-memory store. {@code hop} is {@code flow:depth},
+ * where depth is the 1-based input within the flow (0 is the initial dial). Terminal hops call a
+ * canned AccountService, so they measure the menu and not the database or gateway. Hop and
+ * session timers record into a SimpleMeterRegistry, as they would in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MenuDispatchBenchmark {
+    private static final Map<String, List<String>> FLOWS = Map.of(
+            "dial", List.of(),
+            "exit", List.of("6"),
+            "account", List.of("1", "Ada", "Obi", "1234"),
+            "balance", List.of("2", "1234"),
+            "deposit", List.of("3", "1", "5000"),
+            "withdraw", List.of("4", "1", "5000", "1234"),
+            "currency", List.of("5", "1", "4", "250000"));
+
+    @Param({"dial:0", "exit:1", "account:1", "account:4", "balance:2", "deposit:2", "deposit:3",
+            "withdraw:3", "currency:2", "currency:4"})
+    public String hop;
+
+    private static final String PHONE = "2348012345678";
+    private static final String SESSION_ID = "ATUid_6a1f2b0c9d8e7f6a5b4c3d2e1f0a9b8c";
+
+    private UssdController controller;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UssdMenu menu = new UssdMenuDefinition(Fixtures.accountService(), Fixtures.currencyService()).ussdMenu();
+        Fixtures.ReplaySessionService sessions = new Fixtures.ReplaySessionService();
+        controller = new UssdController(sessions, menu, new UssdHopMetrics(new SimpleMeterRegistry(), 3000));
+
+        String[] parts = hop.split(":");
+        List<String> inputs = FLOWS.get(parts[0]);
+        int depth = Integer.parseInt(parts[1]);
+
+        // Session as it stands just before this hop
+        UssdSession session = new UssdSession();
+        session.setSessionId(SESSION_ID);
+        session.setPhoneNumber("08012345678");
+        menu.start(session);
+        for (int i = 0; i < depth - 1; i++) {
+            menu.dispatch(session, inputs.get(i));
+        }
+        sessions.prime(session);
+        text = String.join("*", inputs.subList(0, depth));
+    }
+
+    @Benchmark
+    public String hop() {
+        return controller.handleUssd(PHONE, text, SESSION_ID);
+    }
+}
@@ -0,0 +1,25 @@
+package com.skaet.ussd.benchmark;
+
+import com.skaet.ussd.util.PhoneNumbers;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phone number normalization, run on every USSD hop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhoneNumberBenchmark {
+    @Param({"2348012345678", "08012345678"})
+    public String phoneNumber;
+
+    @Benchmark
+    public String toLocal() {
+        return PhoneNumbers.toLocal(phoneNumber);
+    }
+}
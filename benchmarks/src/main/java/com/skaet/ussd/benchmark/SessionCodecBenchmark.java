@@ -0,0 +1,62 @@
+package com.skaet.ussd.benchmark;
+
+import com.skaet.ussd.menu.MenuState;
+import com.skaet.ussd.session.UssdSession;
+import com.skaet.ussd.session.UssdSessionCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary session codec against the GenericJackson2JsonRedisSerializer it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionCodecBenchmark {
+    private final UssdSessionCodec codec = new UssdSessionCodec();
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+
+    private UssdSession session;
+    private byte[] codecBytes;
+    private byte[] jsonBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        session = new UssdSession();
+        session.setSessionId("ATUid_6a1f2b0c9d8e7f6a5b4c3d2e1f0a9b8c");
+        session.setPhoneNumber("08012345678");
+        session.setState(MenuState.WITHDRAW_PIN);
+        session.setWithdrawMethod("flutterwave");
+        session.setAmount(new BigDecimal("2500.0"));
+
+        codecBytes = codec.serialize(session);
+        jsonBytes = json.serialize(session);
+        System.out.printf("%nPayload size: codec=%d bytes, json=%d bytes%n", codecBytes.length, jsonBytes.length);
+    }
+
+    @Benchmark
+    public byte[] codecSerialize() {
+        return codec.serialize(session);
+    }
+
+    @Benchmark
+    public UssdSession codecDeserialize() {
+        return codec.deserialize(codecBytes);
+    }
+
+    @Benchmark
+    public byte[] jsonSerialize() {
+        return json.serialize(session);
+    }
+
+    @Benchmark
+    public Object jsonDeserialize() {
+        return json.deserialize(jsonBytes);
+    }
+}
@@ -0,0 +1,48 @@
+package com.skaet.ussd.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skaet.ussd.payment.dto.FlutterwaveWebhookDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flutterwave webhook payload to {@link FlutterwaveWebhookDto}. {@code sharedMapper} is the
+ * ingestion path (one Boot-configured mapper); {@code mapperPerCall} builds a mapper per request as the
+ * webhook controller used to, kept as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookDeserializationBenchmark {
+    private static final String PAYLOAD = """
+            {"event":"charge.completed","data":{"id":4975363,"tx_ref":"SKAET-1718034541-ab12cd34",\
+            "flw_ref":"FLW-MOCK-2b1f7f3c","amount":5000,"currency":"NGN","charged_amount":5000,\
+            "status":"successful","payment_type":"ussd","created_at":"2024-06-10T15:49:01",\
+            "customer":{"id":2370914,"name":"Ada Obi","phone_number":"08012345678",\
+            "email":"ada@example.com","created_at":"2024-06-10T15:48:59"}}}""";
+
+    private final ObjectMapper sharedMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final byte[] payloadBytes = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public FlutterwaveWebhookDto sharedMapper() throws IOException {
+        return sharedMapper.readValue(PAYLOAD, FlutterwaveWebhookDto.class);
+    }
+
+    @Benchmark
+    public FlutterwaveWebhookDto sharedMapperBytes() throws IOException {
+        return sharedMapper.readValue(payloadBytes, FlutterwaveWebhookDto.class);
+    }
+
+    @Benchmark
+    public FlutterwaveWebhookDto mapperPerCall() throws IOException {
+        return new ObjectMapper().findAndRegisterModules().readValue(PAYLOAD, FlutterwaveWebhookDto.class);
+    }
+}
@@ -0,0 +1,155 @@
+package com.skaet.ussd.loadtest;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays the USSD aggregator: each session dials, then sends the flow's inputs one hop at a time,
+ * with the cumulative {@code text} the way Africa's Talking-style gateways send it. Latency is
+ * recorded per hop ({@code flow#n}) and per session ({@code flow}, the sum of its hops). Each hop
+ * is measured from when it was due (the session's scheduled start for the dial, the end of the
+ * think time after the previous reply otherwise), so time the driver spent late counts too.
+ */
+final class AggregatorSimulator {
+    static final String PIN = "1234";
+
+    private final HttpClient client;
+    private final URI ussdUri;
+    private final Duration hopTimeout;
+    private final long thinkMs;
+    private final LatencyRecorder recorder;
+    private final AtomicLong freshPhones = new AtomicLong();
+
+    AggregatorSimulator(HttpClient client, String target, Duration hopTimeout, long thinkMs, LatencyRecorder recorder) {
+        this.client = client;
+        this.ussdUri = URI.create(target + "/ussd");
+        this.hopTimeout = hopTimeout;
+        this.thinkMs = thinkMs;
+        this.recorder = recorder;
+    }
+
+    static List<String> phonePool(int size) {
+        List<String> phones = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            phones.add(String.format("23480%08d", i));
+        }
+        return phones;
+    }
+
+    /**
+     * A number no earlier run used, for account creation during the mixed phase.
+     */
+    String freshPhone() {
+        long n = System.currentTimeMillis() % 10_000_000L * 100 + freshPhones.incrementAndGet() % 100;
+        return String.format("23470%09d", n % 1_000_000_000L);
+    }
+
+    /**
+     * Runs one session to completion, starting now. Returns false if any hop failed, replied
+     * unexpectedly, or the session ended with anything but the flow's success reply.
+     */
+    boolean runSession(Flow flow, String phoneNumber) {
+        return runSession(flow, phoneNumber, System.nanoTime());
+    }
+
+    /**
+     * Runs one session that was scheduled to start at {@code dueNanos} ({@link System#nanoTime()}).
+     */
+    boolean runSession(Flow flow, String phoneNumber, long dueNanos) {
+        String sessionId = "LT-" + UUID.randomUUID();
+        List<String> inputs = flow.inputs(PIN);
+        StringBuilder text = new StringBuilder();
+        long sessionMicros = 0;
+        long due = dueNanos;
+
+        for (int hop = 0; hop <= inputs.size(); hop++) {
+            if (hop > 0) {
+                due = think(due);
+                if (hop > 1) {
+                    text.append('*');
+                }
+                text.append(inputs.get(hop - 1));
+            }
+            boolean last = hop == inputs.size();
+            String reply = send(phoneNumber, text.toString(), sessionId);
+            long replied = System.nanoTime();
+            long micros = (replied - due) / 1000;
+            sessionMicros += micros;
+            due = replied;
+
+            boolean ok = reply != null && (last ? flow.succeeded(reply) : reply.startsWith("CON"));
+            recorder.record(flow.label() + "#" + hop, micros, ok);
+            if (!ok) {
+                recorder.record(flow.label(), sessionMicros, false);
+                return false;
+            }
+        }
+        recorder.record(flow.label(), sessionMicros, true);
+        return true;
+    }
+
+    private String send(String phoneNumber, String text, String sessionId) {
+        String form = form(Map.of("phoneNumber", phoneNumber, "text", text, "sessionId", sessionId));
+        HttpRequest request = HttpRequest.newBuilder(ussdUri)
+                .timeout(hopTimeout)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits a random think time after {@code replied} and returns when the next hop was due.
+     */
+    private long think(long replied) {
+        if (thinkMs <= 0) {
+            return replied;
+        }
+        long due = replied + TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(thinkMs * 2 + 1));
+        sleepUntil(due);
+        return due;
+    }
+
+    static void sleepUntil(long dueNanos) {
+        long wait;
+        while ((wait = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static String form(Map<String, String> fields) {
+        StringBuilder form = new StringBuilder();
+        fields.forEach((name, value) -> {
+            if (!form.isEmpty()) {
+                form.append('&');
+            }
+            form.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+        });
+        return form.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.skaet.ussd.loadtest;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Multi-hop session scripts, mirroring the menu in UssdMenuDefinition. Each script is the list of
+ * inputs after the initial dial; the last hop is expected to end the session with the reply the
+ * flow succeeds with. Any other END, such as "Invalid PIN" or "Service temporarily unavailable",
+ * counts as a failed session.
+ */
+enum Flow {
+    CREATE("END Account created successfully") {
+        @Override
+        List<String> inputs(String pin) {
+            return List.of("1", "Load", "Tester", pin);
+        }
+    },
+    BALANCE("END Your balance is NGN \\S+") {
+        @Override
+        List<String> inputs(String pin) {
+            return List.of("2", pin);
+        }
+    },
+    DEPOSIT("END Deposit (initiated|of NGN \\S+ (initiated|received))\\b.*") {
+        @Override
+        List<String> inputs(String pin) {
+            return List.of("3", "1", String.valueOf(100 * ThreadLocalRandom.current().nextInt(1, 200)));
+        }
+    },
+    // The menu does not complete withdrawals yet and always replies "END Invalid operation", so
+    // this flow fails every session; it is left out of the default mix until it is wired
+    WITHDRAW("END Withdrawal initiated\\b.*") {
+        @Override
+        List<String> inputs(String pin) {
+            return List.of("4", "1", String.valueOf(100 * ThreadLocalRandom.current().nextInt(1, 50)), pin);
+        }
+    },
+    CONVERT("END \\S+ [A-Z]{3} = \\S+ [A-Z]{3}") {
+        @Override
+        List<String> inputs(String pin) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return List.of("5", String.valueOf(random.nextInt(1, 5)), String.valueOf(random.nextInt(1, 5)),
+                    String.valueOf(random.nextInt(1, 1_000_000)));
+        }
+    };
+
+    private final Pattern success;
+
+    Flow(String success) {
+        this.success = Pattern.compile(success, Pattern.DOTALL);
+    }
+
+    abstract List<String> inputs(String pin);
+
+    /**
+     * Whether the reply to the last hop is the one this flow ends with when it works.
+     */
+    boolean succeeded(String reply) {
+        return success.matcher(reply).matches();
+    }
+
+    String label() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,37 @@
+package com.skaet.ussd.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Response-time model for a stubbed provider: log-normal latency fitted to a median and a p99,
+ * plus a fraction of requests that fail with HTTP 500. Written as {@code median:p99:errorRate},
+ * e.g. {@code 300:1500:0.01}.
+ */
+record LatencyProfile(long medianMs, long p99Ms, double errorRate) {
+    private static final double Z_99 = 2.326;
+
+    static LatencyProfile parse(String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected median:p99:errorRate, got " + spec);
+        }
+        return new LatencyProfile(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Double.parseDouble(parts[2]));
+    }
+
+    long sampleMs() {
+        if (medianMs <= 0) {
+            return 0;
+        }
+        double sigma = Math.log((double) Math.max(p99Ms, medianMs) / medianMs) / Z_99;
+        return Math.round(medianMs * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    boolean fails() {
+        return ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    @Override
+    public String toString() {
+        return "median=" + medianMs + "ms p99=" + p99Ms + "ms errors=" + errorRate;
+    }
+}
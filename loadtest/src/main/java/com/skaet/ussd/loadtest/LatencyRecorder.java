@@ -0,0 +1,65 @@
+package com.skaet.ussd.loadtest;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps every sample (in microseconds) per key and prints percentiles at the end. A run is a few
+ * hundred thousand requests at most, so exact percentiles are cheap enough.
+ */
+final class LatencyRecorder {
+    private final Map<String, Samples> samples = new ConcurrentHashMap<>();
+
+    void record(String key, long micros, boolean ok) {
+        samples.computeIfAbsent(key, k -> new Samples()).add(micros, ok);
+    }
+
+    void print(PrintStream out, String title) {
+        out.println();
+        out.println(title);
+        out.printf("%-34s %8s %7s %9s %9s %9s %9s %9s%n", "", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        new TreeMap<>(samples).forEach((key, s) -> {
+            long[] sorted = s.sorted();
+            out.printf("%-34s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", key, sorted.length, s.errors(),
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                    sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1000.0);
+        });
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000.0;
+    }
+
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+        private int errors;
+
+        synchronized void add(long micros, boolean ok) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = micros;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        synchronized int errors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.skaet.ussd.loadtest;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Entry point. Starts the provider stubs (unless {@code --stub-port=0}), registers the account
+ * pool, then starts a weighted mix of USSD sessions at {@code --sessions-per-second} for
+ * {@code --duration-seconds}, replaying webhooks alongside. Sessions start on schedule whether or
+ * not earlier ones have finished (open loop), so a slow app builds up sessions in flight instead
+ * of quietly lowering the load. {@code --stubs-only} just serves the stubs, for when the app and
+ * the driver run on different machines.
+ */
+public final class LoadTest {
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+            Map.entry("target", "http://localhost:8080"),
+            Map.entry("stub-port", "9090"),
+            Map.entry("flutterwave-latency", "300:1500:0.01"),
+            Map.entry("termii-latency", "150:800:0.02"),
+            Map.entry("currency-latency", "80:400:0"),
+            Map.entry("users", "200"),
+            Map.entry("registration-concurrency", "32"),
+            Map.entry("sessions-per-second", "20"),
+            Map.entry("duration-seconds", "60"),
+            Map.entry("think-ms", "300"),
+            Map.entry("hop-timeout-ms", "5000"),
+            Map.entry("mix", "balance=60,deposit=20,convert=15,create=5"),
+            Map.entry("webhook-delay-ms", "2000"),
+            Map.entry("webhook-duplicate-rate", "0.1"),
+            Map.entry("transfer-webhooks-per-second", "2"));
+    // No default: the app refuses to start without its own flutterwave.secretHash
+    private static final Set<String> REQUIRED = Set.of("secret-hash");
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        LatencyRecorder registration = new LatencyRecorder();
+        LatencyRecorder ussd = new LatencyRecorder();
+        LatencyRecorder providers = new LatencyRecorder();
+        LatencyRecorder webhooks = new LatencyRecorder();
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newCachedThreadPool())
+                .build();
+        String target = options.get("target");
+        WebhookReplayer replayer = new WebhookReplayer(client, target, options.get("secret-hash"),
+                Long.parseLong(options.get("webhook-delay-ms")), Double.parseDouble(options.get("webhook-duplicate-rate")),
+                webhooks);
+
+        ProviderStubs stubs = null;
+        int stubPort = Integer.parseInt(options.get("stub-port"));
+        if (stubPort > 0) {
+            stubs = new ProviderStubs(stubPort,
+                    LatencyProfile.parse(options.get("flutterwave-latency")),
+                    LatencyProfile.parse(options.get("termii-latency")),
+                    LatencyProfile.parse(options.get("currency-latency")),
+                    providers, replayer::charge);
+            stubs.start();
+            System.out.printf("Provider stubs on port %d:%n  FLUTTERWAVE_API_BASE_URL=http://localhost:%1$d/flutterwave/v3%n"
+                    + "  SMS_API_BASE_URL=http://localhost:%1$d/termii%n  CURRENCY_API_BASE_URL=http://localhost:%1$d/currency/v1%n", stubs.port());
+        }
+        if (options.containsKey("stubs-only")) {
+            System.out.println("Serving stubs only; Ctrl-C to stop.");
+            Thread.currentThread().join();
+        }
+
+        Duration hopTimeout = Duration.ofMillis(Long.parseLong(options.get("hop-timeout-ms")));
+        long thinkMs = Long.parseLong(options.get("think-ms"));
+        // Registration reuses the CREATE flow; its numbers are kept out of the mixed-load report
+        AggregatorSimulator registrar = new AggregatorSimulator(client, target, hopTimeout, 0, registration);
+        List<String> phones = AggregatorSimulator.phonePool(Integer.parseInt(options.get("users")));
+        int concurrency = Integer.parseInt(options.get("registration-concurrency"));
+
+        System.out.printf("Registering %d accounts against %s%n", phones.size(), target);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        AtomicInteger created = new AtomicInteger();
+        List<Callable<Void>> registrations = new ArrayList<>();
+        for (String phone : phones) {
+            registrations.add(() -> {
+                if (registrar.runSession(Flow.CREATE, phone)) {
+                    created.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        workers.invokeAll(registrations);
+        System.out.printf("Registered %d/%d (the rest most likely exist from an earlier run)%n", created.get(), phones.size());
+
+        List<Flow> weighted = weightedFlows(options.get("mix"));
+        long durationSeconds = Long.parseLong(options.get("duration-seconds"));
+        AggregatorSimulator simulator = new AggregatorSimulator(client, target, hopTimeout, thinkMs, ussd);
+        replayer.startTransfers(Double.parseDouble(options.get("transfer-webhooks-per-second")), localForms(phones));
+
+        workers.shutdown();
+        double rate = Double.parseDouble(options.get("sessions-per-second"));
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        System.out.printf("Running %s for %ds at %.1f sessions/s%n", options.get("mix"), durationSeconds, rate);
+        // One thread per session in flight: a pool cap would hold sessions back, which is the closed loop again
+        ExecutorService sessionThreads = Executors.newCachedThreadPool();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peakInFlight = new AtomicInteger();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        int started = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long due = start; due < deadline; due = start + ++started * intervalNanos) {
+            // Behind schedule the session is started at once but still timed from when it was due
+            AggregatorSimulator.sleepUntil(due);
+            Flow flow = weighted.get(random.nextInt(weighted.size()));
+            String phone = flow == Flow.CREATE ? simulator.freshPhone() : phones.get(random.nextInt(phones.size()));
+            long sessionDue = due;
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sessionThreads.execute(() -> {
+                try {
+                    simulator.runSession(flow, phone, sessionDue);
+                    finished.incrementAndGet();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+        sessionThreads.shutdown();
+        if (!sessionThreads.awaitTermination(hopTimeout.toMillis() * 10 + thinkMs * 20, TimeUnit.MILLISECONDS)) {
+            System.out.printf("%d sessions still running at the end are left out%n", inFlight.get());
+        }
+        replayer.stop();
+        if (stubs != null) {
+            stubs.stop();
+        }
+
+        System.out.printf("%nStarted %d sessions in %ds (%.1f sessions/s), %d finished, at most %d in flight%n", started,
+                durationSeconds, started / (double) durationSeconds, finished.get(), peakInFlight.get());
+        ussd.print(System.out, "USSD latency per flow (session total) and per hop (flow#n, 0 = dial)");
+        webhooks.print(System.out, "Webhook deliveries");
+        providers.print(System.out, "Provider stubs (as seen by the app, including injected latency)");
+        System.exit(0);
+    }
+
+    private static List<String> localForms(List<String> phones) {
+        return phones.stream().map(p -> "0" + p.substring(3)).toList();
+    }
+
+    private static List<Flow> weightedFlows(String mix) {
+        List<Flow> weighted = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            Flow flow = Flow.valueOf(parts[0].trim().toUpperCase());
+            for (int i = 0; i < Integer.parseInt(parts[1].trim()); i++) {
+                weighted.add(flow);
+            }
+        }
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("Empty --mix");
+        }
+        return weighted;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg + "; options are --name=value");
+            }
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+            if (!DEFAULTS.containsKey(name) && !REQUIRED.contains(name) && !name.equals("stubs-only")) {
+                Set<String> known = new TreeSet<>(DEFAULTS.keySet());
+                known.addAll(REQUIRED);
+                throw new IllegalArgumentException("Unknown option --" + name + "; known: " + known);
+            }
+            options.put(name, equals < 0 ? "true" : arg.substring(equals + 1));
+        }
+        for (String name : REQUIRED) {
+            if (options.getOrDefault(name, "").isBlank()) {
+                throw new IllegalArgumentException("Missing --" + name);
+            }
+        }
+        return options;
+    }
+}
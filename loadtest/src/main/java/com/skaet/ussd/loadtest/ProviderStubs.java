@@ -0,0 +1,132 @@
+package com.skaet.ussd.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-ins for Flutterwave, Termii and the currency API on one port. Point the app at them
+ * with FLUTTERWAVE_API_BASE_URL=http://host:port/flutterwave/v3, SMS_API_BASE_URL=http://host:port/termii
+ * and CURRENCY_API_BASE_URL=http://host:port/currency/v1. Every charge the stub accepts is handed
+ * to the webhook replayer, as Flutterwave would later call back for it.
+ */
+final class ProviderStubs {
+    record Charge(String txRef, String phoneNumber, String amount) {
+    }
+
+    private static final String RATES = """
+            {"data":{"NGN":1538.2513,"USD":1,"EUR":0.9213,"GBP":0.7894}}""";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LatencyRecorder recorder;
+    private final AtomicLong ids = new AtomicLong(1_000_000);
+
+    ProviderStubs(int port, LatencyProfile flutterwave, LatencyProfile termii, LatencyProfile currency,
+                  LatencyRecorder recorder, Consumer<Charge> charges) throws IOException {
+        this.recorder = recorder;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/flutterwave/v3/charges", stub("flutterwave.charge", flutterwave, body -> {
+            Charge charge = new Charge(field(body, "tx_ref"), field(body, "phone_number"), field(body, "amount"));
+            charges.accept(charge);
+            return flutterwaveResponse(charge.txRef(), charge.amount(), "*889*767*" + charge.amount() + "#");
+        }));
+        server.createContext("/flutterwave/v3/transfers", stub("flutterwave.transfer", flutterwave,
+                body -> flutterwaveResponse(field(body, "reference"), field(body, "amount"), null)));
+        server.createContext("/termii/api/sms/send", stub("termii.send", termii,
+                body -> "{\"code\":\"ok\",\"message_id\":\"" + UUID.randomUUID() + "\",\"message\":\"Successfully Sent\"}"));
+        server.createContext("/currency/v1/latest", stub("currency.latest", currency, body -> RATES));
+        server.setExecutor(executor);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private HttpHandler stub(String name, LatencyProfile profile, java.util.function.Function<String, String> responder) {
+        return exchange -> {
+            long started = System.nanoTime();
+            boolean ok = !profile.fails();
+            try (exchange) {
+                String body = read(exchange.getRequestBody());
+                sleep(profile.sampleMs());
+                if (ok) {
+                    respond(exchange, 200, responder.apply(body));
+                } else {
+                    respond(exchange, 500, "{\"status\":\"error\",\"message\":\"stubbed failure\"}");
+                }
+            } finally {
+                recorder.record(name, (System.nanoTime() - started) / 1000, ok);
+            }
+        };
+    }
+
+    private String flutterwaveResponse(String txRef, String amount, String ussdCode) {
+        String meta = ussdCode == null ? "null"
+                : "{\"authorization\":{\"mode\":\"ussd\",\"note\":\"" + ussdCode + "\"}}";
+        return "{\"status\":\"success\",\"message\":\"Charge initiated\",\"data\":{\"id\":" + ids.incrementAndGet()
+                + ",\"tx_ref\":\"" + txRef + "\",\"flw_ref\":\"FLW-STUB-" + ids.get() + "\",\"status\":\"pending\""
+                + ",\"amount\":" + amount + ",\"currency\":\"NGN\"},\"meta\":" + meta + "}";
+    }
+
+    /**
+     * Pulls one top-level scalar out of a small JSON request body; enough for the fields the app sends.
+     */
+    static String field(String json, String name) {
+        Matcher matcher = Pattern.compile("\"" + Pattern.quote(name) + "\"\\s*:\\s*(?:\"([^\"]*)\"|([-0-9.]+))").matcher(json);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
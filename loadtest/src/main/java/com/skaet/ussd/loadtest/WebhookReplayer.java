@@ -0,0 +1,101 @@
+package com.skaet.ussd.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts Flutterwave webhooks to the app: a charge.completed for every charge the stub accepted
+ * (after a delay, like the real callback), transfer.completed events for references the app never
+ * started at a fixed rate, and a share of duplicate deliveries to exercise idempotency.
+ */
+final class WebhookReplayer {
+    private final HttpClient client;
+    private final URI webhookUri;
+    private final String secretHash;
+    private final long delayMs;
+    private final double duplicateRate;
+    private final LatencyRecorder recorder;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(8, r -> {
+        Thread thread = new Thread(r, "webhook-replayer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    WebhookReplayer(HttpClient client, String target, String secretHash, long delayMs, double duplicateRate,
+                    LatencyRecorder recorder) {
+        this.client = client;
+        this.webhookUri = URI.create(target + "/flutterwave/webhook");
+        this.secretHash = secretHash;
+        this.delayMs = delayMs;
+        this.duplicateRate = duplicateRate;
+        this.recorder = recorder;
+    }
+
+    void charge(ProviderStubs.Charge charge) {
+        String payload = payload("charge.completed", charge.txRef(), charge.phoneNumber(), charge.amount());
+        scheduler.schedule(() -> post("webhook.charge.completed", payload), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends transfer.completed events for random known accounts at the given rate until stopped.
+     * The references are made up, so the app stores each event and marks it FAILED without moving
+     * money; this measures the webhook path, not settlement.
+     */
+    void startTransfers(double perSecond, List<String> phoneNumbers) {
+        if (perSecond <= 0 || phoneNumbers.isEmpty()) {
+            return;
+        }
+        long periodMicros = (long) (1_000_000 / perSecond);
+        scheduler.scheduleAtFixedRate(() -> {
+            String phone = phoneNumbers.get(ThreadLocalRandom.current().nextInt(phoneNumbers.size()));
+            String reference = "LT-TRF-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+            post("webhook.transfer.unknown", payload("transfer.completed", reference, phone, "100"));
+        }, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(delayMs + 5_000, TimeUnit.MILLISECONDS);
+    }
+
+    private void post(String name, String payload) {
+        send(name, payload);
+        if (ThreadLocalRandom.current().nextDouble() < duplicateRate) {
+            send(name + ".duplicate", payload);
+        }
+    }
+
+    private void send(String name, String payload) {
+        HttpRequest request = HttpRequest.newBuilder(webhookUri)
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .header("verif-hash", secretHash)
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build();
+        long started = System.nanoTime();
+        boolean ok;
+        try {
+            ok = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (Exception e) {
+            ok = false;
+        }
+        recorder.record(name, (System.nanoTime() - started) / 1000, ok);
+    }
+
+    private static String payload(String event, String reference, String phoneNumber, String amount) {
+        long id = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        return "{\"event\":\"" + event + "\",\"data\":{\"id\":" + id + ",\"tx_ref\":\"" + reference + "\""
+                + ",\"flw_ref\":\"FLW-LT-" + id + "\",\"amount\":" + amount + ",\"currency\":\"NGN\""
+                + ",\"charged_amount\":" + amount + ",\"status\":\"successful\",\"payment_type\":\"ussd\""
+                + ",\"customer\":{\"id\":" + id + ",\"name\":\"Load Tester\",\"phone_number\":\"" + phoneNumber + "\""
+                + ",\"email\":\"" + phoneNumber + "@skaet.com\"}}}";
+    }
+}
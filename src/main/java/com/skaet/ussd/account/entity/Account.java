@@ -13,7 +13,8 @@ import lombok.NoArgsConstructor;
 @Table(name = "accounts")
 public class Account {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "account_seq")
+    @SequenceGenerator(name = "account_seq", sequenceName = "account_seq", allocationSize = 50)
     private Long id;
     
     @Column(unique = true,nullable = false)
@@ -27,6 +28,9 @@ public class Account {
 
     @Column(nullable = false)
     private String pin;
+
+    @Version
+    private Long version;
     
     @OneToOne(cascade = CascadeType.ALL, orphanRemoval = true)
     @JoinColumn(name = "wallet_id", nullable = false)
@@ -0,0 +1,9 @@
+package com.skaet.ussd.account.model;
+
+/**
+ * The parts of an account that do not change between operations: who it is, which wallet it
+ * owns and the PIN hash to check against. Balances are never part of this.
+ */
+public record AccountIdentity(Long accountId, Long walletId, String phoneNumber, String pinHash,
+                              String firstName, String lastName) {
+}
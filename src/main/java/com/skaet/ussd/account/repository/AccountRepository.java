@@ -1,8 +1,13 @@
 package com.skaet.ussd.account.repository;
 
 import com.skaet.ussd.account.entity.Account;
+import com.skaet.ussd.account.model.AccountIdentity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
@@ -10,4 +15,14 @@ import java.util.Optional;
 public interface AccountRepository extends JpaRepository<Account, Long> {
     Optional<Account> findByPhoneNumber(String phoneNumber);
     boolean existsByPhoneNumber(String phoneNumber);
+
+    @Query("select new com.skaet.ussd.account.model.AccountIdentity(a.id, a.wallet.id, a.phoneNumber, a.pin, a.firstName, a.lastName) " +
+            "from Account a where a.phoneNumber = :phoneNumber")
+    Optional<AccountIdentity> findIdentityByPhoneNumber(@Param("phoneNumber") String phoneNumber);
+
+    // Only replaces the hash it was computed from, so a concurrent PIN change wins
+    @Transactional
+    @Modifying
+    @Query("update Account a set a.pin = :newPin, a.version = a.version + 1 where a.id = :id and a.pin = :oldPin")
+    int updatePin(@Param("id") Long id, @Param("oldPin") String oldPin, @Param("newPin") String newPin);
 }
\ No newline at end of file
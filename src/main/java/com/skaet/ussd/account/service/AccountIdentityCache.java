@@ -0,0 +1,125 @@
+package com.skaet.ussd.account.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.skaet.ussd.account.model.AccountIdentity;
+import com.skaet.ussd.account.repository.AccountRepository;
+import com.skaet.ussd.config.CacheInvalidation;
+import com.skaet.ussd.config.ReplicaReads;
+import com.skaet.ussd.shard.ShardKey;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Bounded in-JVM cache of {@link AccountIdentity} by phone number. Misses are not cached, so a
+ * newly created account is visible on every node straight away. When a node changes an account
+ * it drops the entry locally and, through the same pub/sub invalidation as the session near
+ * cache, on every other node; entries otherwise expire after the TTL. Lookups go to a replica
+ * unless the account was just written.
+ */
+@Component
+@Slf4j
+public class AccountIdentityCache implements MessageListener {
+    public static final String INVALIDATION_CHANNEL = "account:identity:invalidate";
+
+    private final AccountRepository accountRepository;
+    private final ReplicaReads replicaReads;
+    private final StringRedisTemplate redisTemplate;
+    private final boolean enabled;
+    private final Cache<String, AccountIdentity> cache;
+    private final CacheInvalidation invalidation = new CacheInvalidation(INVALIDATION_CHANNEL);
+
+    public AccountIdentityCache(AccountRepository accountRepository,
+                                ReplicaReads replicaReads,
+                                StringRedisTemplate redisTemplate,
+                                MeterRegistry meterRegistry,
+                                @Value("${account.identity-cache.enabled:true}") boolean enabled,
+                                @Value("${account.identity-cache.max-size:100000}") long maxSize,
+                                @Value("${account.identity-cache.ttl-seconds:600}") long ttlSeconds) {
+        this.accountRepository = accountRepository;
+        this.replicaReads = replicaReads;
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "account.identity");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Optional<AccountIdentity> get(@ShardKey String phoneNumber) {
+        if (!enabled) {
+            return load(phoneNumber);
+        }
+        AccountIdentity identity = cache.getIfPresent(phoneNumber);
+        if (identity != null) {
+            return Optional.of(identity);
+        }
+        Optional<AccountIdentity> loaded = load(phoneNumber);
+        loaded.ifPresent(i -> cache.put(phoneNumber, i));
+        return loaded;
+    }
+
+    private Optional<AccountIdentity> load(String phoneNumber) {
+        return replicaReads.read(phoneNumber, () -> accountRepository.findIdentityByPhoneNumber(phoneNumber));
+    }
+
+    /**
+     * Drops the entry on this node and asks the other nodes to drop theirs. Inside a transaction
+     * the message goes out after commit, so no node reloads the old row. Pin the number to the
+     * primary first, or another node may reload it from a replica that is behind.
+     */
+    public void invalidate(String phoneNumber) {
+        cache.invalidate(phoneNumber);
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(phoneNumber);
+                }
+            });
+        } else {
+            publish(phoneNumber);
+        }
+    }
+
+    private void publish(String phoneNumber) {
+        try {
+            redisTemplate.convertAndSend(invalidation.channel(), invalidation.message(phoneNumber));
+        } catch (Exception e) {
+            // Other nodes serve the old entry until it expires
+            log.warn("Could not publish identity invalidation for {}: {}", phoneNumber, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            String phoneNumber = invalidation.keyToDrop(message);
+            if (phoneNumber != null) {
+                cache.invalidate(phoneNumber);
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring identity invalidation: {}", e.getMessage());
+        }
+    }
+}
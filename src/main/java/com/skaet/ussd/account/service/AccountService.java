@@ -1,35 +1,73 @@
 package com.skaet.ussd.account.service;
 
 import com.skaet.ussd.account.entity.Account;
+import com.skaet.ussd.account.model.AccountIdentity;
 import com.skaet.ussd.account.repository.AccountRepository;
+import com.skaet.ussd.config.OffHopExecutor;
+import com.skaet.ussd.config.ReplicaReads;
+import com.skaet.ussd.ledger.entity.EntryKind;
+import com.skaet.ussd.ledger.service.LedgerService;
 
 import com.skaet.ussd.notification.service.SmsNotificationService;
 import com.skaet.ussd.payment.gateway.PaymentGateway;
+import com.skaet.ussd.shard.ShardContext;
+import com.skaet.ussd.shard.ShardKey;
+import com.skaet.ussd.util.HopDeadline;
 import com.skaet.ussd.wallet.model.Wallet;
+import com.skaet.ussd.wallet.model.WalletBalance;
+import com.skaet.ussd.wallet.repository.WalletRepository;
+import com.skaet.ussd.wallet.service.BalanceProjection;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class AccountService {
+    private static final String UNAVAILABLE_REPLY = "END Service temporarily unavailable. Please try again later.";
+
     private final AccountRepository accountRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final AccountIdentityCache accountIdentityCache;
+    private final WalletRepository walletRepository;
+    private final PinHasher pinHasher;
     private final PaymentGateway paymentService;
     private final SmsNotificationService termiiService;
-
-
-
-    public String createAccount(String phoneNumber, String firstName, String lastName, String pin) {
+    private final LedgerService ledgerService;
+    private final BalanceProjection balanceProjection;
+    private final OffHopExecutor offHopExecutor;
+    private final ReplicaReads replicaReads;
+    private final MeterRegistry meterRegistry;
+    private final PlatformTransactionManager transactionManager;
+
+    // Kept back from the hop deadline for writing the session and the reply
+    @Value("${ussd.deadline.reserve-ms:250}")
+    private long reserveMs;
+    // Reply to a deposit before the charge is made instead of waiting for it
+    @Value("${payment.deposit.async.enabled:true}")
+    private boolean asyncDeposits;
+
+
+    public String createAccount(@ShardKey String phoneNumber, String firstName, String lastName, String pin) {
         try {
-            if (accountRepository.existsByPhoneNumber(phoneNumber)) {
+            if (accountIdentityCache.get(phoneNumber).isPresent()) {
                 return "END Account already exists";
             }
 
@@ -41,13 +79,15 @@ public class AccountService {
             account.setPhoneNumber(phoneNumber);
             account.setFirstName(firstName);
             account.setLastName(lastName);
-            account.setPin(passwordEncoder.encode(pin));
+            account.setPin(pinHasher.encode(pin));
 
             Wallet wallet = new Wallet();
             wallet.setBalance(BigDecimal.ZERO);
             account.setWallet(wallet);
 
             accountRepository.save(account);
+            replicaReads.pinToPrimary(phoneNumber);
+            accountIdentityCache.invalidate(phoneNumber);
 
             // Send welcome SMS
             String message = String.format("Welcome to SKAET Banking, %s! Your account has been created successfully.", firstName);
@@ -61,9 +101,9 @@ public class AccountService {
     }
 
     @Transactional
-    public String handleDeposit(String phoneNumber, String amountStr) {
+    public String handleDeposit(@ShardKey String phoneNumber, String amountStr) {
         try {
-            Account account = accountRepository.findByPhoneNumber(phoneNumber)
+            AccountIdentity account = accountIdentityCache.get(phoneNumber)
                     .orElse(null);
             if (account == null) {
                 return "END Account not found";
@@ -81,8 +121,7 @@ public class AccountService {
                 return "END Invalid amount. Amount must be greater than 0";
             }
 
-            String gateway = "flutterwave"; // Hardcoded for now, adjust if needed
-            return processDeposit(phoneNumber, amount, gateway, account);
+            return processDeposit(phoneNumber, amount, account);
 
         } catch (Exception e) {
             log.error("Deposit error: {}", e.getMessage());
@@ -91,38 +130,161 @@ public class AccountService {
     }
 
 
-    private String processDeposit(String phoneNumber, BigDecimal amount, String gateway, Account account) {
-        return switch (gateway.toLowerCase()) {
-            case "flutterwave" -> {
-                String transactionRef = paymentService.initiateDeposit(phoneNumber, amount);
-                if (transactionRef.equals("FAILED")) {
-                    yield "END Deposit failed. Please try again later.";
-                }
-                
-                yield String.format("""
-                    END Deposit initiated via Flutterwave
-                    Amount: NGN %s
-                    Reference: %s
-                    Check your SMS for payment instructions""", 
-                    amount, transactionRef);
-            }
-            default -> "END Unsupported payment method";
+    /**
+     * Starts the deposit on whichever gateway the router picks.
+     */
+    private String processDeposit(String phoneNumber, BigDecimal amount, AccountIdentity account) {
+        if (!paymentService.isAvailable()) {
+            return UNAVAILABLE_REPLY;
+        }
+        if (asyncDeposits) {
+            return initiateDepositAsync(phoneNumber, amount, account);
+        }
+        // The charge runs off the hop; if it is not back before the deadline the subscriber
+        // is told to expect the SMS the gateway sends with the reference once it is
+        CompletableFuture<String> charge = startCharge(phoneNumber, amount);
+        String transactionRef = awaitCharge(charge);
+        if (transactionRef == null) {
+            offHopExecutor.degraded("deposit_deferred");
+            charge.thenAccept(ShardContext.wrap(ref -> completeDeferredDeposit(ref, phoneNumber, amount, account)));
+            return String.format("""
+                END Deposit of NGN %s received
+                We'll SMS you the payment instructions and reference shortly""", amount);
+        }
+        if (transactionRef.equals(PaymentGateway.UNAVAILABLE)) {
+            return UNAVAILABLE_REPLY;
+        }
+        if (transactionRef.equals("FAILED")) {
+            return "END Deposit failed. Please try again later.";
+        }
+        ledgerService.recordPending(transactionRef, account.walletId(), phoneNumber, EntryKind.DEPOSIT, amount);
+
+        return String.format("""
+            END Deposit initiated
+            Amount: NGN %s
+            Reference: %s
+            Check your SMS for payment instructions""",
+            amount, transactionRef);
+    }
+
+    /**
+     * Records the deposit as pending under a new reference and answers at once; the charge and the
+     * SMS with the payment code follow off the hop, once the pending entry has committed. The time
+     * from the hop to the SMS being handed over is recorded as {@code deposit.initiation.latency}.
+     */
+    private String initiateDepositAsync(String phoneNumber, BigDecimal amount, AccountIdentity account) {
+        long started = System.nanoTime();
+        String reference = paymentService.newReference();
+        ledgerService.recordPending(reference, account.walletId(), phoneNumber, EntryKind.DEPOSIT, amount);
+        Runnable charge = () -> {
+            try {
+                offHopExecutor.submit(() -> completeAsyncDeposit(reference, phoneNumber, amount, account, started));
+            } catch (RejectedExecutionException e) {
+                completeAsyncDeposit(reference, phoneNumber, amount, account, started);
+            }
         };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    charge.run();
+                }
+            });
+        } else {
+            charge.run();
+        }
+        return String.format("""
+            END Deposit of NGN %s initiated
+            Reference: %s
+            You'll receive an SMS with your payment code shortly""", amount, reference);
+    }
+
+    private String completeAsyncDeposit(String reference, String phoneNumber, BigDecimal amount, AccountIdentity account, long started) {
+        String outcome = "error";
+        try {
+            String transactionRef = paymentService.initiateDeposit(phoneNumber, amount, reference);
+            if (transactionRef.equals("FAILED") || transactionRef.equals(PaymentGateway.UNAVAILABLE)) {
+                outcome = transactionRef.toLowerCase();
+                // Only a charge that was never attempted is known not to exist; a failed call may
+                // still have reached the gateway, so that one is left for reconciliation
+                if (transactionRef.equals(PaymentGateway.UNAVAILABLE)) {
+                    // Its own transaction: run inline after commit, it would otherwise join the finished one
+                    TransactionTemplate requiresNew = new TransactionTemplate(transactionManager);
+                    requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+                    requiresNew.executeWithoutResult(status ->
+                            ledgerService.recordFailed(reference, account.walletId(), phoneNumber, EntryKind.DEPOSIT, amount));
+                }
+                sendDepositFailedSms(phoneNumber, amount);
+            } else {
+                outcome = "success";
+            }
+            return transactionRef;
+        } catch (Exception e) {
+            log.error("Deposit {} could not be started: {}", reference, e.getMessage());
+            return "FAILED";
+        } finally {
+            Timer.builder("deposit.initiation.latency")
+                    .description("Deposit hop to the payment code SMS being sent")
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void sendDepositFailedSms(String phoneNumber, BigDecimal amount) {
+        termiiService.sendSms(phoneNumber, String.format(
+                "Your deposit of NGN %s could not be started. Please try again.", amount));
+    }
+
+    private CompletableFuture<String> startCharge(String phoneNumber, BigDecimal amount) {
+        try {
+            return offHopExecutor.submit(() -> paymentService.initiateDeposit(phoneNumber, amount));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(paymentService.initiateDeposit(phoneNumber, amount));
+        }
+    }
+
+    private String awaitCharge(CompletableFuture<String> charge) {
+        try {
+            return HopDeadline.await(charge, Duration.ofMillis(reserveMs));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            log.error("Deposit charge failed: {}", e.getMessage());
+            return "FAILED";
+        }
+    }
+
+    /**
+     * Finishes a deposit whose charge came back after the hop had already answered.
+     */
+    private void completeDeferredDeposit(String transactionRef, String phoneNumber, BigDecimal amount, AccountIdentity account) {
+        try {
+            if (transactionRef.equals("FAILED") || transactionRef.equals(PaymentGateway.UNAVAILABLE)) {
+                sendDepositFailedSms(phoneNumber, amount);
+                return;
+            }
+            ledgerService.recordPending(transactionRef, account.walletId(), phoneNumber, EntryKind.DEPOSIT, amount);
+        } catch (Exception e) {
+            log.error("Deferred deposit {} could not be completed: {}", transactionRef, e.getMessage());
+        }
     }
 
     @Transactional
-    public String handleWithdrawal(String phoneNumber, String amountStr, String bankName, String accountNumber, String gateway) {
+    public String handleWithdrawal(@ShardKey String phoneNumber, String amountStr, String bankName, String accountNumber) {
         try {
-            Optional<Account> optionalAccount = accountRepository.findByPhoneNumber(phoneNumber);
+            Optional<AccountIdentity> optionalAccount = accountIdentityCache.get(phoneNumber);
 
             if (optionalAccount.isEmpty()) {
                 return "END Account not found";
             }
 
-            Account account = optionalAccount.get();
-            Wallet wallet = account.getWallet();
+            Long walletId = optionalAccount.get().walletId();
+            BigDecimal balance = balanceProjection.getBalance(walletId, phoneNumber)
+                    .orElse(null);
 
-            if (wallet == null) {
+            if (balance == null) {
                 return "END Wallet not found";
             }
 
@@ -137,12 +299,12 @@ public class AccountService {
                 return "END Invalid amount. Amount must be greater than 0";
             }
 
-            if (wallet.getBalance().compareTo(amount) < 0) {
+            if (balance.compareTo(amount) < 0) {
                 return "END Insufficient balance.";
             }
 
             // Do not deduct balance here, wait for webhook
-            return processWithdraw(phoneNumber, amount, bankName, accountNumber, gateway);
+            return processWithdraw(phoneNumber, amount, bankName, accountNumber, walletId);
 
         } catch (Exception e) {
             log.error("Withdrawal error: {}", e.getMessage());
@@ -153,24 +315,26 @@ public class AccountService {
 
 
 
-    private String processWithdraw(String phoneNumber, BigDecimal amount, String bankName, String accountNumber, String gateway) {
-        return switch (gateway.toLowerCase()) {
-            case "flutterwave" -> {
-                String transactionRef = paymentService.initiateWithdrawal(phoneNumber, amount, bankName, accountNumber);
-                if ("FAILED".equals(transactionRef)) {
-                    yield "END Withdrawal failed. Please try again later.";
-                }
-
-                // Do NOT deduct wallet balance here; webhook will handle it
-                yield String.format("""
-                END Withdrawal initiated via Flutterwave
-                Amount: NGN %s
-                Reference: %s
-                You will receive a confirmation SMS once processed""",
-                        amount, transactionRef);
-            }
-            default -> "END Unsupported payment method";
-        };
+    private String processWithdraw(String phoneNumber, BigDecimal amount, String bankName, String accountNumber, Long walletId) {
+        if (!paymentService.isAvailable()) {
+            return UNAVAILABLE_REPLY;
+        }
+        String transactionRef = paymentService.initiateWithdrawal(phoneNumber, amount, bankName, accountNumber);
+        if (PaymentGateway.UNAVAILABLE.equals(transactionRef)) {
+            return UNAVAILABLE_REPLY;
+        }
+        if ("FAILED".equals(transactionRef)) {
+            return "END Withdrawal failed. Please try again later.";
+        }
+        ledgerService.recordPending(transactionRef, walletId, phoneNumber, EntryKind.WITHDRAWAL, amount);
+
+        // Do NOT deduct wallet balance here; webhook will handle it
+        return String.format("""
+        END Withdrawal initiated
+        Amount: NGN %s
+        Reference: %s
+        You will receive a confirmation SMS once processed""",
+                amount, transactionRef);
     }
 
 
@@ -179,65 +343,106 @@ public class AccountService {
         return pin != null && pin.length() == 4 && pin.matches("\\d+");
     }
 
+    /**
+     * Credits the wallet in a single conditional UPDATE, posts the ledger entry for
+     * {@code reference} in the same transaction and returns the resulting balance.
+     */
     @Transactional
-    public void creditAccount(String phoneNumber, BigDecimal amount) {
-        Optional<Account> existingAccount = accountRepository.findByPhoneNumber(phoneNumber);
-
-        if (existingAccount.isEmpty()) {
+    public Optional<WalletBalance> creditAccount(@ShardKey String phoneNumber, BigDecimal amount, String reference) {
+        Optional<AccountIdentity> account = accountIdentityCache.get(phoneNumber);
+        if (account.isEmpty() || walletRepository.credit(account.get().walletId(), amount) == 0) {
             log.warn("Account not found for phone number: {}", phoneNumber);
-            return;
+            return Optional.empty();
         }
 
-        Account account = existingAccount.get();
-        Wallet wallet = account.getWallet();
-        wallet.setBalance(wallet.getBalance().add(amount));
-        accountRepository.save(account);
-
+        // MySQL has no UPDATE ... RETURNING; this read sees our own locked row
+        Optional<WalletBalance> balance = walletRepository.findBalanceById(account.get().walletId());
+        balance.ifPresent(b -> ledgerService.post(reference, b.walletId(), phoneNumber, EntryKind.DEPOSIT, amount, b.balance()));
+        balance.ifPresent(balanceProjection::apply);
+        replicaReads.pinToPrimary(phoneNumber);
         log.info("Account credited successfully: {} - Amount: {}", phoneNumber, amount);
-
+        return balance;
     }
 
+    /**
+     * Debits the wallet in a single UPDATE guarded by {@code balance >= amount}, and returns the
+     * resulting balance, posting the ledger entry for {@code reference} alongside. Nothing is
+     * applied if the account is missing or the balance is too low.
+     */
     @Transactional
-    public void debitAccount(String phoneNumber, BigDecimal amount) {
-        Optional<Account> existingAccount = accountRepository.findByPhoneNumber(phoneNumber);
-
-        if (existingAccount.isEmpty()) {
+    public Optional<WalletBalance> debitAccount(@ShardKey String phoneNumber, BigDecimal amount, String reference) {
+        Optional<AccountIdentity> account = accountIdentityCache.get(phoneNumber);
+        if (account.isEmpty()) {
             log.warn("Account not found for phone number: {}", phoneNumber);
-            return;
+            return Optional.empty();
         }
-
-        Account account = existingAccount.get();
-        Wallet wallet = account.getWallet();
-        if (wallet.getBalance().compareTo(amount) < 0) {
+        if (walletRepository.debit(account.get().walletId(), amount) == 0) {
             log.warn("Insufficient balance for user: {}", phoneNumber);
+            return Optional.empty();
         }
 
-        wallet.setBalance(wallet.getBalance().subtract(amount));
-        accountRepository.save(account);
-
+        Optional<WalletBalance> balance = walletRepository.findBalanceById(account.get().walletId());
+        balance.ifPresent(b -> ledgerService.post(reference, b.walletId(), phoneNumber, EntryKind.WITHDRAWAL, amount, b.balance()));
+        balance.ifPresent(balanceProjection::apply);
+        replicaReads.pinToPrimary(phoneNumber);
         log.info("Account debited successfully: {} - Amount: {}", phoneNumber, amount);
+        return balance;
     }
 
 
 
-    public String checkBalance(String phoneNumber, String pin) {
+    public String checkBalance(@ShardKey String phoneNumber, String pin) {
         try {
-            Account account = accountRepository.findByPhoneNumber(phoneNumber)
+            AccountIdentity account = accountIdentityCache.get(phoneNumber)
                 .orElse(null);
             if (account == null) {
                 return "END Account not found";
             }
 
-            if (!passwordEncoder.matches(pin, account.getPin())) {
+            if (!pinHasher.matches(pin, account.pinHash())) {
                 return "END Invalid PIN";
             }
+            rehashIfNeeded(account, pin);
+
+            BigDecimal balance = balanceProjection.getBalance(account.walletId(), phoneNumber)
+                .orElse(null);
+            if (balance == null) {
+                return "END Wallet not found";
+            }
 
             return String.format("END Your balance is NGN %s", 
-                account.getWallet().getBalance().toString());
+                balance.toString());
                 
         } catch (Exception e) {
             log.error("Balance check failed: {}", e.getMessage());
             return "END Unable to check balance. Please try again";
         }
     }
+
+    /**
+     * Moves a verified PIN to the current hashing settings in the background. The caller has
+     * already got its answer; if the pool is busy or the update loses a race it is retried on the
+     * next successful check.
+     */
+    private void rehashIfNeeded(AccountIdentity account, String pin) {
+        if (!pinHasher.needsRehash(account.pinHash())) {
+            return;
+        }
+        try {
+            pinHasher.encodeAsync(pin)
+                    .thenAccept(ShardContext.wrap(newHash -> {
+                        if (accountRepository.updatePin(account.accountId(), account.pinHash(), newHash) == 1) {
+                            replicaReads.pinToPrimary(account.phoneNumber());
+                            accountIdentityCache.invalidate(account.phoneNumber());
+                            log.info("PIN rehashed for account {}", account.accountId());
+                        }
+                    }))
+                    .exceptionally(e -> {
+                        log.warn("PIN rehash failed for account {}: {}", account.accountId(), e.getMessage());
+                        return null;
+                    });
+        } catch (RejectedExecutionException e) {
+            log.debug("PIN hashing pool busy, rehash for account {} deferred", account.accountId());
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package com.skaet.ussd.account.service;
+
+import com.skaet.ussd.config.WorkerThreads;
+import com.skaet.ussd.util.HopDeadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs PIN hashing on a dedicated pool sized to the CPU, so BCrypt work queues up here instead of
+ * occupying request threads. A caller waits at most {@code pin.hashing.timeout-ms} (less if its
+ * hop deadline is closer) and gets a {@link RejectedExecutionException} when the pool is saturated.
+ */
+@Service
+@Slf4j
+public class PinHasher {
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor pool;
+    private final long timeoutMs;
+
+    private final Timer queueTimer;
+    private final Timer encodeTimer;
+    private final Timer matchTimer;
+    private final Counter rejected;
+
+    public PinHasher(PasswordEncoder passwordEncoder,
+                     MeterRegistry meterRegistry,
+                     WorkerThreads workerThreads,
+                     @Value("${pin.hashing.threads:0}") int threads,
+                     @Value("${pin.hashing.queue-capacity:200}") int queueCapacity,
+                     @Value("${pin.hashing.timeout-ms:3000}") long timeoutMs) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.passwordEncoder = passwordEncoder;
+        this.timeoutMs = timeoutMs;
+        this.pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerThreads.platform("pin-hash-"));
+
+        Gauge.builder("pin.hash.queue.depth", pool, p -> p.getQueue().size())
+                .description("PIN hashing requests waiting for a thread")
+                .register(meterRegistry);
+        this.queueTimer = Timer.builder("pin.hash.queue.time").register(meterRegistry);
+        this.encodeTimer = Timer.builder("pin.hash.time").tag("operation", "encode").register(meterRegistry);
+        this.matchTimer = Timer.builder("pin.hash.time").tag("operation", "matches").register(meterRegistry);
+        this.rejected = Counter.builder("pin.hash.rejected").register(meterRegistry);
+    }
+
+    public String encode(String pin) {
+        return await(submit(encodeTimer, () -> passwordEncoder.encode(pin)));
+    }
+
+    public boolean matches(String pin, String encodedPin) {
+        return await(submit(matchTimer, () -> passwordEncoder.matches(pin, encodedPin)));
+    }
+
+    /**
+     * True if the stored hash was made with another algorithm or a lower cost than the current one.
+     */
+    public boolean needsRehash(String encodedPin) {
+        return passwordEncoder.upgradeEncoding(encodedPin);
+    }
+
+    /**
+     * Hashes the PIN with the current settings without making the caller wait.
+     */
+    public CompletableFuture<String> encodeAsync(String pin) {
+        return submit(encodeTimer, () -> passwordEncoder.encode(pin));
+    }
+
+    private <T> CompletableFuture<T> submit(Timer hashTimer, Supplier<T> work) {
+        long enqueued = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long started = System.nanoTime();
+                queueTimer.record(started - enqueued, TimeUnit.NANOSECONDS);
+                try {
+                    return work.get();
+                } finally {
+                    hashTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            }, pool);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        // On a hop, give up in time for the caller to answer before the deadline
+        long waitMs = HopDeadline.cap(Duration.ofMillis(timeoutMs)).toMillis();
+        try {
+            return future.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            rejected.increment();
+            throw new RejectedExecutionException("PIN hashing timed out after " + waitMs + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for PIN hashing", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,51 @@
+package com.skaet.ussd.config;
+
+import org.springframework.data.redis.connection.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Pub/sub messages telling the other nodes to drop a key from an in-JVM cache. Each message
+ * carries the sending node's id, so the sender, whose copy is already up to date, skips it.
+ */
+public final class CacheInvalidation {
+    private static final char SEPARATOR = '|';
+
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public CacheInvalidation(String channel) {
+        this.channel = channel;
+    }
+
+    public String channel() {
+        return channel;
+    }
+
+    public byte[] channelBytes() {
+        return channel.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String message(String key) {
+        return nodeId + SEPARATOR + key;
+    }
+
+    public byte[] messageBytes(String key) {
+        return message(key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The key another node asked to drop, or null for this node's own messages.
+     *
+     * @throws IllegalArgumentException if the message is not one of ours
+     */
+    public String keyToDrop(Message message) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed invalidation on " + channel + ": " + body);
+        }
+        return nodeId.equals(body.substring(0, separator)) ? null : body.substring(separator + 1);
+    }
+}
@@ -0,0 +1,130 @@
+package com.skaet.ussd.config;
+
+import com.skaet.ussd.shard.ShardMap;
+import com.skaet.ussd.shard.ShardRoutingDataSource;
+import com.skaet.ussd.shard.ShardingProperties;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The home database's pool is configured as before through {@code spring.datasource.*}; each
+ * shard in {@code datasource.sharding.shards} gets a pool with the same driver and pool settings.
+ * Each JDBC URL in {@code datasource.replica.urls} (or a shard's {@code replica-urls}) adds a
+ * read-only replica pool ({@code ussd-replica-1}, ...). Connections are routed first by shard
+ * ({@link ShardRoutingDataSource}), then by read-only or not ({@link ReadWriteRoutingDataSource}).
+ * Hikari metrics ({@code hikaricp.connections.*}) are published for every pool, tagged by pool
+ * name.
+ */
+@Configuration
+@EnableConfigurationProperties(ShardingProperties.class)
+public class DataSourceConfig {
+    private final MeterRegistry meterRegistry;
+    private final int replicaPoolSize;
+    private final long replicaConnectionTimeoutMs;
+    private final long maxLagSeconds;
+
+    public DataSourceConfig(MeterRegistry meterRegistry,
+                            @Value("${datasource.replica.pool-size:10}") int replicaPoolSize,
+                            @Value("${datasource.replica.connection-timeout-ms:250}") long replicaConnectionTimeoutMs,
+                            @Value("${datasource.replica.max-lag-seconds:2}") long maxLagSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.replicaPoolSize = replicaPoolSize;
+        this.replicaConnectionTimeoutMs = replicaConnectionTimeoutMs;
+        this.maxLagSeconds = maxLagSeconds;
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public ShardRoutingDataSource routingDataSource(HikariDataSource primaryDataSource,
+                                                    ShardingProperties sharding,
+                                                    @Value("${datasource.replica.urls:}") List<String> replicaUrls,
+                                                    @Value("${datasource.replica.username:${spring.datasource.username:}}") String replicaUsername,
+                                                    @Value("${datasource.replica.password:${spring.datasource.password:}}") String replicaPassword) {
+        Map<String, ReadWriteRoutingDataSource> shards = new LinkedHashMap<>();
+        List<HikariDataSource> shardPrimaries = new ArrayList<>();
+        shards.put(ShardMap.HOME, readWrite(primaryDataSource, replicaUrls, replicaUsername, replicaPassword));
+        sharding.getShards().forEach((name, shard) -> {
+            HikariConfig config = new HikariConfig();
+            config.setPoolName(primaryDataSource.getPoolName() + "-" + name);
+            config.setJdbcUrl(shard.getUrl());
+            config.setUsername(shard.getUsername() != null ? shard.getUsername() : primaryDataSource.getUsername());
+            config.setPassword(shard.getUsername() != null ? shard.getPassword() : primaryDataSource.getPassword());
+            config.setDriverClassName(primaryDataSource.getDriverClassName());
+            config.setDataSourceProperties(primaryDataSource.getDataSourceProperties());
+            // Pool sizes left unset (-1) take Hikari's defaults
+            if (primaryDataSource.getMaximumPoolSize() > 0) {
+                config.setMaximumPoolSize(primaryDataSource.getMaximumPoolSize());
+            }
+            if (primaryDataSource.getMinimumIdle() >= 0) {
+                config.setMinimumIdle(primaryDataSource.getMinimumIdle());
+            }
+            config.setConnectionTimeout(primaryDataSource.getConnectionTimeout());
+            config.setIdleTimeout(primaryDataSource.getIdleTimeout());
+            config.setMaxLifetime(primaryDataSource.getMaxLifetime());
+            config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            HikariDataSource shardPrimary = new HikariDataSource(config);
+            shardPrimaries.add(shardPrimary);
+            shards.put(name, readWrite(shardPrimary, shard.getReplicaUrls(), config.getUsername(), config.getPassword()));
+        });
+        return new ShardRoutingDataSource(shards, shardPrimaries);
+    }
+
+    /**
+     * What JPA and JDBC use. The proxy hands out a connection handle straight away but only takes
+     * a real one from the router at the first statement, once the transaction has started.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    private ReadWriteRoutingDataSource readWrite(HikariDataSource primary, List<String> urls, String username, String password) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : urls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            HikariConfig config = new HikariConfig();
+            config.setPoolName(primary.getPoolName() + "-replica-" + (replicas.size() + 1));
+            config.setJdbcUrl(url.trim());
+            config.setUsername(username);
+            config.setPassword(password);
+            config.setDriverClassName(primary.getDriverClassName());
+            config.setDataSourceProperties(primary.getDataSourceProperties());
+            config.setMaximumPoolSize(replicaPoolSize);
+            config.setReadOnly(true);
+            // A replica that is down must not hold up the hop, or the app's startup; reads
+            // fall back to the primary
+            config.setConnectionTimeout(replicaConnectionTimeoutMs);
+            config.setInitializationFailTimeout(-1);
+            config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            replicas.add(new HikariDataSource(config));
+        }
+        ReadWriteRoutingDataSource readWrite = new ReadWriteRoutingDataSource(primary, replicas, maxLagSeconds, meterRegistry);
+        // Not a bean of its own, so not initialized by the container
+        readWrite.afterPropertiesSet();
+        return readWrite;
+    }
+}
@@ -0,0 +1,73 @@
+package com.skaet.ussd.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+/**
+ * One pooled, keep-alive HTTP client per upstream, so a slow provider can only exhaust its own
+ * connections. Pool usage is exported as httpcomponents.httpclient.pool.* tagged with the client name.
+ */
+@Configuration
+@EnableConfigurationProperties(HttpClientProperties.class)
+public class HttpClientConfig {
+
+    @Bean
+    public RestTemplate flutterwaveRestTemplate(HttpClientProperties properties, MeterRegistry meterRegistry) {
+        return pooledRestTemplate("flutterwave", properties, meterRegistry);
+    }
+
+    @Bean
+    public RestTemplate termiiRestTemplate(HttpClientProperties properties, MeterRegistry meterRegistry) {
+        return pooledRestTemplate("termii", properties, meterRegistry);
+    }
+
+    @Bean
+    public RestTemplate currencyRestTemplate(HttpClientProperties properties, MeterRegistry meterRegistry) {
+        return pooledRestTemplate("currency", properties, meterRegistry);
+    }
+
+    private RestTemplate pooledRestTemplate(String name, HttpClientProperties properties, MeterRegistry meterRegistry) {
+        HttpClientProperties.Client client = properties.client(name);
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(client.getMaxConnections())
+                .setMaxConnPerRoute(client.getMaxConnections())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(timeout(client.getConnectTimeout()))
+                        .setSocketTimeout(timeout(client.getReadTimeout()))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, name).bindTo(meterRegistry);
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeout(client.getLeaseTimeout()))
+                        .setResponseTimeout(timeout(client.getReadTimeout()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(client.getIdleTimeout().toMillis()))
+                .build();
+
+        return new RestTemplate(new TotalTimeoutRequestFactory(httpClient, client.getConnectTimeout(), client.getTotalTimeout()));
+    }
+
+    private static Timeout timeout(Duration duration) {
+        return Timeout.ofMilliseconds(duration.toMillis());
+    }
+}
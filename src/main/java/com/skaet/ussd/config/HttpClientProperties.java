@@ -0,0 +1,37 @@
+package com.skaet.ussd.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings for each outbound HTTP client, keyed by destination (flutterwave, termii, currency).
+ */
+@Data
+@ConfigurationProperties(prefix = "http")
+public class HttpClientProperties {
+    private Map<String, Client> clients = new HashMap<>();
+
+    public Client client(String name) {
+        return clients.getOrDefault(name, new Client());
+    }
+
+    @Data
+    public static class Client {
+        /** TCP (and TLS) connect timeout. */
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        /** Maximum inactivity while waiting for response bytes. */
+        private Duration readTimeout = Duration.ofSeconds(10);
+        /** Wall-clock limit on a whole exchange, from the wait for a pooled connection to the last response byte; cut to the hop deadline on a hop. */
+        private Duration totalTimeout = Duration.ofSeconds(15);
+        /** Concurrent requests allowed to this destination; extra callers wait up to leaseTimeout. */
+        private int maxConnections = 20;
+        /** How long a caller waits for a free pooled connection before failing fast. */
+        private Duration leaseTimeout = Duration.ofMillis(500);
+        /** Idle keep-alive connections are closed after this long. */
+        private Duration idleTimeout = Duration.ofSeconds(30);
+    }
+}
@@ -0,0 +1,82 @@
+package com.skaet.ussd.config;
+
+import com.skaet.ussd.shard.ShardContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool for work taken off a USSD hop so the reply is not held up: SMS deferred when the
+ * budget runs low, background rate refreshes, and provider calls that outlived their hop. Tasks
+ * run without a hop deadline, so they get their normal timeouts. Each degraded answer given
+ * because of the deadline is counted as {@code ussd.deadline.degraded} by reason. Tasks run on
+ * the shard that was current when they were handed over.
+ */
+@Component
+@Slf4j
+public class OffHopExecutor {
+    private final ThreadPoolExecutor pool;
+    private final MeterRegistry meterRegistry;
+    private final Counter rejected;
+
+    public OffHopExecutor(WorkerThreads workerThreads,
+                          MeterRegistry meterRegistry,
+                          @Value("${ussd.deadline.off-hop.workers:8}") int workers,
+                          @Value("${ussd.deadline.off-hop.queue-capacity:1000}") int queueCapacity) {
+        this.pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerThreads.named("off-hop-"));
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("ussd.offhop.queue.depth", pool, p -> p.getQueue().size())
+                .description("Tasks deferred from hops waiting for a worker")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ussd.offhop.rejected").register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code task} in the background; dropped (and logged) if the queue is full.
+     */
+    public void defer(String description, Runnable task) {
+        try {
+            pool.execute(ShardContext.wrap(task));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("Off-hop queue full, dropped: {}", description);
+        }
+    }
+
+    /**
+     * Runs {@code work} in the background; throws {@link RejectedExecutionException} if the queue is full.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(ShardContext.wrap(work), pool);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a reply or side effect that was degraded to stay within the hop deadline.
+     */
+    public void degraded(String reason) {
+        meterRegistry.counter("ussd.deadline.degraded", "reason", reason).increment();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
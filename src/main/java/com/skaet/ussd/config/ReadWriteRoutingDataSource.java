@@ -0,0 +1,175 @@
+package com.skaet.ussd.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends connections for read-only transactions to the replica pools, round robin, and
+ * everything else to the primary. Only works behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, so the connection is
+ * fetched at the first statement, once the transaction's read-only flag is set.
+ * <p>
+ * Replicas are probed periodically and taken out of rotation while their replication lag is
+ * above {@code max-lag-seconds}, replication is stopped or they cannot be reached (a replica that
+ * fails to hand out a connection is taken out straight away). With no replica in rotation, reads
+ * go to the primary. {@code datasource.replica.lag} (seconds) and
+ * {@code datasource.replica.available} are published per pool.
+ */
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    static final String PRIMARY = "primary";
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxLagSeconds;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<HikariDataSource> replicas,
+                                      long maxLagSeconds, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.maxLagSeconds = maxLagSeconds;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (Replica replica : this.replicas) {
+            targets.put(replica.name(), replica.dataSource());
+            Gauge.builder("datasource.replica.lag", replica, Replica::lagSeconds)
+                    .tag("pool", replica.name())
+                    .description("Replication lag seen by the last probe, -1 when unknown")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            Gauge.builder("datasource.replica.available", replica, r -> r.available ? 1 : 0)
+                    .tag("pool", replica.name())
+                    .description("1 while the replica takes read-only transactions")
+                    .register(meterRegistry);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = chooseReplica();
+        if (replica != null) {
+            try {
+                return replica.dataSource().getConnection();
+            } catch (SQLException e) {
+                replica.markDown("no connection: " + e.getMessage());
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Replica replica = chooseReplica();
+        return replica == null ? PRIMARY : replica.name();
+    }
+
+    private Replica chooseReplica() {
+        if (replicas.isEmpty() || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return null;
+        }
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.available) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Probes every replica; called on a schedule.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource().getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet status = statement.executeQuery("SHOW REPLICA STATUS")) {
+                // No status row: not a replica (e.g. pointed at the primary), so never behind
+                long lag = 0;
+                if (status.next()) {
+                    lag = status.getLong("Seconds_Behind_Source");
+                    if (status.wasNull()) {
+                        replica.lag = -1;
+                        replica.markDown("replication is not running");
+                        continue;
+                    }
+                }
+                replica.lag = lag;
+                if (lag > maxLagSeconds) {
+                    replica.markDown(lag + "s behind the primary");
+                } else {
+                    replica.markUp();
+                }
+            } catch (SQLException e) {
+                replica.lag = -1;
+                replica.markDown("probe failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void close() {
+        for (Replica replica : replicas) {
+            replica.dataSource().close();
+        }
+    }
+
+    private static final class Replica {
+        private final HikariDataSource dataSource;
+        private volatile boolean available = true;
+        private volatile long lag = -1;
+
+        Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        HikariDataSource dataSource() {
+            return dataSource;
+        }
+
+        String name() {
+            return dataSource.getPoolName();
+        }
+
+        double lagSeconds() {
+            return lag;
+        }
+
+        void markDown(String reason) {
+            if (available) {
+                log.warn("Replica {} taken out of rotation: {}", name(), reason);
+            }
+            available = false;
+        }
+
+        void markUp() {
+            if (!available) {
+                log.info("Replica {} back in rotation", name());
+            }
+            available = true;
+        }
+    }
+}
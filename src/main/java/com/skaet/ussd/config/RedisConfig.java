@@ -1,9 +1,15 @@
 package com.skaet.ussd.config;
 
+import com.skaet.ussd.account.service.AccountIdentityCache;
+import com.skaet.ussd.session.SessionNearCache;
+import com.skaet.ussd.session.UssdSession;
+import com.skaet.ussd.session.UssdSessionCodec;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
@@ -18,4 +24,37 @@ public class RedisConfig {
         template.setDefaultSerializer(new GenericJackson2JsonRedisSerializer());
         return template;
     }
+
+    @Bean
+    public RedisTemplate<String, UssdSession> sessionRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, UssdSession> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(StringRedisSerializer.UTF_8);
+        template.setValueSerializer(new UssdSessionCodec());
+        template.setEnableDefaultSerializer(false);
+        return template;
+    }
+
+    /**
+     * Subscribes the enabled in-JVM caches to the invalidations, and the replica reads to the
+     * primary pins, that other nodes publish.
+     */
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListener(RedisConnectionFactory connectionFactory,
+                                                                   SessionNearCache nearCache,
+                                                                   AccountIdentityCache identityCache,
+                                                                   ReplicaReads replicaReads) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        if (nearCache.isEnabled()) {
+            container.addMessageListener(nearCache, new ChannelTopic(SessionNearCache.INVALIDATION_CHANNEL));
+        }
+        if (identityCache.isEnabled()) {
+            container.addMessageListener(identityCache, new ChannelTopic(AccountIdentityCache.INVALIDATION_CHANNEL));
+        }
+        if (replicaReads.isEnabled()) {
+            container.addMessageListener(replicaReads, new ChannelTopic(ReplicaReads.PIN_CHANNEL));
+        }
+        return container;
+    }
 }
\ No newline at end of file
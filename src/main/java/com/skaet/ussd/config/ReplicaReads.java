@@ -0,0 +1,125 @@
+package com.skaet.ussd.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.skaet.ussd.shard.ShardRoutingDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Runs an account's lookups on a replica unless that account was written recently. Every write
+ * pins the phone number to the primary for {@code pin-window-ms}, long enough for the replicas
+ * to catch up, so a subscriber never reads back a state older than their own last change.
+ * <p>
+ * Pins live only in memory: the writing node publishes each one and every node keeps it for the
+ * window, so the next hop is pinned wherever it lands and a lookup never waits on Redis. A pin
+ * that cannot be published, or that a node misses while its subscription is down, leaves that
+ * node reading a replica no more than {@code max-lag-seconds} behind until the window ends.
+ * Reads sent to the primary by a pin are counted in {@code db.replica.fallback}, lost pins in
+ * {@code db.replica.pin.unpublished}.
+ */
+@Component
+@Slf4j
+public class ReplicaReads implements MessageListener {
+    public static final String PIN_CHANNEL = "db:primary-pin";
+
+    private final StringRedisTemplate redisTemplate;
+    private final TransactionTemplate readOnly;
+    private final boolean enabled;
+    private final Cache<String, Boolean> pins;
+    private final CacheInvalidation pinMessages = new CacheInvalidation(PIN_CHANNEL);
+    private final Counter pinnedReads;
+    private final Counter unpublishedPins;
+
+    public ReplicaReads(StringRedisTemplate redisTemplate,
+                        PlatformTransactionManager transactionManager,
+                        ShardRoutingDataSource routingDataSource,
+                        MeterRegistry meterRegistry,
+                        @Value("${datasource.replica.pin-window-ms:5000}") long pinWindowMs) {
+        this.redisTemplate = redisTemplate;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.enabled = routingDataSource.hasReplicas();
+        this.pins = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(Duration.ofMillis(pinWindowMs))
+                .build();
+        this.pinnedReads = meterRegistry.counter("db.replica.fallback", "reason", "pinned");
+        this.unpublishedPins = meterRegistry.counter("db.replica.pin.unpublished");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs {@code lookup} in a read-only transaction, which goes to a replica, unless
+     * {@code phoneNumber} is pinned to the primary. Inside a read-write transaction it simply
+     * joins it, on the primary.
+     */
+    public <T> T read(String phoneNumber, Supplier<T> lookup) {
+        if (!enabled || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return lookup.get();
+        }
+        if (pins.getIfPresent(phoneNumber) != null) {
+            pinnedReads.increment();
+            return lookup.get();
+        }
+        return readOnly.execute(status -> lookup.get());
+    }
+
+    /**
+     * Keeps reads for {@code phoneNumber} on the primary for the pin window, counted from when
+     * the surrounding transaction commits (or from now if there is none).
+     */
+    public void pinToPrimary(String phoneNumber) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    pin(phoneNumber);
+                }
+            });
+        } else {
+            pin(phoneNumber);
+        }
+    }
+
+    private void pin(String phoneNumber) {
+        pins.put(phoneNumber, Boolean.TRUE);
+        try {
+            redisTemplate.convertAndSend(pinMessages.channel(), pinMessages.message(phoneNumber));
+        } catch (Exception e) {
+            unpublishedPins.increment();
+            log.error("Could not publish primary pin for {}: {}", phoneNumber, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            String phoneNumber = pinMessages.keyToDrop(message);
+            if (phoneNumber != null) {
+                pins.put(phoneNumber, Boolean.TRUE);
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring primary pin: {}", e.getMessage());
+        }
+    }
+}
@@ -1,14 +1,18 @@
 package com.skaet.ussd.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
-import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
 
 @Configuration
 @EnableWebSecurity
@@ -21,19 +25,22 @@ public class SecurityConfig {
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/ussd/**").permitAll()
                     .requestMatchers("/flutterwave/webhook").permitAll()
+                    .requestMatchers(EndpointRequest.to("health", "prometheus")).permitAll()
 
                     .anyRequest().authenticated()
             );
         return http.build();
     }
 
+    /**
+     * PINs are stored as {@code {id}hash} so the algorithm can change later. Hashes written before
+     * the prefix existed are plain BCrypt and still verify; they are rehashed on next use.
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
-    }
-
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public PasswordEncoder passwordEncoder(@Value("${pin.hashing.bcrypt-strength:10}") int strength) {
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder("bcrypt",
+                Map.of("bcrypt", new BCryptPasswordEncoder(strength)));
+        encoder.setDefaultPasswordEncoderForMatches(new BCryptPasswordEncoder(strength));
+        return encoder;
     }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.skaet.ussd.config;
+
+import com.skaet.ussd.util.HopDeadline;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Apache HttpClient request factory that puts a wall-clock limit on every exchange: the request is
+ * aborted once the total timeout has passed since it was created, whether it is waiting for a
+ * pooled connection, connecting, sending, or reading the response. On a USSD hop the limit is also
+ * cut to the time left before the hop's deadline, so a slow provider fails the call instead of
+ * holding the hop. The lease, connect and response timeouts are each cut to the same budget, so a
+ * single stage fails on its own timeout rather than waiting for the abort.
+ */
+class TotalTimeoutRequestFactory extends HttpComponentsClientHttpRequestFactory {
+    private static final ScheduledExecutorService ABORTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Duration connectTimeout;
+    private final Duration totalTimeout;
+
+    TotalTimeoutRequestFactory(HttpClient httpClient, Duration connectTimeout, Duration totalTimeout) {
+        super(httpClient);
+        this.connectTimeout = connectTimeout;
+        this.totalTimeout = totalTimeout;
+    }
+
+    /**
+     * Schedules the abort. A request that finished first is left alone: its connection is back in
+     * the pool and cancelling finds nothing to abort.
+     */
+    @Override
+    protected ClassicHttpRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+        ClassicHttpRequest request = super.createHttpUriRequest(httpMethod, uri);
+        if (request instanceof Cancellable cancellable) {
+            ABORTS.schedule(cancellable::cancel, budget(uri).toMilliseconds(), TimeUnit.MILLISECONDS);
+        }
+        return request;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation") // the per-request connect timeout still overrides the pool's
+    protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+        Timeout budget = budget(uri);
+        RequestConfig defaults = createRequestConfig(getHttpClient());
+        if (defaults == null) {
+            defaults = RequestConfig.DEFAULT;
+        }
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.copy(defaults)
+                .setConnectionRequestTimeout(shorter(defaults.getConnectionRequestTimeout(), budget))
+                .setConnectTimeout(shorter(Timeout.ofMilliseconds(connectTimeout.toMillis()), budget))
+                .setResponseTimeout(shorter(defaults.getResponseTimeout(), budget))
+                .build());
+        return context;
+    }
+
+    protected Duration timeoutFor(URI uri) {
+        return HopDeadline.cap(totalTimeout);
+    }
+
+    private Timeout budget(URI uri) {
+        // A zero timeout means no timeout to HttpClient, so a spent budget becomes 1ms
+        return Timeout.ofMilliseconds(Math.max(1, timeoutFor(uri).toMillis()));
+    }
+
+    private static Timeout shorter(Timeout configured, Timeout budget) {
+        return TimeValue.isPositive(configured) && configured.compareTo(budget) < 0 ? configured : budget;
+    }
+}
@@ -0,0 +1,46 @@
+package com.skaet.ussd.config;
+
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the app's own background workers. When virtual threads are enabled
+ * ({@code spring.threads.virtual.enabled=true} on Java 21+) workers that spend their time blocked on
+ * outbound calls run on virtual threads too; otherwise they get named daemon platform threads.
+ */
+@Component
+public class WorkerThreads {
+    private final boolean virtual;
+
+    public WorkerThreads(Environment environment) {
+        this.virtual = Threading.VIRTUAL.isActive(environment);
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public ThreadFactory named(String prefix) {
+        if (virtual) {
+            return new VirtualThreadTaskExecutor(prefix).getVirtualThreadFactory();
+        }
+        return platform(prefix);
+    }
+
+    /**
+     * Daemon platform threads regardless of mode, for CPU-bound pools that should be sized to the cores.
+     */
+    public ThreadFactory platform(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package com.skaet.ussd.controller;
+
+import com.skaet.ussd.menu.MenuState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Times every /ussd hop as {@code ussd.hop}, tagged with the flow the hop ended in, its menu level
+ * (0 for the dial, then one per input; capped) and whether the reply continued or ended the
+ * session. Hops that took longer than the per-hop budget are also counted as
+ * {@code ussd.deadline.missed} by flow. Meters are registered on first use and then looked up by
+ * array index, so the hop does not pay for a registry lookup.
+ */
+@Component
+public class UssdHopMetrics {
+    static final int MAX_LEVEL = 8;
+
+    public enum Outcome {
+        CON, END, EXPIRED, ERROR
+    }
+
+    private static final MenuState[] STATES = MenuState.values();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final MeterRegistry meterRegistry;
+    private final Duration budget;
+    private final long budgetNanos;
+    private final AtomicReferenceArray<Counter> missed = new AtomicReferenceArray<>(STATES.length + 1);
+    // Indexed by state (one extra slot for "no state"), level and outcome
+    private final AtomicReferenceArray<Timer> timers =
+            new AtomicReferenceArray<>((STATES.length + 1) * (MAX_LEVEL + 1) * OUTCOMES.length);
+
+    public UssdHopMetrics(MeterRegistry meterRegistry,
+                          @Value("${ussd.deadline.budget-ms:3000}") long budgetMs) {
+        this.meterRegistry = meterRegistry;
+        this.budget = Duration.ofMillis(budgetMs);
+        this.budgetNanos = budget.toNanos();
+    }
+
+    /**
+     * How long a hop may take before the aggregator is likely to drop the session.
+     */
+    public Duration budget() {
+        return budget;
+    }
+
+    public void record(MenuState state, int level, Outcome outcome, long nanos) {
+        int stateIndex = state == null ? STATES.length : state.ordinal();
+        int cappedLevel = Math.min(level, MAX_LEVEL);
+        int index = (stateIndex * (MAX_LEVEL + 1) + cappedLevel) * OUTCOMES.length + outcome.ordinal();
+        Timer timer = timers.get(index);
+        if (timer == null) {
+            timer = Timer.builder("ussd.hop")
+                    .description("USSD request handling time")
+                    .tag("flow", state == null ? "none" : state.flow())
+                    .tag("level", cappedLevel == MAX_LEVEL ? MAX_LEVEL + "+" : Integer.toString(cappedLevel))
+                    .tag("outcome", outcome.name().toLowerCase())
+                    .register(meterRegistry);
+            timers.lazySet(index, timer);
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+        if (nanos > budgetNanos) {
+            missed(state, stateIndex).increment();
+        }
+    }
+
+    private Counter missed(MenuState state, int stateIndex) {
+        Counter counter = missed.get(stateIndex);
+        if (counter == null) {
+            counter = Counter.builder("ussd.deadline.missed")
+                    .description("Hops that took longer than the per-hop budget")
+                    .tag("flow", state == null ? "none" : state.flow())
+                    .register(meterRegistry);
+            missed.lazySet(stateIndex, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Menu level of a hop from the aggregator's cumulative {@code text}: 0 for the dial, otherwise
+     * the number of inputs so far.
+     */
+    public static int level(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int level = 1;
+        for (int i = 0; i < text.length() && level < MAX_LEVEL; i++) {
+            if (text.charAt(i) == '*') {
+                level++;
+            }
+        }
+        return level;
+    }
+}
@@ -2,21 +2,51 @@ package com.skaet.ussd.currency;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
+import com.skaet.ussd.config.OffHopExecutor;
+import com.skaet.ussd.util.HopDeadline;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Serves exchange rates from an in-memory matrix. One upstream call fetches every supported
+ * currency against {@code currency.rates.base}; cross rates are derived locally. The matrix is
+ * refreshed on a schedule, and concurrent reads that find it missing or too old share one fetch.
+ * Lookups are timed as {@code currency.rate.lookup} (a lookup that has to wait for a refresh shows
+ * up in its tail), upstream fetches as {@code currency.rates.fetch}, and the matrix age is exported
+ * as {@code currency.rates.age}. On a USSD hop a matrix past its max age is served as it is
+ * while it refreshes in the background, rather than making the subscriber wait for the upstream.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class CurrencyService {
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final OffHopExecutor offHopExecutor;
+    private final Timer rateLookups;
+    private final Timer rateUnavailable;
+    private final Timer convertLookups;
+    private final Timer convertUnavailable;
 
     @Value("${currency.api.key}")
     private String apiKey;
@@ -24,38 +54,177 @@ public class CurrencyService {
     @Value("${currency.api.base-url}")
     private String baseUrl;
 
+    @Value("${currency.rates.base:USD}")
+    private String rateBase;
+
+    // Older than this and a conversion refreshes the matrix before answering
+    @Value("${currency.rates.max-age-seconds:1800}")
+    private long maxAgeSeconds;
+
+    // Older than this and the matrix is not served at all, even if the refresh fails
+    @Value("${currency.rates.max-stale-seconds:86400}")
+    private long maxStaleSeconds;
+
+    // Kept back from the hop deadline when waiting for a refresh another thread started
+    @Value("${ussd.deadline.reserve-ms:250}")
+    private long reserveMs;
+
     private static final BigDecimal DEFAULT_RATE = BigDecimal.ONE.setScale(4, RoundingMode.HALF_UP);
 
+    private final AtomicReference<RateMatrix> matrix = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<RateMatrix>> inFlight = new AtomicReference<>();
+    private URI ratesUri;
+
+    public CurrencyService(@Qualifier("currencyRestTemplate") RestTemplate restTemplate,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           OffHopExecutor offHopExecutor) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.offHopExecutor = offHopExecutor;
+        this.rateLookups = lookupTimer("rate", "success");
+        this.rateUnavailable = lookupTimer("rate", "unavailable");
+        this.convertLookups = lookupTimer("convert", "success");
+        this.convertUnavailable = lookupTimer("convert", "unavailable");
+        Gauge.builder("currency.rates.age", matrix, m -> m.get() == null ? Double.NaN : m.get().ageNanos() / 1e9)
+                .description("Seconds since the exchange rates were fetched")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    private Timer lookupTimer(String operation, String outcome) {
+        return Timer.builder("currency.rate.lookup")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void buildRatesUri() {
+        String currencies = String.join(",", RateMatrix.CURRENCIES.stream().filter(c -> !c.equals(rateBase)).toList());
+        ratesUri = UriComponentsBuilder.fromUriString(baseUrl + "/latest")
+                .queryParam("apikey", apiKey)
+                .queryParam("base_currency", rateBase)
+                .queryParam("currencies", currencies)
+                .build()
+                .toUri();
+    }
+
+    @Scheduled(fixedDelayString = "${currency.rates.refresh-interval-ms:600000}")
+    public void refreshRates() {
+        fetchMatrix().join();
+    }
+
     public BigDecimal getExchangeRate(String baseCurrency, String targetCurrency) {
+        long started = System.nanoTime();
+        BigDecimal rate = rate(baseCurrency, targetCurrency);
+        (rate != null ? rateLookups : rateUnavailable).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return rate != null ? rate.setScale(4, RoundingMode.HALF_UP) : DEFAULT_RATE;
+    }
+
+    public BigDecimal convert(String fromCurrency, String toCurrency, BigDecimal amount) {
+        if (fromCurrency.equals(toCurrency)) {
+            return amount;
+        }
+        long started = System.nanoTime();
+        // Unrounded cross rate, so small-unit conversions (e.g. NGN -> GBP) keep their precision
+        BigDecimal rate = rate(fromCurrency, toCurrency);
+        (rate != null ? convertLookups : convertUnavailable).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return amount.multiply(rate != null ? rate : DEFAULT_RATE).setScale(2, RoundingMode.HALF_UP);
+    }
 
-        String url = String.format("%s/latest?apikey=%s&base_currency=%s&currencies=%s",
-                baseUrl, apiKey, baseCurrency, targetCurrency);
+    /**
+     * The cross rate, or null when there is none to serve.
+     */
+    private BigDecimal rate(String baseCurrency, String targetCurrency) {
+        RateMatrix current = currentMatrix();
+        BigDecimal rate = current != null ? current.rate(baseCurrency, targetCurrency) : null;
+        if (rate == null) {
+            log.error("No exchange rate available: {} -> {}", baseCurrency, targetCurrency);
+        }
+        return rate;
+    }
+
+    private RateMatrix currentMatrix() {
+        RateMatrix current = matrix.get();
+        if (current != null && current.ageNanos() > TimeUnit.SECONDS.toNanos(maxAgeSeconds) && HopDeadline.isActive()) {
+            offHopExecutor.degraded("stale_rates");
+            if (inFlight.get() == null) {
+                offHopExecutor.defer("exchange rate refresh", this::fetchMatrix);
+            }
+        } else if (current == null || current.ageNanos() > TimeUnit.SECONDS.toNanos(maxAgeSeconds)) {
+            current = awaitRefresh(current);
+        }
+        if (current != null && current.ageNanos() > TimeUnit.SECONDS.toNanos(maxStaleSeconds)) {
+            log.error("Exchange rates are older than {}s, refusing to serve them", maxStaleSeconds);
+            return null;
+        }
+        return current;
+    }
 
+    private RateMatrix awaitRefresh(RateMatrix current) {
         try {
-            log.info("Fetching exchange rate: {} -> {}", baseCurrency, targetCurrency);
-            String response = restTemplate.getForObject(url, String.class);
-
-            JsonNode root = objectMapper.readTree(response);
-            JsonNode data = root.get("data");
-            
-            if (data != null && data.has(targetCurrency)) {
-                return BigDecimal.valueOf(data.get(targetCurrency).asDouble())
-                        .setScale(4, RoundingMode.HALF_UP);
+            RateMatrix refreshed = HopDeadline.await(fetchMatrix(), Duration.ofMillis(reserveMs));
+            return refreshed != null ? refreshed : current;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return current;
+        } catch (ExecutionException e) {
+            return current;
+        }
+    }
+
+    /**
+     * Single-flight refresh: the first caller fetches, everyone arriving meanwhile waits on the same
+     * future. Completes with the previous matrix (possibly null) when the fetch fails.
+     */
+    private CompletableFuture<RateMatrix> fetchMatrix() {
+        while (true) {
+            CompletableFuture<RateMatrix> existing = inFlight.get();
+            if (existing != null) {
+                return existing;
+            }
+            CompletableFuture<RateMatrix> mine = new CompletableFuture<>();
+            if (inFlight.compareAndSet(null, mine)) {
+                Timer.Sample sample = Timer.start(meterRegistry);
+                String outcome = "failure";
+                try {
+                    RateMatrix fetched = loadMatrix();
+                    if (fetched != null) {
+                        matrix.set(fetched);
+                        outcome = "success";
+                    }
+                    mine.complete(matrix.get());
+                } catch (Exception e) {
+                    log.error("Failed to fetch exchange rates: {}", e.getMessage());
+                    mine.complete(matrix.get());
+                } finally {
+                    sample.stop(Timer.builder("currency.rates.fetch").tag("outcome", outcome).register(meterRegistry));
+                    inFlight.set(null);
+                }
+                return mine;
             }
-            
-            log.error("Failed to get exchange rate from response: {}", response);
-            return DEFAULT_RATE;
-        } catch (Exception e) {
-            log.error("Failed to fetch exchange rate: {}", e.getMessage());
-            return DEFAULT_RATE;
         }
     }
 
-    public BigDecimal convert(String fromCurrency, String toCurrency, BigDecimal amount) {
-        if (fromCurrency.equals(toCurrency)) {
-            return amount;
+    private RateMatrix loadMatrix() throws Exception {
+        log.info("Fetching exchange rates against {}", rateBase);
+        String response = restTemplate.getForObject(ratesUri, String.class);
+
+        JsonNode data = objectMapper.readTree(response).get("data");
+        if (data == null) {
+            log.error("Failed to get exchange rates from response: {}", response);
+            return null;
+        }
+
+        Map<String, BigDecimal> quotes = new HashMap<>();
+        for (String currency : RateMatrix.CURRENCIES) {
+            JsonNode quote = data.get(currency);
+            if (quote != null && quote.isNumber()) {
+                quotes.put(currency, quote.decimalValue());
+            }
         }
-        BigDecimal rate = getExchangeRate(fromCurrency, toCurrency);
-        return amount.multiply(rate).setScale(2, RoundingMode.HALF_UP);
+        return RateMatrix.fromQuotes(rateBase, quotes);
     }
 }
@@ -0,0 +1,67 @@
+package com.skaet.ussd.currency;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of every cross rate between the supported currencies, derived from a single
+ * set of rates quoted against one base currency.
+ */
+final class RateMatrix {
+    static final List<String> CURRENCIES = List.of("NGN", "USD", "EUR", "GBP");
+
+    private final BigDecimal[][] rates;
+    private final long fetchedAtNanos;
+
+    private RateMatrix(BigDecimal[][] rates, long fetchedAtNanos) {
+        this.rates = rates;
+        this.fetchedAtNanos = fetchedAtNanos;
+    }
+
+    /**
+     * @param quotes units of each currency per one unit of the base currency (the base itself may be absent)
+     */
+    static RateMatrix fromQuotes(String base, Map<String, BigDecimal> quotes) {
+        int size = CURRENCIES.size();
+        BigDecimal[] perBase = new BigDecimal[size];
+        for (int i = 0; i < size; i++) {
+            String currency = CURRENCIES.get(i);
+            perBase[i] = currency.equals(base) ? BigDecimal.ONE : quotes.get(currency);
+        }
+
+        BigDecimal[][] rates = new BigDecimal[size][size];
+        for (int from = 0; from < size; from++) {
+            for (int to = 0; to < size; to++) {
+                if (perBase[from] != null && perBase[to] != null && perBase[from].signum() > 0) {
+                    rates[from][to] = perBase[to].divide(perBase[from], MathContext.DECIMAL64);
+                }
+            }
+        }
+        return new RateMatrix(rates, System.nanoTime());
+    }
+
+    /**
+     * Returns the rate, or null when either currency is unsupported or was missing upstream.
+     */
+    BigDecimal rate(String from, String to) {
+        int fromIndex = index(from);
+        int toIndex = index(to);
+        return fromIndex < 0 || toIndex < 0 ? null : rates[fromIndex][toIndex];
+    }
+
+    long ageNanos() {
+        return System.nanoTime() - fetchedAtNanos;
+    }
+
+    private static int index(String currency) {
+        return switch (currency) {
+            case "NGN" -> 0;
+            case "USD" -> 1;
+            case "EUR" -> 2;
+            case "GBP" -> 3;
+            default -> -1;
+        };
+    }
+}
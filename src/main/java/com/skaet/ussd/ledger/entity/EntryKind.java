@@ -0,0 +1,6 @@
+package com.skaet.ussd.ledger.entity;
+
+public enum EntryKind {
+    DEPOSIT,
+    WITHDRAWAL
+}
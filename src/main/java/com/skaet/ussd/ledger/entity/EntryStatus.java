@@ -0,0 +1,9 @@
+package com.skaet.ussd.ledger.entity;
+
+public enum EntryStatus {
+    PENDING,
+    POSTED,
+    FAILED,
+    // The provider reported another amount or currency; nothing moved, held for a manual review
+    MISMATCH
+}
@@ -0,0 +1,6 @@
+package com.skaet.ussd.ledger.entity;
+
+public enum LedgerAccount {
+    WALLET,
+    GATEWAY_CLEARING
+}
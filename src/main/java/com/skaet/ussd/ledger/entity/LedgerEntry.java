@@ -0,0 +1,69 @@
+package com.skaet.ussd.ledger.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * One leg of a journal entry. Rows are only ever inserted: a transfer is recorded as PENDING
+ * legs when it is initiated and as POSTED legs when the gateway confirms it, or FAILED legs when
+ * it is known not to have gone through.
+ * <p>
+ * Ids come from a pooled sequence rather than IDENTITY so Hibernate can batch the inserts.
+ * The production DDL (time-partitioned) is in {@code db/ledger_entries.sql}.
+ */
+@Entity
+@Immutable
+@Data
+@NoArgsConstructor
+@Table(name = "ledger_entries",
+        indexes = {
+                @Index(name = "idx_ledger_entries_wallet_created", columnList = "walletId, createdAt"),
+                @Index(name = "idx_ledger_entries_reference", columnList = "reference"),
+                @Index(name = "idx_ledger_entries_status_id", columnList = "status, id")
+        })
+public class LedgerEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ledger_entry_seq")
+    @SequenceGenerator(name = "ledger_entry_seq", sequenceName = "ledger_entry_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String reference;
+
+    @Column(nullable = false)
+    private Long walletId;
+
+    @Column(nullable = false)
+    private String phoneNumber;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private LedgerAccount account;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    private EntryDirection direction;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private EntryKind kind;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private EntryStatus status;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    // Wallet balance after this leg; only set on posted wallet legs
+    @Column(precision = 19, scale = 2)
+    private BigDecimal balanceAfter;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+}
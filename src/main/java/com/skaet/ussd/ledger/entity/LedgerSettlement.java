@@ -0,0 +1,40 @@
+package com.skaet.ussd.ledger.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import java.time.Instant;
+
+/**
+ * Marks a transfer as closed: posted, failed or held as a mismatch. The reference is unique, so a second settlement
+ * of the same transfer fails at the database and rolls back with the balance change it came with.
+ * {@code ledger_entries} cannot carry that key: MySQL wants the partitioning column in every
+ * unique key of a partitioned table.
+ */
+@Entity
+@Immutable
+@Data
+@NoArgsConstructor
+@Table(name = "ledger_settlements",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ledger_settlements_reference", columnNames = "reference"))
+public class LedgerSettlement {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ledger_settlement_seq")
+    @SequenceGenerator(name = "ledger_settlement_seq", sequenceName = "ledger_settlement_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String reference;
+
+    @Column(nullable = false)
+    private String phoneNumber;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private EntryStatus status;
+
+    @Column(nullable = false)
+    private Instant settledAt;
+}
@@ -0,0 +1,46 @@
+package com.skaet.ussd.ledger.repository;
+
+import com.skaet.ussd.ledger.entity.LedgerEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long> {
+    List<LedgerEntry> findByWalletIdAndCreatedAtBetweenOrderByCreatedAt(Long walletId, Instant from, Instant to);
+
+    List<LedgerEntry> findByReferenceOrderById(String reference);
+
+    /**
+     * Wallet legs of transfers initiated between {@code since} and {@code before} that are still
+     * pending (nothing posted or failed under their reference), in id order after {@code afterId}.
+     */
+    @Query("select e from LedgerEntry e " +
+            "where e.status = com.skaet.ussd.ledger.entity.EntryStatus.PENDING " +
+            "and e.account = com.skaet.ussd.ledger.entity.LedgerAccount.WALLET " +
+            "and e.id > :afterId and e.createdAt >= :since and e.createdAt < :before " +
+            "and not exists (select 1 from LedgerEntry s where s.reference = e.reference " +
+            "and s.status <> com.skaet.ussd.ledger.entity.EntryStatus.PENDING) " +
+            "order by e.id")
+    List<LedgerEntry> findUnsettled(@Param("afterId") long afterId, @Param("since") Instant since,
+                                    @Param("before") Instant before, Pageable pageable);
+
+    @Query("select count(e) from LedgerEntry e " +
+            "where e.status = com.skaet.ussd.ledger.entity.EntryStatus.PENDING " +
+            "and e.account = com.skaet.ussd.ledger.entity.LedgerAccount.WALLET " +
+            "and e.createdAt >= :since and e.createdAt < :before " +
+            "and not exists (select 1 from LedgerEntry s where s.reference = e.reference " +
+            "and s.status <> com.skaet.ussd.ledger.entity.EntryStatus.PENDING)")
+    long countUnsettled(@Param("since") Instant since, @Param("before") Instant before);
+
+    /**
+     * Statuses of every leg under {@code reference}, locking them until the transaction ends.
+     */
+    @Query(value = "select status from ledger_entries where reference = :reference for update", nativeQuery = true)
+    List<String> lockStatuses(@Param("reference") String reference);
+}
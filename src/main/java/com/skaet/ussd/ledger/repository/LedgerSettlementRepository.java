@@ -0,0 +1,10 @@
+package com.skaet.ussd.ledger.repository;
+
+import com.skaet.ussd.ledger.entity.LedgerSettlement;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface LedgerSettlementRepository extends JpaRepository<LedgerSettlement, Long> {
+    boolean existsByReference(String reference);
+}
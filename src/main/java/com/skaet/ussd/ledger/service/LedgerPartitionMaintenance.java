@@ -0,0 +1,89 @@
+package com.skaet.ussd.ledger.service;
+
+import com.skaet.ussd.shard.ShardMap;
+import com.skaet.ussd.shard.ShardRouting;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Keeps monthly partitions of {@code ledger_entries} ahead of time on every shard, so rows never
+ * pile up in the catch-all {@code p_future} partition. Each missing month up to
+ * {@code ledger.partitions.months-ahead} is split off {@code p_future}; tables without that
+ * partition (the unpartitioned schema Hibernate creates in development) are left alone. Needs
+ * ALTER on the table; turn it off with {@code ledger.partitions.enabled=false} to manage
+ * partitions by hand.
+ */
+@Component
+@Slf4j
+public class LedgerPartitionMaintenance {
+    private static final String CATCH_ALL = "p_future";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'uuuu_MM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardMap shardMap;
+    private final ShardRouting shardRouting;
+    private final boolean enabled;
+    private final int monthsAhead;
+
+    public LedgerPartitionMaintenance(JdbcTemplate jdbcTemplate,
+                                      ShardMap shardMap,
+                                      ShardRouting shardRouting,
+                                      @Value("${ledger.partitions.enabled:true}") boolean enabled,
+                                      @Value("${ledger.partitions.months-ahead:3}") int monthsAhead) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardMap = shardMap;
+        this.shardRouting = shardRouting;
+        this.enabled = enabled;
+        this.monthsAhead = monthsAhead;
+    }
+
+    @Scheduled(fixedDelayString = "${ledger.partitions.check-interval-ms:86400000}",
+            initialDelayString = "${ledger.partitions.initial-delay-ms:60000}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        for (String shard : shardMap.names()) {
+            try {
+                shardRouting.onShard(shard, () -> addPartitions(shard));
+            } catch (Exception e) {
+                // Another node may have split the same month first; the next run checks again
+                log.warn("Could not add ledger partitions on shard {}: {}", shard, e.getMessage());
+            }
+        }
+    }
+
+    private void addPartitions(String shard) {
+        List<String> partitions = jdbcTemplate.queryForList("select partition_name from information_schema.partitions "
+                + "where table_schema = database() and table_name = 'ledger_entries' and partition_name is not null", String.class);
+        if (!partitions.contains(CATCH_ALL)) {
+            return;
+        }
+        YearMonth last = partitions.stream()
+                .filter(name -> !name.equals(CATCH_ALL))
+                .map(name -> YearMonth.parse(name, PARTITION_NAME))
+                .max(YearMonth::compareTo)
+                .orElse(null);
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            // Partitions can only be split off the end of the range
+            if (last != null && !month.isAfter(last)) {
+                continue;
+            }
+            jdbcTemplate.execute("alter table ledger_entries reorganize partition " + CATCH_ALL + " into ("
+                    + "partition " + month.format(PARTITION_NAME) + " values less than ('" + month.plusMonths(1).atDay(1) + "'), "
+                    + "partition " + CATCH_ALL + " values less than (maxvalue))");
+            last = month;
+            log.info("Added ledger partition {} on shard {}", month.format(PARTITION_NAME), shard);
+        }
+    }
+}
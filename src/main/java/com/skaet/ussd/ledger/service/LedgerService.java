@@ -0,0 +1,144 @@
+package com.skaet.ussd.ledger.service;
+
+import com.skaet.ussd.ledger.entity.*;
+import com.skaet.ussd.ledger.repository.LedgerEntryRepository;
+import com.skaet.ussd.ledger.repository.LedgerSettlementRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Double-entry journal for wallet movements. A deposit debits gateway clearing and credits the
+ * wallet; a withdrawal does the reverse. Both legs of an entry are inserted in one JDBC batch.
+ * Posting or failing a transfer also records its {@link LedgerSettlement}, whose unique
+ * reference stops the same transfer from being settled twice.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerService {
+    /** Wallets hold naira; a provider reporting any other currency does not match. */
+    public static final String CURRENCY = "NGN";
+
+    private final LedgerEntryRepository ledgerEntryRepository;
+    private final LedgerSettlementRepository ledgerSettlementRepository;
+
+    /**
+     * Records a transfer the gateway has accepted but not yet confirmed.
+     */
+    @Transactional
+    public void recordPending(String reference, Long walletId, String phoneNumber, EntryKind kind, BigDecimal amount) {
+        ledgerEntryRepository.saveAll(legs(reference, walletId, phoneNumber, kind, EntryStatus.PENDING, amount, null));
+        log.debug("Ledger pending {} {} {}", kind, reference, amount);
+    }
+
+    /**
+     * Records a transfer that is known not to have gone through, closing its pending entry.
+     */
+    @Transactional
+    public void recordFailed(String reference, Long walletId, String phoneNumber, EntryKind kind, BigDecimal amount) {
+        ledgerEntryRepository.saveAll(legs(reference, walletId, phoneNumber, kind, EntryStatus.FAILED, amount, null));
+        settle(reference, phoneNumber, EntryStatus.FAILED);
+        log.debug("Ledger failed {} {} {}", kind, reference, amount);
+    }
+
+    /**
+     * Closes a pending transfer the provider reports with another amount or currency than was
+     * recorded, without moving money, so neither reconciliation nor a webhook settles it.
+     */
+    @Transactional
+    public void recordMismatch(String reference, Long walletId, String phoneNumber, EntryKind kind, BigDecimal amount) {
+        ledgerEntryRepository.saveAll(legs(reference, walletId, phoneNumber, kind, EntryStatus.MISMATCH, amount, null));
+        settle(reference, phoneNumber, EntryStatus.MISMATCH);
+        log.debug("Ledger mismatch {} {} {}", kind, reference, amount);
+    }
+
+    /**
+     * Locks the journal rows for {@code reference} until the transaction ends and returns true if
+     * the transfer is still open, i.e. it was recorded as pending and nothing has been posted or
+     * failed under it since. Webhooks and reconciliation both check this before moving money, so
+     * whichever sees a transfer first settles it and the other leaves it alone. A reference with
+     * no journal rows was never started here and is never open.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean lockForSettlement(String reference) {
+        List<String> statuses = ledgerEntryRepository.lockStatuses(reference);
+        return !statuses.isEmpty() && statuses.stream().allMatch(EntryStatus.PENDING.name()::equals)
+                && !ledgerSettlementRepository.existsByReference(reference);
+    }
+
+    /**
+     * The wallet leg recorded when the transfer under {@code reference} started, whether or not
+     * it has been settled since; empty if it was never started here.
+     */
+    public Optional<LedgerEntry> pendingWalletLeg(String reference) {
+        return ledgerEntryRepository.findByReferenceOrderById(reference).stream()
+                .filter(entry -> entry.getAccount() == LedgerAccount.WALLET && entry.getStatus() == EntryStatus.PENDING)
+                .findFirst();
+    }
+
+    /**
+     * Whether a provider's report of {@code entry}'s transfer is for the recorded amount, in naira.
+     */
+    public static boolean matchesRecorded(LedgerEntry entry, BigDecimal amount, String currency) {
+        return amount != null && amount.compareTo(entry.getAmount()) == 0 && CURRENCY.equalsIgnoreCase(currency);
+    }
+
+    /**
+     * Records a confirmed transfer. Must run in the transaction that moves the wallet balance,
+     * so the journal and the balance commit or roll back together.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void post(String reference, Long walletId, String phoneNumber, EntryKind kind, BigDecimal amount, BigDecimal balanceAfter) {
+        ledgerEntryRepository.saveAll(legs(reference, walletId, phoneNumber, kind, EntryStatus.POSTED, amount, balanceAfter));
+        settle(reference, phoneNumber, EntryStatus.POSTED);
+        log.debug("Ledger posted {} {} {}", kind, reference, amount);
+    }
+
+    // Flushed here so a duplicate fails in the caller's transaction rather than at commit
+    private void settle(String reference, String phoneNumber, EntryStatus status) {
+        LedgerSettlement settlement = new LedgerSettlement();
+        settlement.setReference(reference);
+        settlement.setPhoneNumber(phoneNumber);
+        settlement.setStatus(status);
+        settlement.setSettledAt(Instant.now());
+        ledgerSettlementRepository.saveAndFlush(settlement);
+    }
+
+    private static List<LedgerEntry> legs(String reference, Long walletId, String phoneNumber, EntryKind kind,
+                                          EntryStatus status, BigDecimal amount, BigDecimal balanceAfter) {
+        Instant now = Instant.now();
+        EntryDirection walletDirection = kind == EntryKind.DEPOSIT ? EntryDirection.CREDIT : EntryDirection.DEBIT;
+        EntryDirection clearingDirection = kind == EntryKind.DEPOSIT ? EntryDirection.DEBIT : EntryDirection.CREDIT;
+
+        LedgerEntry wallet = leg(reference, walletId, phoneNumber, kind, status, amount, now);
+        wallet.setAccount(LedgerAccount.WALLET);
+        wallet.setDirection(walletDirection);
+        wallet.setBalanceAfter(balanceAfter);
+
+        LedgerEntry clearing = leg(reference, walletId, phoneNumber, kind, status, amount, now);
+        clearing.setAccount(LedgerAccount.GATEWAY_CLEARING);
+        clearing.setDirection(clearingDirection);
+        return List.of(wallet, clearing);
+    }
+
+    private static LedgerEntry leg(String reference, Long walletId, String phoneNumber, EntryKind kind,
+                                   EntryStatus status, BigDecimal amount, Instant now) {
+        LedgerEntry entry = new LedgerEntry();
+        entry.setReference(reference);
+        entry.setWalletId(walletId);
+        entry.setPhoneNumber(phoneNumber);
+        entry.setKind(kind);
+        entry.setStatus(status);
+        entry.setAmount(amount);
+        entry.setCreatedAt(now);
+        return entry;
+    }
+}
@@ -0,0 +1,12 @@
+package com.skaet.ussd.menu;
+
+import com.skaet.ussd.session.UssdSession;
+
+/**
+ * Handler for a free-text input node. Returning {@code null} moves the session to the
+ * node's next state and replies with that state's prompt; any other value is sent as-is.
+ */
+@FunctionalInterface
+public interface MenuAction {
+    String apply(UssdSession session, String input);
+}
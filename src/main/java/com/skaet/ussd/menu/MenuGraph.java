@@ -0,0 +1,120 @@
+package com.skaet.ussd.menu;
+
+import com.skaet.ussd.session.UssdSession;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Declarative description of the USSD menu. Built once at startup and compiled into an
+ * immutable {@link UssdMenu}.
+ */
+public class MenuGraph {
+    private final Map<MenuState, Node> nodes = new EnumMap<>(MenuState.class);
+
+    public OptionsBuilder options(MenuState state, String prompt) {
+        Node node = define(state, prompt);
+        return new OptionsBuilder(node);
+    }
+
+    public MenuGraph input(MenuState state, String prompt, MenuAction action, MenuState next) {
+        Node node = define(state, prompt);
+        node.action = action;
+        node.next = next;
+        return this;
+    }
+
+    public MenuGraph input(MenuState state, String prompt, MenuAction action) {
+        return input(state, prompt, action, null);
+    }
+
+    private Node define(MenuState state, String prompt) {
+        if (nodes.containsKey(state)) {
+            throw new IllegalStateException("Menu state defined twice: " + state);
+        }
+        Node node = new Node(prompt);
+        nodes.put(state, node);
+        return node;
+    }
+
+    public UssdMenu compile() {
+        int size = MenuState.values().length;
+        String[] prompts = new String[size];
+        MenuAction[] actions = new MenuAction[size];
+        int[] next = new int[size];
+        UssdMenu.Option[][] options = new UssdMenu.Option[size][];
+        String[] invalid = new String[size];
+
+        for (MenuState state : MenuState.values()) {
+            Node node = nodes.get(state);
+            if (node == null) {
+                throw new IllegalStateException("Menu state not defined: " + state);
+            }
+            int id = state.ordinal();
+            prompts[id] = node.prompt;
+            actions[id] = node.action;
+            next[id] = node.next != null ? node.next.ordinal() : UssdMenu.NO_STATE;
+            invalid[id] = node.invalid;
+            if (node.action == null) {
+                options[id] = node.options;
+                for (UssdMenu.Option option : node.options) {
+                    if (option != null && option.target() != UssdMenu.NO_STATE && !nodes.containsKey(MenuState.values()[option.target()])) {
+                        throw new IllegalStateException("Option of " + state + " points to an undefined state");
+                    }
+                }
+            }
+        }
+        return new UssdMenu(prompts, actions, next, options, invalid);
+    }
+
+    private static final class Node {
+        private final String prompt;
+        private MenuAction action;
+        private MenuState next;
+        private final UssdMenu.Option[] options = new UssdMenu.Option[10];
+        private String invalid = "END Invalid option selected";
+
+        private Node(String prompt) {
+            this.prompt = prompt;
+        }
+    }
+
+    public final class OptionsBuilder {
+        private final Node node;
+
+        private OptionsBuilder(Node node) {
+            this.node = node;
+        }
+
+        public OptionsBuilder on(char key, MenuState target) {
+            return on(key, target, null);
+        }
+
+        public OptionsBuilder on(char key, MenuState target, Consumer<UssdSession> effect) {
+            node.options[digit(key)] = new UssdMenu.Option(target.ordinal(), null, effect);
+            return this;
+        }
+
+        public OptionsBuilder end(char key, String reply) {
+            node.options[digit(key)] = new UssdMenu.Option(UssdMenu.NO_STATE, reply, null);
+            return this;
+        }
+
+        public OptionsBuilder otherwise(String reply) {
+            node.invalid = reply;
+            return this;
+        }
+
+        public MenuGraph and() {
+            return MenuGraph.this;
+        }
+
+        private int digit(char key) {
+            if (key < '0' || key > '9') {
+                throw new IllegalArgumentException("Menu options must be single digits: " + key);
+            }
+            return key - '0';
+        }
+    }
+}
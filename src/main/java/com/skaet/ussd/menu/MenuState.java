@@ -0,0 +1,61 @@
+package com.skaet.ussd.menu;
+
+/**
+ * Nodes of the USSD menu graph. The id is what is stored on the session, so it must never change
+ * or be reused; new states take a new id. The compiled menu indexes its tables by ordinal.
+ */
+public enum MenuState {
+    MAIN(0, "main"),
+    ACCOUNT_FIRST_NAME(1, "create"),
+    ACCOUNT_LAST_NAME(2, "create"),
+    ACCOUNT_PIN(3, "create"),
+    BALANCE_PIN(4, "balance"),
+    DEPOSIT_METHOD(5, "deposit"),
+    DEPOSIT_AMOUNT(6, "deposit"),
+    WITHDRAW_METHOD(7, "withdraw"),
+    WITHDRAW_AMOUNT(8, "withdraw"),
+    WITHDRAW_PIN(9, "withdraw"),
+    CURRENCY_BASE(10, "convert"),
+    CURRENCY_TARGET(11, "convert"),
+    CURRENCY_AMOUNT(12, "convert");
+
+    private static final MenuState[] BY_ID = new MenuState[256];
+
+    static {
+        for (MenuState state : values()) {
+            if (BY_ID[state.id] != null) {
+                throw new ExceptionInInitializerError("Menu state id " + state.id + " used twice");
+            }
+            BY_ID[state.id] = state;
+        }
+    }
+
+    private final int id;
+    private final String flow;
+
+    MenuState(int id, String flow) {
+        this.id = id;
+        this.flow = flow;
+    }
+
+    /**
+     * Stable id stored on the session, 0-255.
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * The user-facing flow this state belongs to, e.g. "deposit"; used as a metrics tag.
+     */
+    public String flow() {
+        return flow;
+    }
+
+    /**
+     * The state with {@code id}, or null if there is none.
+     */
+    public static MenuState fromId(int id) {
+        return id >= 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+}
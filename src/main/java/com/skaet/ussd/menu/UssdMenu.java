@@ -0,0 +1,112 @@
+package com.skaet.ussd.menu;
+
+import com.skaet.ussd.session.UssdSession;
+
+import java.util.function.Consumer;
+
+/**
+ * Compiled, immutable menu state machine. Dispatch is a couple of array reads keyed by the
+ * session's state (by ordinal) and the newest input segment.
+ */
+public final class UssdMenu {
+    static final int NO_STATE = -1;
+    private static final MenuState[] STATES = MenuState.values();
+
+    private final String[] prompts;
+    private final MenuAction[] actions;
+    private final int[] next;
+    private final Option[][] options;
+    private final String[] invalid;
+
+    UssdMenu(String[] prompts, MenuAction[] actions, int[] next, Option[][] options, String[] invalid) {
+        this.prompts = prompts;
+        this.actions = actions;
+        this.next = next;
+        this.options = options;
+        this.invalid = invalid;
+    }
+
+    public String prompt(MenuState state) {
+        return prompts[state.ordinal()];
+    }
+
+    public String start(UssdSession session) {
+        return enter(session, MenuState.MAIN.ordinal());
+    }
+
+    /**
+     * Applies the newest input of the aggregator's cumulative {@code text}. Aggregators resend a
+     * hop they got no answer to; a text with no more inputs than the session has already applied
+     * is such a resend and gets the current prompt again instead of moving the session on.
+     */
+    public String advance(UssdSession session, String text) {
+        int inputs = inputCount(text);
+        if (inputs <= session.getInputs() && session.getState() != null) {
+            return prompts[session.getState().ordinal()];
+        }
+        session.setInputs(inputs);
+        return dispatch(session, lastInput(text));
+    }
+
+    public String dispatch(UssdSession session, String input) {
+        MenuState current = session.getState();
+        if (current == null) {
+            return "END Invalid session state";
+        }
+        int state = current.ordinal();
+
+        MenuAction action = actions[state];
+        if (action != null) {
+            String reply = action.apply(session, input);
+            if (reply != null) {
+                return reply;
+            }
+            return enter(session, next[state]);
+        }
+
+        int digit = input.length() == 1 ? input.charAt(0) - '0' : -1;
+        Option option = digit >= 0 && digit <= 9 ? options[state][digit] : null;
+        if (option == null) {
+            return invalid[state];
+        }
+        if (option.target() == NO_STATE) {
+            return option.reply();
+        }
+        if (option.effect() != null) {
+            option.effect().accept(session);
+        }
+        return enter(session, option.target());
+    }
+
+    private String enter(UssdSession session, int target) {
+        if (target == NO_STATE) {
+            return "END Invalid session state";
+        }
+        session.setState(STATES[target]);
+        return prompts[target];
+    }
+
+    /**
+     * Extracts the newest segment of the aggregator's cumulative {@code text}, e.g. "1234" from "1*John*Doe*1234".
+     */
+    public static String lastInput(String text) {
+        int separator = text.lastIndexOf('*');
+        return separator < 0 ? text : text.substring(separator + 1);
+    }
+
+    /**
+     * Number of inputs in the aggregator's cumulative {@code text}, e.g. 4 for "1*John*Doe*1234".
+     */
+    public static int inputCount(String text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '*') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    record Option(int target, String reply, Consumer<UssdSession> effect) {
+    }
+}
@@ -0,0 +1,158 @@
+package com.skaet.ussd.menu;
+
+import com.skaet.ussd.account.service.AccountService;
+import com.skaet.ussd.currency.CurrencyService;
+import com.skaet.ussd.session.UssdSession;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.math.BigDecimal;
+
+import static com.skaet.ussd.menu.MenuState.*;
+
+@Configuration
+@RequiredArgsConstructor
+@Slf4j
+public class UssdMenuDefinition {
+    private final AccountService accountService;
+    private final CurrencyService currencyService;
+
+    private static final String MAIN_MENU = """
+       CON Welcome to SKAET USSD Banking
+       1. Create Account
+       2. Check Balance
+       3. Deposit
+       4. Withdraw
+       5. Currency Converter
+       6. Exit""";
+
+    private static final String TARGET_CURRENCY_MENU = """
+                   CON Select target currency:
+                   1. NGN
+                   2. USD
+                   3. EUR
+                   4. GBP""";
+
+    @Bean
+    public UssdMenu ussdMenu() {
+        return new MenuGraph()
+                .options(MAIN, MAIN_MENU)
+                    .on('1', ACCOUNT_FIRST_NAME)
+                    .on('2', BALANCE_PIN)
+                    .on('3', DEPOSIT_METHOD)
+                    .on('4', WITHDRAW_METHOD)
+                    .on('5', CURRENCY_BASE)
+                    .end('6', "END Thank you for using our service")
+                    .and()
+
+                .input(ACCOUNT_FIRST_NAME, "CON Enter your first name:", (session, input) -> {
+                    session.setFirstName(input);
+                    return null;
+                }, ACCOUNT_LAST_NAME)
+                .input(ACCOUNT_LAST_NAME, "CON Enter your last name:", (session, input) -> {
+                    session.setLastName(input);
+                    return null;
+                }, ACCOUNT_PIN)
+                .input(ACCOUNT_PIN, "CON Create your 4-digit PIN:", (session, pin) -> accountService.createAccount(
+                        session.getPhoneNumber(),
+                        session.getFirstName(),
+                        session.getLastName(),
+                        pin))
+
+                .input(BALANCE_PIN, "CON Enter your PIN:",
+                        (session, pin) -> accountService.checkBalance(session.getPhoneNumber(), pin))
+
+                .options(DEPOSIT_METHOD, """
+               CON Select deposit method:
+               1. Flutterwave USSD
+               0. Back to Main Menu""")
+                    .on('1', DEPOSIT_AMOUNT, session -> session.setDepositMethod("flutterwave"))
+                    .on('0', MAIN)
+                    .and()
+                .input(DEPOSIT_AMOUNT, "CON Enter amount to deposit:", this::handleDepositAmount)
+
+                .options(WITHDRAW_METHOD, """
+           CON Select withdrawal method:
+           1. Flutterwave
+           0. Back to Main Menu""")
+                    .on('1', WITHDRAW_AMOUNT, session -> session.setWithdrawMethod("flutterwave"))
+                    .on('0', MAIN)
+                    .and()
+                .input(WITHDRAW_AMOUNT, "CON Enter amount to withdraw:", this::handleWithdrawAmount, WITHDRAW_PIN)
+                // Withdrawal confirmation is not wired to AccountService yet (no bank details are collected)
+                .input(WITHDRAW_PIN, "CON Enter your PIN:", (session, pin) -> "END Invalid operation")
+
+                .options(CURRENCY_BASE, """
+               CON Select base currency:
+               1. NGN
+               2. USD
+               3. EUR
+               4. GBP
+               0. Back to Main Menu""")
+                    .on('1', CURRENCY_TARGET, session -> session.setBaseCurrency("NGN"))
+                    .on('2', CURRENCY_TARGET, session -> session.setBaseCurrency("USD"))
+                    .on('3', CURRENCY_TARGET, session -> session.setBaseCurrency("EUR"))
+                    .on('4', CURRENCY_TARGET, session -> session.setBaseCurrency("GBP"))
+                    .on('0', MAIN)
+                    .otherwise("END Invalid currency selected")
+                    .and()
+                .options(CURRENCY_TARGET, TARGET_CURRENCY_MENU)
+                    .on('1', CURRENCY_AMOUNT, session -> session.setTargetCurrency("NGN"))
+                    .on('2', CURRENCY_AMOUNT, session -> session.setTargetCurrency("USD"))
+                    .on('3', CURRENCY_AMOUNT, session -> session.setTargetCurrency("EUR"))
+                    .on('4', CURRENCY_AMOUNT, session -> session.setTargetCurrency("GBP"))
+                    .otherwise("END Invalid target currency")
+                    .and()
+                .input(CURRENCY_AMOUNT, "CON Enter amount to convert:", this::handleCurrencyAmount)
+
+                .compile();
+    }
+
+    private String handleDepositAmount(UssdSession session, String input) {
+        try {
+            double amount = Double.parseDouble(input);
+            if (amount <= 0) {
+                return "END Invalid amount. Please enter a positive number.";
+            }
+
+            // Process the deposit immediately after the amount is entered
+            return accountService.handleDeposit(session.getPhoneNumber(), String.valueOf(amount));
+        } catch (NumberFormatException e) {
+            return "END Invalid amount entered. Please enter a numeric value.";
+        }
+    }
+
+    private String handleWithdrawAmount(UssdSession session, String input) {
+        try {
+            double amount = Double.parseDouble(input);
+            if (amount <= 0) {
+                return "END Invalid amount. Please enter a positive number.";
+            }
+            session.setAmount(BigDecimal.valueOf(amount));
+            return null;
+        } catch (NumberFormatException e) {
+            return "END Invalid amount entered. Please enter a numeric value.";
+        }
+    }
+
+    private String handleCurrencyAmount(UssdSession session, String input) {
+        try {
+            BigDecimal amount = new BigDecimal(input);
+            String baseCurrency = session.getBaseCurrency();
+            String targetCurrency = session.getTargetCurrency();
+
+            BigDecimal convertedAmount = currencyService.convert(baseCurrency, targetCurrency, amount);
+
+            return String.format("END %s %s = %s %s",
+                    amount, baseCurrency,
+                    convertedAmount, targetCurrency);
+        } catch (NumberFormatException e) {
+            return "END Invalid amount entered";
+        } catch (Exception e) {
+            log.error("Currency conversion failed: {}", e.getMessage());
+            return "END Currency conversion failed. Please try again.";
+        }
+    }
+}
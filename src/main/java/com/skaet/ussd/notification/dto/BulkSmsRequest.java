@@ -0,0 +1,19 @@
+package com.skaet.ussd.notification.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkSmsRequest {
+    private List<String> to;
+    private String from;
+    private String sms;
+    private String type;
+    private String channel;
+    private String api_key;
+}
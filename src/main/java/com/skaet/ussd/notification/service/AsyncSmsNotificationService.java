@@ -0,0 +1,161 @@
+package com.skaet.ussd.notification.service;
+
+import com.skaet.ussd.config.WorkerThreads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Queues SMS for delivery by a small worker pool so callers never wait on Termii. Workers drain
+ * up to a batch of messages at a time, send identical texts through the bulk endpoint, and retry
+ * failures with exponential backoff before giving up.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "sms.async.enabled", havingValue = "true")
+@Slf4j
+public class AsyncSmsNotificationService implements SmsNotificationService {
+    private final TermiiSmsService termiiSmsService;
+    private final BlockingQueue<SmsTask> queue;
+    private final int workers;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+
+    private final ExecutorService workerPool;
+    private final ScheduledExecutorService retryScheduler;
+    private volatile boolean running = true;
+
+    private final Counter queueFullDrops;
+    private final Counter retriesExhaustedDrops;
+    private final Counter retries;
+
+    public AsyncSmsNotificationService(TermiiSmsService termiiSmsService,
+                                       MeterRegistry meterRegistry,
+                                       WorkerThreads workerThreads,
+                                       @Value("${sms.async.queue-capacity:5000}") int queueCapacity,
+                                       @Value("${sms.async.workers:4}") int workers,
+                                       @Value("${sms.async.batch-size:100}") int batchSize,
+                                       @Value("${sms.async.max-attempts:4}") int maxAttempts,
+                                       @Value("${sms.async.initial-backoff-ms:500}") long initialBackoffMs) {
+        this.termiiSmsService = termiiSmsService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.workerPool = Executors.newFixedThreadPool(workers, workerThreads.named("sms-worker-"));
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(workerThreads.named("sms-retry-"));
+
+        Gauge.builder("sms.queue.depth", queue, BlockingQueue::size)
+                .description("SMS waiting for delivery")
+                .register(meterRegistry);
+        this.queueFullDrops = Counter.builder("sms.dropped").tag("reason", "queue_full").register(meterRegistry);
+        this.retriesExhaustedDrops = Counter.builder("sms.dropped").tag("reason", "retries_exhausted").register(meterRegistry);
+        this.retries = Counter.builder("sms.retries").register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        for (int i = 0; i < workers; i++) {
+            workerPool.execute(this::drain);
+        }
+    }
+
+    @Override
+    public void sendSms(String phoneNumber, String message) {
+        if (!queue.offer(new SmsTask(phoneNumber, message, 1))) {
+            queueFullDrops.increment();
+            log.warn("SMS queue full, dropping message to {}", phoneNumber);
+        }
+    }
+
+    private void drain() {
+        List<SmsTask> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                SmsTask first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliver(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("SMS worker failed on a batch of {}: {}", batch.size(), e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void deliver(List<SmsTask> batch) {
+        Map<String, List<SmsTask>> byMessage = new LinkedHashMap<>();
+        for (SmsTask task : batch) {
+            byMessage.computeIfAbsent(task.message(), m -> new ArrayList<>()).add(task);
+        }
+
+        for (Map.Entry<String, List<SmsTask>> group : byMessage.entrySet()) {
+            List<SmsTask> tasks = group.getValue();
+            if (tasks.size() == 1) {
+                SmsTask task = tasks.get(0);
+                boolean sent = termiiSmsService.deliver(task.phoneNumber(), task.message());
+                if (!sent) {
+                    retry(task);
+                }
+            } else {
+                List<String> recipients = tasks.stream().map(SmsTask::phoneNumber).toList();
+                boolean sent = termiiSmsService.deliverBulk(recipients, group.getKey());
+                if (!sent) {
+                    tasks.forEach(this::retry);
+                }
+            }
+        }
+    }
+
+    private void retry(SmsTask task) {
+        if (task.attempt() >= maxAttempts) {
+            retriesExhaustedDrops.increment();
+            log.error("Giving up on SMS to {} after {} attempts", task.phoneNumber(), task.attempt());
+            return;
+        }
+        retries.increment();
+        long delay = initialBackoffMs << (task.attempt() - 1);
+        SmsTask next = new SmsTask(task.phoneNumber(), task.message(), task.attempt() + 1);
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(next)) {
+                queueFullDrops.increment();
+                log.warn("SMS queue full, dropping retry to {}", next.phoneNumber());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        retryScheduler.shutdownNow();
+        workerPool.shutdown();
+        if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("{} SMS still queued at shutdown", queue.size());
+        }
+    }
+
+    private record SmsTask(String phoneNumber, String message, int attempt) {
+    }
+}
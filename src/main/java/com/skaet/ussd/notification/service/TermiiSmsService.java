@@ -1,19 +1,38 @@
 package com.skaet.ussd.notification.service;
 
+import com.skaet.ussd.config.OffHopExecutor;
+import com.skaet.ussd.notification.dto.BulkSmsRequest;
 import com.skaet.ussd.notification.dto.SmsRequest;
+import com.skaet.ussd.util.HopDeadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Sends SMS through Termii. Every call is timed as {@code sms.send.latency}, tagged with the
+ * mode (single or bulk) and whether Termii accepted it. When called on a USSD hop with little of
+ * its budget left, the send is handed to the off-hop pool instead of holding up the reply.
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class TermiiSmsService implements SmsNotificationService {
     
+    @Qualifier("termiiRestTemplate")
     private final RestTemplate restTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final OffHopExecutor offHopExecutor;
     
     @Value("${sms.api.baseUrl}")
     private String baseUrl;
@@ -24,8 +43,25 @@ public class TermiiSmsService implements SmsNotificationService {
     @Value("${sms.sender}")
     private String sender;
 
+    @Value("${ussd.deadline.defer-below-ms:1000}")
+    private long deferBelowMs;
+
     @Override
     public void sendSms(String phoneNumber, String message) {
+        if (!HopDeadline.allows(Duration.ofMillis(deferBelowMs))) {
+            offHopExecutor.degraded("sms_deferred");
+            offHopExecutor.defer("SMS to " + phoneNumber, () -> deliver(phoneNumber, message));
+            return;
+        }
+        deliver(phoneNumber, message);
+    }
+
+    /**
+     * Sends one SMS and reports whether Termii accepted it.
+     */
+    public boolean deliver(String phoneNumber, String message) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean isSuccess = false;
         try {
             String formatPhoneNumber = formatPhoneNumber(phoneNumber);
             
@@ -43,19 +79,68 @@ public class TermiiSmsService implements SmsNotificationService {
                 String.class
             );
 
-            boolean isSuccess = response.getStatusCode().is2xxSuccessful();
+            isSuccess = response.getStatusCode().is2xxSuccessful();
             if (isSuccess) {
                 log.info("SMS sent successfully to {}", phoneNumber);
             } else {
                 log.error("Failed to send SMS. Status: {}, Response: {}", 
                     response.getStatusCode(), response.getBody());
             }
+            return isSuccess;
 
         } catch (Exception e) {
             log.error("Error sending SMS to {}: {}", phoneNumber, e.getMessage());
+            return false;
+        } finally {
+            sample.stop(sendTimer("single", isSuccess));
         }
     }
 
+    /**
+     * Sends the same message to several numbers through Termii's bulk endpoint.
+     */
+    public boolean deliverBulk(List<String> phoneNumbers, String message) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean isSuccess = false;
+        try {
+            BulkSmsRequest request = new BulkSmsRequest();
+            request.setTo(phoneNumbers.stream().map(this::formatPhoneNumber).toList());
+            request.setFrom("+2348168864996");
+            request.setSms(message);
+            request.setApi_key(apiKey);
+            request.setChannel("sandbox");
+            request.setType("plain");
+
+            ResponseEntity<String> response = restTemplate.postForEntity(
+                    baseUrl + "/api/sms/send/bulk",
+                    request,
+                    String.class
+            );
+
+            isSuccess = response.getStatusCode().is2xxSuccessful();
+            if (isSuccess) {
+                log.info("Bulk SMS sent successfully to {} recipients", phoneNumbers.size());
+            } else {
+                log.error("Failed to send bulk SMS. Status: {}, Response: {}",
+                        response.getStatusCode(), response.getBody());
+            }
+            return isSuccess;
+
+        } catch (Exception e) {
+            log.error("Error sending bulk SMS to {} recipients: {}", phoneNumbers.size(), e.getMessage());
+            return false;
+        } finally {
+            sample.stop(sendTimer("bulk", isSuccess));
+        }
+    }
+
+    private Timer sendTimer(String mode, boolean success) {
+        return Timer.builder("sms.send.latency")
+                .tag("mode", mode)
+                .tag("outcome", success ? "success" : "failure")
+                .register(meterRegistry);
+    }
+
     private String formatPhoneNumber(String phoneNumber) {
         phoneNumber = phoneNumber.replace("+", "");
         
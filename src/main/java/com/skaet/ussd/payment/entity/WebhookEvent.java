@@ -0,0 +1,50 @@
+package com.skaet.ussd.payment.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A verified Flutterwave webhook delivery, stored before it is acknowledged. The idempotency key
+ * (event + transaction reference) is unique, so redeliveries of the same event are recorded once.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "webhook_events",
+        uniqueConstraints = @UniqueConstraint(name = "uk_webhook_events_idempotency_key", columnNames = "idempotencyKey"),
+        indexes = @Index(name = "idx_webhook_events_status_received", columnList = "status, receivedAt"))
+public class WebhookEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 160)
+    private String idempotencyKey;
+
+    @Column(nullable = false)
+    private String event;
+
+    private String txRef;
+
+    private String flwRef;
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private WebhookEventStatus status;
+
+    private int attempts;
+
+    private String lastError;
+
+    @Column(nullable = false)
+    private Instant receivedAt;
+
+    private Instant processedAt;
+}
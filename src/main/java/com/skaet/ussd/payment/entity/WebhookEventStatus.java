@@ -0,0 +1,8 @@
+package com.skaet.ussd.payment.entity;
+
+public enum WebhookEventStatus {
+    RECEIVED,
+    PROCESSED,
+    IGNORED,
+    FAILED
+}
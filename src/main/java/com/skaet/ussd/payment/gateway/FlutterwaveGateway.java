@@ -3,8 +3,11 @@ package com.skaet.ussd.payment.gateway;
 import com.skaet.ussd.notification.service.SmsNotificationService;
 import com.skaet.ussd.payment.dto.FlutterwaveData;
 import com.skaet.ussd.payment.dto.FlutterwaveResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import java.util.HashMap;
@@ -15,22 +18,35 @@ import org.springframework.web.client.RestTemplate;
 import java.math.BigDecimal;
 import java.util.UUID;
 
+/**
+ * Flutterwave charges and transfers. Every call is timed as {@code payment.gateway.requests},
+ * tagged with the operation and its outcome: success, declined (Flutterwave answered but did not
+ * accept it), error, with the exception class for errors, or unavailable when
+ * {@link GatewayResilience} refused the call without attempting it.
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class FlutterwaveGateway implements PaymentGateway {
+    private static final String REFERENCE_PREFIX = "FLW-";
+
     @Value("${flutterwave.api.baseUrl}")
     private String baseUrl;
     @Value("${flutterwave.secretKey}")
     private String apiKey;
+    @Qualifier("flutterwaveRestTemplate")
     private final RestTemplate restTemplate;
     private final SmsNotificationService smsService;
+    private final MeterRegistry meterRegistry;
+    private final GatewayResilience resilience;
 
     @Override
-    public String initiateDeposit(String phoneNumber, BigDecimal amount) {
+    public String initiateDeposit(String phoneNumber, BigDecimal amount, String reference) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "declined";
+        String exception = "none";
         try {
 
-            String reference = generateReference();
             String url = baseUrl + "/charges?type=ussd";
 
             log.info("Flutterwave deposit request URL: {}", url);
@@ -43,12 +59,12 @@ public class FlutterwaveGateway implements PaymentGateway {
 
             HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
 
-            ResponseEntity<FlutterwaveResponse> response = restTemplate.exchange(
+            ResponseEntity<FlutterwaveResponse> response = resilience.call(getGatewayName(), () -> restTemplate.exchange(
                 url,
                 HttpMethod.POST,
                 request,
                 FlutterwaveResponse.class
-            );
+            ));
 
             log.info("Flutterwave response: {}", response.getBody());
 
@@ -68,6 +84,7 @@ public class FlutterwaveGateway implements PaymentGateway {
                     smsService.sendSms(phoneNumber, smsMessage);
                     log.info(smsMessage);
 
+                    outcome = "success";
                     return data.getTxRef();
                 }
             }
@@ -76,14 +93,26 @@ public class FlutterwaveGateway implements PaymentGateway {
             return "FAILED";
             
         } catch (Exception e) {
+            if (GatewayResilience.isRejection(e)) {
+                outcome = "unavailable";
+                log.warn("Flutterwave deposit not attempted: {}", e.getMessage());
+                return UNAVAILABLE;
+            }
+            outcome = "error";
+            exception = e.getClass().getSimpleName();
             log.error("Flutterwave deposit failed: {}", e.getMessage());
             return "FAILED";
+        } finally {
+            sample.stop(requestTimer("deposit", outcome, exception));
         }
     }
 
     public String initiateWithdrawal(String phoneNumber, BigDecimal amount, String bankCode, String accountNumber) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "declined";
+        String exception = "none";
         try {
-            String reference = generateReference();
+            String reference = newReference();
             String url = baseUrl + "/transfers";
 
             log.info("Flutterwave withdrawal request URL: {}", url);
@@ -105,12 +134,12 @@ public class FlutterwaveGateway implements PaymentGateway {
 
             HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
 
-            ResponseEntity<FlutterwaveResponse> response = restTemplate.exchange(
+            ResponseEntity<FlutterwaveResponse> response = resilience.call(getGatewayName(), () -> restTemplate.exchange(
                     url,
                     HttpMethod.POST,
                     request,
                     FlutterwaveResponse.class
-            );
+            ));
 
             log.info("Flutterwave response: {}", response.getBody());
 
@@ -129,6 +158,7 @@ public class FlutterwaveGateway implements PaymentGateway {
                     smsService.sendSms(phoneNumber, smsMessage);
                     log.info(smsMessage);
 
+                    outcome = "success";
                     return data.getTxRef();
                 }
             }
@@ -137,15 +167,73 @@ public class FlutterwaveGateway implements PaymentGateway {
             return "FAILED";
 
         } catch (Exception e) {
+            if (GatewayResilience.isRejection(e)) {
+                outcome = "unavailable";
+                log.warn("Flutterwave withdrawal not attempted: {}", e.getMessage());
+                return UNAVAILABLE;
+            }
+            outcome = "error";
+            exception = e.getClass().getSimpleName();
             log.error("Flutterwave withdrawal failed: {}", e.getMessage());
             return "FAILED";
+        } finally {
+            sample.stop(requestTimer("withdrawal", outcome, exception));
         }
     }
 
 
+    /**
+     * Looks the reference up with verify_by_reference. That endpoint covers charges; a transfer
+     * reference it does not know comes back as not found, which is reported as unknown rather
+     * than failed.
+     */
     @Override
-    public String verifyTransaction(String reference) {
-        return null;
+    public VerifiedTransaction verifyTransaction(String reference) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "declined";
+        String exception = "none";
+        try {
+            String url = baseUrl + "/transactions/verify_by_reference?tx_ref={reference}";
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("Authorization", "Bearer " + apiKey);
+
+            ResponseEntity<FlutterwaveResponse> response = resilience.call(getGatewayName(), () -> restTemplate.exchange(
+                    url,
+                    HttpMethod.GET,
+                    new HttpEntity<>(headers),
+                    FlutterwaveResponse.class,
+                    reference
+            ));
+
+            FlutterwaveResponse responseBody = response.getBody();
+            if (responseBody != null && "success".equals(responseBody.getStatus()) && responseBody.getData() != null) {
+                outcome = "success";
+                FlutterwaveData data = responseBody.getData();
+                String status = switch (String.valueOf(data.getStatus()).toLowerCase()) {
+                    case "successful" -> SUCCESSFUL;
+                    case "failed" -> FAILED;
+                    default -> PENDING;
+                };
+                return new VerifiedTransaction(status, data.getAmount(), data.getCurrency());
+            }
+
+            log.error("Invalid verification response from Flutterwave: {}", responseBody);
+            return null;
+
+        } catch (Exception e) {
+            if (GatewayResilience.isRejection(e)) {
+                outcome = "unavailable";
+                log.warn("Flutterwave verification not attempted: {}", e.getMessage());
+                return null;
+            }
+            outcome = "error";
+            exception = e.getClass().getSimpleName();
+            log.error("Flutterwave verification of {} failed: {}", reference, e.getMessage());
+            return null;
+        } finally {
+            sample.stop(requestTimer("verify", outcome, exception));
+        }
     }
 
     private static Map<String, Object> getStringObjectMap(String phoneNumber, BigDecimal amount, String reference) {
@@ -164,7 +252,7 @@ public class FlutterwaveGateway implements PaymentGateway {
 
     @Override
     public boolean isAvailable() {
-        return true;
+        return resilience.isAvailable(getGatewayName());
     }
 
     @Override
@@ -172,7 +260,23 @@ public class FlutterwaveGateway implements PaymentGateway {
         return "flutterwave";
     }
 
-    private String generateReference() {
-        return "FLW-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+    private Timer requestTimer(String operation, String outcome, String exception) {
+        return Timer.builder("payment.gateway.requests")
+                .description("Payment provider calls")
+                .tag("gateway", getGatewayName())
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .tag("exception", exception)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String newReference() {
+        return REFERENCE_PREFIX + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+    }
+
+    @Override
+    public boolean owns(String reference) {
+        return reference.startsWith(REFERENCE_PREFIX);
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.skaet.ussd.payment.gateway;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * One circuit breaker and one bulkhead per payment gateway, wrapped around the upstream HTTP call.
+ * The breaker opens when, over a rolling time window, too many calls fail or are slow; while it
+ * is open calls are refused straight away and the gateway reports itself unavailable. The
+ * bulkhead caps calls in flight to a gateway, so a slow upstream cannot tie up every thread.
+ * 4xx responses refuse the request on its merits and do not count against the breaker. State and
+ * call counts are exported as resilience4j.circuitbreaker.* and resilience4j.bulkhead.*.
+ */
+@Component
+@Slf4j
+public class GatewayResilience {
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final BulkheadRegistry bulkheads;
+
+    public GatewayResilience(MeterRegistry meterRegistry,
+                             @Value("${payment.gateway.breaker.window-seconds:60}") int windowSeconds,
+                             @Value("${payment.gateway.breaker.minimum-calls:10}") int minimumCalls,
+                             @Value("${payment.gateway.breaker.failure-rate-threshold:50}") float failureRateThreshold,
+                             @Value("${payment.gateway.breaker.slow-call-ms:5000}") long slowCallMs,
+                             @Value("${payment.gateway.breaker.slow-call-rate-threshold:80}") float slowCallRateThreshold,
+                             @Value("${payment.gateway.breaker.open-seconds:30}") long openSeconds,
+                             @Value("${payment.gateway.breaker.half-open-calls:3}") int halfOpenCalls,
+                             @Value("${payment.gateway.bulkhead.max-concurrent-calls:20}") int maxConcurrentCalls,
+                             @Value("${payment.gateway.bulkhead.max-wait-ms:0}") long maxWaitMs) {
+        this.circuitBreakers = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.TIME_BASED)
+                .slidingWindowSize(windowSeconds)
+                .minimumNumberOfCalls(minimumCalls)
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallDurationThreshold(Duration.ofMillis(slowCallMs))
+                .slowCallRateThreshold(slowCallRateThreshold)
+                .waitDurationInOpenState(Duration.ofSeconds(openSeconds))
+                .permittedNumberOfCallsInHalfOpenState(halfOpenCalls)
+                // Move to half-open on a timer, so isAvailable() recovers without needing a call
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .ignoreExceptions(HttpClientErrorException.class)
+                .build());
+        this.bulkheads = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ofMillis(maxWaitMs))
+                .build());
+        circuitBreakers.getEventPublisher().onEntryAdded(added -> added.getAddedEntry().getEventPublisher()
+                .onStateTransition(event -> log.warn("Payment gateway {} circuit breaker: {}",
+                        event.getCircuitBreakerName(), event.getStateTransition())));
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakers).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheads).bindTo(meterRegistry);
+    }
+
+    /**
+     * Runs {@code call} for {@code gateway} through its bulkhead and breaker. Throws
+     * {@link CallNotPermittedException} while the breaker is open and {@link BulkheadFullException}
+     * when the gateway already has as many calls in flight as it may.
+     */
+    public <T> T call(String gateway, Supplier<T> call) {
+        CircuitBreaker breaker = breaker(gateway);
+        Bulkhead bulkhead = bulkheads.bulkhead(gateway);
+        return Bulkhead.decorateSupplier(bulkhead, CircuitBreaker.decorateSupplier(breaker, call)).get();
+    }
+
+    /**
+     * False while the gateway's breaker is open; half-open counts as available so trial calls can
+     * close it again.
+     */
+    public boolean isAvailable(String gateway) {
+        CircuitBreaker.State state = breaker(gateway).getState();
+        return state != CircuitBreaker.State.OPEN && state != CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    /**
+     * True if {@code e} means the call was refused here rather than attempted.
+     */
+    public static boolean isRejection(Throwable e) {
+        return e instanceof CallNotPermittedException || e instanceof BulkheadFullException;
+    }
+
+    private CircuitBreaker breaker(String gateway) {
+        return circuitBreakers.circuitBreaker(gateway);
+    }
+}
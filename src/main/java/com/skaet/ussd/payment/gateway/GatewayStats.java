@@ -0,0 +1,62 @@
+package com.skaet.ussd.payment.gateway;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Outcome and latency of the most recent calls to one gateway, for routing. Calls older than the
+ * window are left out, so a gateway that has had no traffic for a while is unknown again rather
+ * than judged on how it did before.
+ */
+final class GatewayStats {
+    private final long[] latencyNanos;
+    private final long[] finishedAt;
+    private final boolean[] succeeded;
+    private final long windowNanos;
+    private int next;
+    private int size;
+
+    GatewayStats(int capacity, Duration window) {
+        this.latencyNanos = new long[capacity];
+        this.finishedAt = new long[capacity];
+        this.succeeded = new boolean[capacity];
+        this.windowNanos = window.toNanos();
+    }
+
+    synchronized void record(boolean success, long nanos) {
+        latencyNanos[next] = nanos;
+        finishedAt[next] = System.nanoTime();
+        succeeded[next] = success;
+        next = (next + 1) % latencyNanos.length;
+        size = Math.min(size + 1, latencyNanos.length);
+    }
+
+    synchronized Snapshot snapshot() {
+        long cutoff = System.nanoTime() - windowNanos;
+        long[] latencies = new long[size];
+        int calls = 0;
+        int successes = 0;
+        for (int i = 0; i < size; i++) {
+            if (finishedAt[i] - cutoff < 0) {
+                continue;
+            }
+            latencies[calls++] = latencyNanos[i];
+            if (succeeded[i]) {
+                successes++;
+            }
+        }
+        if (calls == 0) {
+            return new Snapshot(0, 1.0, 0);
+        }
+        Arrays.sort(latencies, 0, calls);
+        int p95 = (int) Math.ceil(calls * 0.95) - 1;
+        return new Snapshot(calls, (double) successes / calls, latencies[p95]);
+    }
+
+    /**
+     * Calls in the window, the share that succeeded (1 with no calls) and their 95th percentile
+     * latency (0 with no calls).
+     */
+    record Snapshot(int calls, double successRate, long p95Nanos) {
+    }
+}
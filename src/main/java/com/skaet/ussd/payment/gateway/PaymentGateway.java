@@ -3,9 +3,47 @@ package com.skaet.ussd.payment.gateway;
 import java.math.BigDecimal;
 
 public interface PaymentGateway {
-    String initiateDeposit(String phoneNumber, BigDecimal amount);
+    /** Returned instead of a reference when the provider declined or the call failed. */
+    String FAILED = "FAILED";
+    /** Returned instead of a reference when the call was not attempted because the gateway is unavailable. */
+    String UNAVAILABLE = "UNAVAILABLE";
+    /** Verification result: the transfer went through. */
+    String SUCCESSFUL = "SUCCESSFUL";
+    /** Verification result: the provider has not finished the transfer yet. */
+    String PENDING = "PENDING";
+
+    default String initiateDeposit(String phoneNumber, BigDecimal amount) {
+        return initiateDeposit(phoneNumber, amount, newReference());
+    }
+
+    /**
+     * Starts a deposit under a reference obtained from {@link #newReference()}, so the caller can
+     * record it before the provider has been called.
+     */
+    String initiateDeposit(String phoneNumber, BigDecimal amount, String reference);
+
+    String newReference();
+
+    /**
+     * True if {@code reference} was issued by this gateway.
+     */
+    boolean owns(String reference);
+
     String initiateWithdrawal(String phoneNumber, BigDecimal amount, String bankCode, String accountNumber);
-    String verifyTransaction(String reference);
+
+    /**
+     * Asks the provider how the transfer under {@code reference} ended, or returns null if that
+     * could not be found out.
+     */
+    VerifiedTransaction verifyTransaction(String reference);
+
     boolean isAvailable();
     String getGatewayName();
+
+    /**
+     * A transfer as the provider reports it: {@link #SUCCESSFUL}, {@link #FAILED} or
+     * {@link #PENDING}, with the amount and currency it moved, which are null if not reported.
+     */
+    record VerifiedTransaction(String status, BigDecimal amount, String currency) {
+    }
 }
\ No newline at end of file
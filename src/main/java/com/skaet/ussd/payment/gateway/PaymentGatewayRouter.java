@@ -0,0 +1,309 @@
+package com.skaet.ussd.payment.gateway;
+
+import com.skaet.ussd.config.OffHopExecutor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link PaymentGateway} the rest of the app talks to. Each new deposit or withdrawal goes to
+ * one of the gateway beans, chosen from their rolling success rate and p95 latency:
+ * <ul>
+ *     <li>BEST: the healthy gateway with the lowest p95.</li>
+ *     <li>WEIGHTED: a healthy gateway at random, weighted by success rate over p95, so a
+ *     slower gateway still gets some traffic and its figures stay current.</li>
+ * </ul>
+ * A gateway is healthy while its breaker is closed and its success rate is at or above
+ * {@code payment.router.min-success-rate}; one with fewer than {@code min-calls} calls in the
+ * window counts as healthy and fast, so it gets traffic and a fresh score. A call the chosen
+ * gateway refuses without attempting (breaker open, bulkhead full) moves on to the next one.
+ * <p>
+ * Later calls about a transfer go to the gateway that issued its reference. Verifications can be
+ * hedged: if the first request has not answered within the gateway's verify p95, a second one is
+ * sent and whichever answers first wins. Charges and transfers are never hedged.
+ */
+@Component
+@Primary
+@Slf4j
+public class PaymentGatewayRouter implements PaymentGateway {
+    public enum Strategy {
+        BEST, WEIGHTED
+    }
+
+    // Keeps a gateway with near-zero latency from taking all of the weight
+    private static final double LATENCY_FLOOR_MS = 50;
+
+    private final List<PaymentGateway> gateways;
+    private final Map<String, GatewayStats> stats;
+    private final Map<String, GatewayStats> verifyStats;
+    private final OffHopExecutor offHopExecutor;
+    private final MeterRegistry meterRegistry;
+    private final Strategy strategy;
+    private final int minCalls;
+    private final double minSuccessRate;
+    private final boolean hedgeVerify;
+    private final Duration hedgeDelay;
+    private final AtomicReference<String> preferred = new AtomicReference<>();
+
+    public PaymentGatewayRouter(List<PaymentGateway> gateways,
+                                OffHopExecutor offHopExecutor,
+                                MeterRegistry meterRegistry,
+                                @Value("${payment.router.strategy:BEST}") Strategy strategy,
+                                @Value("${payment.router.window-size:100}") int windowSize,
+                                @Value("${payment.router.window-seconds:300}") long windowSeconds,
+                                @Value("${payment.router.min-calls:5}") int minCalls,
+                                @Value("${payment.router.min-success-rate:0.8}") double minSuccessRate,
+                                @Value("${payment.router.hedge-verify.enabled:true}") boolean hedgeVerify,
+                                @Value("${payment.router.hedge-verify.delay-ms:1000}") long hedgeDelayMs) {
+        if (gateways.isEmpty()) {
+            throw new IllegalStateException("No payment gateways configured");
+        }
+        this.gateways = List.copyOf(gateways);
+        this.offHopExecutor = offHopExecutor;
+        this.meterRegistry = meterRegistry;
+        this.strategy = strategy;
+        this.minCalls = minCalls;
+        this.minSuccessRate = minSuccessRate;
+        this.hedgeVerify = hedgeVerify;
+        this.hedgeDelay = Duration.ofMillis(hedgeDelayMs);
+        Duration window = Duration.ofSeconds(windowSeconds);
+        this.stats = gateways.stream().collect(Collectors.toUnmodifiableMap(
+                PaymentGateway::getGatewayName, g -> new GatewayStats(windowSize, window)));
+        this.verifyStats = gateways.stream().collect(Collectors.toUnmodifiableMap(
+                PaymentGateway::getGatewayName, g -> new GatewayStats(windowSize, window)));
+        stats.forEach((name, gatewayStats) -> {
+            Gauge.builder("payment.router.success.rate", gatewayStats, s -> s.snapshot().successRate())
+                    .description("Share of recent calls to the gateway that succeeded")
+                    .tag("gateway", name)
+                    .register(meterRegistry);
+            Gauge.builder("payment.router.latency.p95", gatewayStats, s -> s.snapshot().p95Nanos() / 1e9)
+                    .description("95th percentile latency of recent calls to the gateway")
+                    .tag("gateway", name)
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        });
+        log.info("Routing payments across {} using {}", stats.keySet(), strategy);
+    }
+
+    @Override
+    public String initiateDeposit(String phoneNumber, BigDecimal amount) {
+        return firstAttempted("deposit", gateway -> gateway.initiateDeposit(phoneNumber, amount, gateway.newReference()));
+    }
+
+    @Override
+    public String initiateDeposit(String phoneNumber, BigDecimal amount, String reference) {
+        PaymentGateway gateway = gatewayFor(reference);
+        if (gateway == null) {
+            log.error("No payment gateway issued reference {}", reference);
+            return FAILED;
+        }
+        return timed(gateway, "deposit", () -> gateway.initiateDeposit(phoneNumber, amount, reference));
+    }
+
+    /**
+     * A reference from the gateway the next deposit would be routed to.
+     */
+    @Override
+    public String newReference() {
+        List<PaymentGateway> ranked = ranked();
+        return (ranked.isEmpty() ? gateways.get(0) : ranked.get(0)).newReference();
+    }
+
+    @Override
+    public boolean owns(String reference) {
+        return gatewayFor(reference) != null;
+    }
+
+    @Override
+    public String initiateWithdrawal(String phoneNumber, BigDecimal amount, String bankCode, String accountNumber) {
+        return firstAttempted("withdrawal", gateway -> gateway.initiateWithdrawal(phoneNumber, amount, bankCode, accountNumber));
+    }
+
+    @Override
+    public VerifiedTransaction verifyTransaction(String reference) {
+        PaymentGateway gateway = gatewayFor(reference);
+        if (gateway == null) {
+            log.error("No payment gateway issued reference {}", reference);
+            return null;
+        }
+        if (!hedgeVerify) {
+            return timedVerify(gateway, reference);
+        }
+        try {
+            return hedgedVerify(gateway, reference);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.error("Verification of {} failed: {}", reference, e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return gateways.stream().anyMatch(PaymentGateway::isAvailable);
+    }
+
+    @Override
+    public String getGatewayName() {
+        return "router";
+    }
+
+    /**
+     * Tries the gateways in order of preference until one attempts the call.
+     */
+    private String firstAttempted(String operation, Function<PaymentGateway, String> call) {
+        for (PaymentGateway gateway : ranked()) {
+            String result = timed(gateway, operation, () -> call.apply(gateway));
+            if (!UNAVAILABLE.equals(result)) {
+                return result;
+            }
+        }
+        return UNAVAILABLE;
+    }
+
+    private String timed(PaymentGateway gateway, String operation, Supplier<String> call) {
+        long started = System.nanoTime();
+        boolean success = false;
+        String result = null;
+        try {
+            result = call.get();
+            success = !FAILED.equals(result);
+            return result;
+        } finally {
+            // A call the gateway refused without attempting says nothing about its latency
+            if (!UNAVAILABLE.equals(result)) {
+                stats.get(gateway.getGatewayName()).record(success, System.nanoTime() - started);
+                meterRegistry.counter("payment.router.routed",
+                        "gateway", gateway.getGatewayName(), "operation", operation).increment();
+            }
+        }
+    }
+
+    private VerifiedTransaction timedVerify(PaymentGateway gateway, String reference) {
+        long started = System.nanoTime();
+        boolean success = false;
+        try {
+            VerifiedTransaction result = gateway.verifyTransaction(reference);
+            success = true;
+            return result;
+        } finally {
+            verifyStats.get(gateway.getGatewayName()).record(success, System.nanoTime() - started);
+        }
+    }
+
+    private VerifiedTransaction hedgedVerify(PaymentGateway gateway, String reference) throws ExecutionException, InterruptedException {
+        CompletableFuture<VerifiedTransaction> first;
+        try {
+            first = offHopExecutor.submit(() -> timedVerify(gateway, reference));
+        } catch (RejectedExecutionException e) {
+            return timedVerify(gateway, reference);
+        }
+        GatewayStats.Snapshot snapshot = verifyStats.get(gateway.getGatewayName()).snapshot();
+        long delayNanos = snapshot.calls() >= minCalls ? snapshot.p95Nanos() : hedgeDelay.toNanos();
+        try {
+            return first.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            CompletableFuture<VerifiedTransaction> second;
+            try {
+                second = offHopExecutor.submit(() -> timedVerify(gateway, reference));
+            } catch (RejectedExecutionException rejected) {
+                return first.get();
+            }
+            meterRegistry.counter("payment.router.hedged", "gateway", gateway.getGatewayName()).increment();
+            return (VerifiedTransaction) CompletableFuture.anyOf(first, second).get();
+        }
+    }
+
+    /**
+     * The gateway that issued {@code reference}, or null. For callers that pace their own calls
+     * and should not be hedged, such as reconciliation.
+     */
+    public PaymentGateway gatewayFor(String reference) {
+        for (PaymentGateway gateway : gateways) {
+            if (gateway.owns(reference)) {
+                return gateway;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Available gateways, the one to use first at the head.
+     */
+    private List<PaymentGateway> ranked() {
+        List<Candidate> candidates = new ArrayList<>(gateways.size());
+        for (PaymentGateway gateway : gateways) {
+            if (gateway.isAvailable()) {
+                GatewayStats.Snapshot snapshot = stats.get(gateway.getGatewayName()).snapshot();
+                boolean known = snapshot.calls() >= minCalls;
+                candidates.add(new Candidate(gateway, snapshot, known, !known || snapshot.successRate() >= minSuccessRate));
+            }
+        }
+        candidates.sort(Comparator.comparing((Candidate c) -> !c.healthy())
+                .thenComparingDouble(c -> c.healthy() ? c.p95Nanos() : -c.snapshot().successRate()));
+        if (strategy == Strategy.WEIGHTED && candidates.size() > 1) {
+            Candidate pick = weightedPick(candidates);
+            candidates.remove(pick);
+            candidates.add(0, pick);
+        }
+        if (!candidates.isEmpty()) {
+            String first = candidates.get(0).gateway().getGatewayName();
+            String previous = preferred.getAndSet(first);
+            if (previous != null && !previous.equals(first) && strategy == Strategy.BEST) {
+                log.warn("Payment routing moved from {} to {}", previous, first);
+            }
+        }
+        return candidates.stream().map(Candidate::gateway).toList();
+    }
+
+    private Candidate weightedPick(List<Candidate> candidates) {
+        List<Candidate> healthy = candidates.stream().filter(Candidate::healthy).toList();
+        if (healthy.isEmpty()) {
+            return candidates.get(0);
+        }
+        double[] weights = new double[healthy.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            Candidate c = healthy.get(i);
+            weights[i] = c.snapshot().successRate() / Math.max(c.p95Nanos() / 1e6, LATENCY_FLOOR_MS);
+            total += weights[i];
+        }
+        double point = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < weights.length; i++) {
+            point -= weights[i];
+            if (point < 0) {
+                return healthy.get(i);
+            }
+        }
+        return healthy.get(healthy.size() - 1);
+    }
+
+    private record Candidate(PaymentGateway gateway, GatewayStats.Snapshot snapshot, boolean known, boolean healthy) {
+        // Too few calls to judge: rank as fast so the gateway gets traffic and a score
+        long p95Nanos() {
+            return known ? snapshot.p95Nanos() : 0;
+        }
+    }
+}
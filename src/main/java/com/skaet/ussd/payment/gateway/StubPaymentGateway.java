@@ -0,0 +1,122 @@
+package com.skaet.ussd.payment.gateway;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.skaet.ussd.util.HopDeadline;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Local stand-in for a payment provider, for development and load tests. It accepts every
+ * request after {@code latency-ms} and fails {@code failure-rate} of them; like a real provider
+ * it is cut off at the hop deadline and goes through {@link GatewayResilience}. Nothing is
+ * charged or paid out and no webhooks follow; verification reports every stub transfer it
+ * still remembers as successful, for the amount it was started with, so reconciliation settles
+ * them. Transfers it has forgotten (after a restart, or past the most recent 100,000) are
+ * reported as unknown.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "payment.gateway.stub.enabled", havingValue = "true")
+public class StubPaymentGateway implements PaymentGateway {
+    private static final String REFERENCE_PREFIX = "STUB-";
+
+    private final GatewayResilience resilience;
+    private final Duration latency;
+    private final double failureRate;
+    private final Cache<String, BigDecimal> amounts = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .build();
+
+    public StubPaymentGateway(GatewayResilience resilience,
+                              @Value("${payment.gateway.stub.latency-ms:200}") long latencyMs,
+                              @Value("${payment.gateway.stub.failure-rate:0}") double failureRate) {
+        this.resilience = resilience;
+        this.latency = Duration.ofMillis(latencyMs);
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public String initiateDeposit(String phoneNumber, BigDecimal amount, String reference) {
+        return remember(respond("deposit", reference), amount);
+    }
+
+    @Override
+    public String newReference() {
+        return REFERENCE_PREFIX + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+    }
+
+    @Override
+    public boolean owns(String reference) {
+        return reference.startsWith(REFERENCE_PREFIX);
+    }
+
+    @Override
+    public String initiateWithdrawal(String phoneNumber, BigDecimal amount, String bankCode, String accountNumber) {
+        return remember(respond("withdrawal", newReference()), amount);
+    }
+
+    @Override
+    public VerifiedTransaction verifyTransaction(String reference) {
+        BigDecimal amount = amounts.getIfPresent(reference);
+        if (amount == null || !reference.equals(respond("verify", reference))) {
+            return null;
+        }
+        return new VerifiedTransaction(SUCCESSFUL, amount, "NGN");
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return resilience.isAvailable(getGatewayName());
+    }
+
+    @Override
+    public String getGatewayName() {
+        return "stub";
+    }
+
+    private String remember(String result, BigDecimal amount) {
+        if (owns(result)) {
+            amounts.put(result, amount);
+        }
+        return result;
+    }
+
+    private String respond(String operation, String reference) {
+        try {
+            return resilience.call(getGatewayName(), () -> {
+                Duration wait = HopDeadline.cap(latency);
+                sleep(wait);
+                if (wait.compareTo(latency) < 0) {
+                    throw new IllegalStateException("timed out at the hop deadline");
+                }
+                if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                    throw new IllegalStateException("injected failure");
+                }
+                return reference;
+            });
+        } catch (Exception e) {
+            if (GatewayResilience.isRejection(e)) {
+                return UNAVAILABLE;
+            }
+            log.error("Stub {} failed: {}", operation, e.getMessage());
+            return FAILED;
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted");
+        }
+    }
+}
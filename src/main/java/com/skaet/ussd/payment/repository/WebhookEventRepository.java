@@ -0,0 +1,45 @@
+package com.skaet.ussd.payment.repository;
+
+import com.skaet.ussd.payment.entity.WebhookEvent;
+import com.skaet.ussd.payment.entity.WebhookEventStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface WebhookEventRepository extends JpaRepository<WebhookEvent, Long> {
+    boolean existsByIdempotencyKey(String idempotencyKey);
+
+    /**
+     * Claims a received event for processing. Only one caller gets 1 back; the row stays locked
+     * until that caller's transaction ends, and reverts to RECEIVED if it rolls back.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update WebhookEvent e set e.status = :status, e.processedAt = :now " +
+            "where e.id = :id and e.status = com.skaet.ussd.payment.entity.WebhookEventStatus.RECEIVED")
+    int claim(@Param("id") Long id, @Param("status") WebhookEventStatus status, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update WebhookEvent e set e.status = :status, e.lastError = :reason where e.id = :id")
+    int updateStatus(@Param("id") Long id, @Param("status") WebhookEventStatus status, @Param("reason") String reason);
+
+    @Transactional
+    @Modifying
+    @Query("update WebhookEvent e set e.attempts = e.attempts + 1, e.lastError = :error, " +
+            "e.status = case when e.attempts + 1 >= :maxAttempts " +
+            "then com.skaet.ussd.payment.entity.WebhookEventStatus.FAILED else e.status end " +
+            "where e.id = :id and e.status = com.skaet.ussd.payment.entity.WebhookEventStatus.RECEIVED")
+    int recordFailure(@Param("id") Long id, @Param("error") String error, @Param("maxAttempts") int maxAttempts);
+
+    @Query("select e.id from WebhookEvent e " +
+            "where e.status = com.skaet.ussd.payment.entity.WebhookEventStatus.RECEIVED and e.receivedAt < :before " +
+            "order by e.receivedAt")
+    List<Long> findPendingIds(@Param("before") Instant before, Pageable pageable);
+}
@@ -0,0 +1,91 @@
+package com.skaet.ussd.payment.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory Bloom filter over webhook idempotency keys. A negative answer is definitive, so a new
+ * event skips the database lookup entirely; a positive answer only means "check the store". Two
+ * generations are kept so the false positive rate stays bounded as keys accumulate.
+ */
+@Component
+public class IdempotencyFilter {
+    private final int expectedKeys;
+    private final int bits;
+    private final int hashes;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    public IdempotencyFilter(@Value("${flutterwave.webhook.filter.expected-keys:200000}") int expectedKeys,
+                             @Value("${flutterwave.webhook.filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.expectedKeys = expectedKeys;
+        this.bits = (int) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedKeys * Math.log(2)));
+        this.current = new Generation(bits);
+        this.previous = new Generation(bits);
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        return current.mightContain(hash, bits, hashes) || previous.mightContain(hash, bits, hashes);
+    }
+
+    public void put(String key) {
+        Generation generation = current;
+        generation.put(hash(key), bits, hashes);
+        if (generation.count.incrementAndGet() == expectedKeys) {
+            previous = generation;
+            current = new Generation(bits);
+        }
+    }
+
+    // 64-bit FNV-1a; the two halves drive double hashing
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static final class Generation {
+        private final AtomicLongArray words;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Generation(int bits) {
+            this.words = new AtomicLongArray((bits + 63) >>> 6);
+        }
+
+        private boolean mightContain(long hash, int bits, int hashes) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long hash, int bits, int hashes) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+                long mask = 1L << bit;
+                int word = bit >>> 6;
+                long value;
+                do {
+                    value = words.get(word);
+                } while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+            }
+        }
+    }
+}
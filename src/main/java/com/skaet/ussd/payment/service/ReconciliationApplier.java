@@ -0,0 +1,87 @@
+package com.skaet.ussd.payment.service;
+
+import com.skaet.ussd.account.service.AccountService;
+import com.skaet.ussd.ledger.entity.EntryKind;
+import com.skaet.ussd.ledger.entity.LedgerEntry;
+import com.skaet.ussd.ledger.service.LedgerService;
+import com.skaet.ussd.payment.gateway.PaymentGateway;
+import com.skaet.ussd.payment.gateway.PaymentGateway.VerifiedTransaction;
+import com.skaet.ussd.wallet.model.WalletBalance;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Applies verified outcomes of pending transfers: successful ones go through the normal credit
+ * and debit path, failed ones are closed in the ledger. A success is only applied if the provider
+ * reports the recorded amount in naira; otherwise the transfer is closed as a mismatch for a
+ * manual review. Each reference is locked and checked first, so a transfer a webhook has already
+ * settled is left alone.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ReconciliationApplier {
+    private final AccountService accountService;
+    private final LedgerService ledgerService;
+
+    public enum Result {
+        SETTLED, FAILED, MISMATCH, SKIPPED, UNAPPLIED
+    }
+
+    /**
+     * A pending transfer (its wallet leg) and what the gateway reported for it, null if unknown.
+     */
+    public record Verification(LedgerEntry entry, VerifiedTransaction verified) {
+        public String status() {
+            return verified == null ? null : verified.status();
+        }
+    }
+
+    /**
+     * Applies a batch in one transaction; if anything throws, none of it is applied.
+     */
+    @Transactional
+    public List<Result> applyAll(List<Verification> verifications) {
+        return verifications.stream().map(this::applyOne).toList();
+    }
+
+    @Transactional
+    public Result apply(Verification verification) {
+        return applyOne(verification);
+    }
+
+    private Result applyOne(Verification verification) {
+        LedgerEntry entry = verification.entry();
+        String reference = entry.getReference();
+        if (!ledgerService.lockForSettlement(reference)) {
+            return Result.SKIPPED;
+        }
+        if (PaymentGateway.FAILED.equals(verification.status())) {
+            ledgerService.recordFailed(reference, entry.getWalletId(), entry.getPhoneNumber(), entry.getKind(), entry.getAmount());
+            log.info("Reconciled {} {} as failed", entry.getKind(), reference);
+            return Result.FAILED;
+        }
+        VerifiedTransaction verified = verification.verified();
+        if (!LedgerService.matchesRecorded(entry, verified.amount(), verified.currency())) {
+            ledgerService.recordMismatch(reference, entry.getWalletId(), entry.getPhoneNumber(), entry.getKind(), entry.getAmount());
+            log.error("Reconciled {} {} succeeded at the gateway for {} {} but {} {} was recorded; held as a mismatch",
+                    entry.getKind(), reference, verified.amount(), verified.currency(), entry.getAmount(), LedgerService.CURRENCY);
+            return Result.MISMATCH;
+        }
+        Optional<WalletBalance> applied = entry.getKind() == EntryKind.DEPOSIT
+                ? accountService.creditAccount(entry.getPhoneNumber(), entry.getAmount(), reference)
+                : accountService.debitAccount(entry.getPhoneNumber(), entry.getAmount(), reference);
+        if (applied.isEmpty()) {
+            log.error("Reconciled {} {} succeeded at the gateway but could not be applied to wallet {}",
+                    entry.getKind(), reference, entry.getWalletId());
+            return Result.UNAPPLIED;
+        }
+        log.info("Reconciled {} {} as successful", entry.getKind(), reference);
+        return Result.SETTLED;
+    }
+}
@@ -0,0 +1,265 @@
+package com.skaet.ussd.payment.service;
+
+import com.skaet.ussd.config.WorkerThreads;
+import com.skaet.ussd.ledger.entity.LedgerEntry;
+import com.skaet.ussd.ledger.repository.LedgerEntryRepository;
+import com.skaet.ussd.payment.gateway.PaymentGateway;
+import com.skaet.ussd.payment.gateway.PaymentGatewayRouter;
+import com.skaet.ussd.payment.service.ReconciliationApplier.Result;
+import com.skaet.ussd.payment.service.ReconciliationApplier.Verification;
+import com.skaet.ussd.shard.ShardMap;
+import com.skaet.ussd.shard.ShardRouting;
+import io.github.resilience4j.micrometer.tagged.TaggedRateLimiterMetrics;
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterConfig;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Settles transfers whose webhook never arrived. Each run walks the pending wallet legs older than
+ * {@code min-age} (and younger than {@code max-age}) in keyset-paged chunks, verifies every
+ * reference with the gateway that issued it on a bounded pool, paced per gateway by a rate
+ * limiter, and applies the outcomes in batched transactions through {@link ReconciliationApplier}.
+ * Gateways are called directly rather than through the router's hedging, so a backlog never
+ * sends more than the configured rate. Shards are walked one after the other, each transfer on
+ * the shard that owns its subscriber.
+ * <p>
+ * References are counted as {@code payment.reconciliation.references} by outcome; each run is
+ * timed as {@code payment.reconciliation.run}. {@code payment.reconciliation.backlog} is the
+ * number of pending references the last run left unsettled: those it could not settle and, if it
+ * stopped early, those it did not get to; {@code payment.reconciliation.throughput} is the
+ * references per second of the last run.
+ */
+@Service
+@Slf4j
+public class ReconciliationService {
+    private final LedgerEntryRepository ledgerEntryRepository;
+    private final PaymentGatewayRouter router;
+    private final ReconciliationApplier applier;
+    private final ShardMap shardMap;
+    private final ShardRouting shardRouting;
+    private final MeterRegistry meterRegistry;
+    private final RateLimiterRegistry rateLimiters;
+    private final ThreadPoolExecutor pool;
+    private final boolean enabled;
+    private final int chunkSize;
+    private final int applyBatchSize;
+    private final Duration minAge;
+    private final Duration maxAge;
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicReference<Double> throughput = new AtomicReference<>(0.0);
+
+    public ReconciliationService(LedgerEntryRepository ledgerEntryRepository,
+                                 PaymentGatewayRouter router,
+                                 ReconciliationApplier applier,
+                                 ShardMap shardMap,
+                                 ShardRouting shardRouting,
+                                 WorkerThreads workerThreads,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${payment.reconciliation.enabled:true}") boolean enabled,
+                                 @Value("${payment.reconciliation.parallelism:16}") int parallelism,
+                                 @Value("${payment.reconciliation.permits-per-second:100}") int permitsPerSecond,
+                                 @Value("${payment.reconciliation.chunk-size:500}") int chunkSize,
+                                 @Value("${payment.reconciliation.apply-batch-size:50}") int applyBatchSize,
+                                 @Value("${payment.reconciliation.min-age-minutes:10}") long minAgeMinutes,
+                                 @Value("${payment.reconciliation.max-age-hours:72}") long maxAgeHours) {
+        this.ledgerEntryRepository = ledgerEntryRepository;
+        this.router = router;
+        this.applier = applier;
+        this.shardMap = shardMap;
+        this.shardRouting = shardRouting;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+        this.applyBatchSize = applyBatchSize;
+        this.minAge = Duration.ofMinutes(minAgeMinutes);
+        this.maxAge = Duration.ofHours(maxAgeHours);
+        this.rateLimiters = RateLimiterRegistry.of(RateLimiterConfig.custom()
+                .limitForPeriod(permitsPerSecond)
+                .limitRefreshPeriod(Duration.ofSeconds(1))
+                .timeoutDuration(Duration.ofMinutes(1))
+                .build());
+        // A chunk is verified before the next one is read, so the queue never holds more than one
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(chunkSize), workerThreads.named("reconcile-"));
+        TaggedRateLimiterMetrics.ofRateLimiterRegistry(rateLimiters).bindTo(meterRegistry);
+        Gauge.builder("payment.reconciliation.backlog", backlog, AtomicLong::get)
+                .description("Pending references the last run left unsettled")
+                .register(meterRegistry);
+        Gauge.builder("payment.reconciliation.throughput", throughput, AtomicReference::get)
+                .description("References checked per second in the last run")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.reconciliation.interval-ms:300000}",
+            initialDelayString = "${payment.reconciliation.initial-delay-ms:60000}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+        Instant now = Instant.now();
+        Instant since = now.minus(maxAge);
+        Instant before = now.minus(minAge);
+        long unsettled = 0;
+        for (String shard : shardMap.names()) {
+            unsettled += shardRouting.onShard(shard, () -> ledgerEntryRepository.countUnsettled(since, before));
+        }
+        if (unsettled == 0) {
+            backlog.set(0);
+            return;
+        }
+        log.info("Reconciling {} pending transfers", unsettled);
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long started = System.nanoTime();
+        Tally tally = new Tally();
+        for (String shard : shardMap.names()) {
+            if (!shardRouting.onShard(shard, () -> reconcileShard(shard, since, before, tally))) {
+                break;
+            }
+        }
+        long[] results = tally.results;
+        long checked = tally.checked;
+        long unresolved = tally.unresolved;
+
+        double seconds = Math.max((System.nanoTime() - started) / 1e9, 0.001);
+        throughput.set(checked / seconds);
+        // What the run could not settle, plus whatever a stopped run did not get to
+        backlog.set(unresolved + Math.max(unsettled - tally.walked, 0));
+        sample.stop(meterRegistry.timer("payment.reconciliation.run"));
+        log.info("Reconciliation run: {} checked in {}s ({}/s), {} settled, {} failed, {} mismatched, {} already settled, {} not applied, {} unresolved",
+                checked, String.format("%.1f", seconds), String.format("%.1f", checked / seconds),
+                results[Result.SETTLED.ordinal()], results[Result.FAILED.ordinal()], results[Result.MISMATCH.ordinal()],
+                results[Result.SKIPPED.ordinal()], results[Result.UNAPPLIED.ordinal()], unresolved);
+    }
+
+    /**
+     * Works through the current shard's pending transfers; false if the run had to stop.
+     */
+    private boolean reconcileShard(String shard, Instant since, Instant before, Tally tally) {
+        long afterId = 0;
+        while (true) {
+            if (!router.isAvailable()) {
+                log.warn("No payment gateway available, reconciliation stopped after {} references", tally.checked);
+                return false;
+            }
+            List<LedgerEntry> chunk = ledgerEntryRepository.findUnsettled(afterId, since, before, PageRequest.of(0, chunkSize));
+            if (chunk.isEmpty()) {
+                return true;
+            }
+            afterId = chunk.get(chunk.size() - 1).getId();
+            // Copies of a moved range that have not been cleaned up yet are settled on the new shard
+            List<LedgerEntry> owned = chunk.stream()
+                    .filter(entry -> shardMap.owns(shard, entry.getPhoneNumber()))
+                    .toList();
+
+            List<Verification> decided = new ArrayList<>(owned.size());
+            for (Verification verification : verify(owned)) {
+                String status = verification.status();
+                if (PaymentGateway.SUCCESSFUL.equals(status) || PaymentGateway.FAILED.equals(status)) {
+                    decided.add(verification);
+                } else {
+                    count(status == null ? "unknown" : "pending");
+                    tally.unresolved++;
+                }
+            }
+            for (Result result : apply(decided)) {
+                tally.results[result.ordinal()]++;
+                count(result.name().toLowerCase());
+                if (result == Result.UNAPPLIED) {
+                    tally.unresolved++;
+                }
+            }
+            tally.checked += owned.size();
+            tally.walked += chunk.size();
+        }
+    }
+
+    private List<Verification> verify(List<LedgerEntry> chunk) {
+        List<CompletableFuture<Verification>> pending = chunk.stream()
+                .map(entry -> CompletableFuture.supplyAsync(() -> verify(entry), pool))
+                .toList();
+        return pending.stream().map(CompletableFuture::join).toList();
+    }
+
+    private Verification verify(LedgerEntry entry) {
+        String reference = entry.getReference();
+        PaymentGateway gateway = router.gatewayFor(reference);
+        if (gateway == null) {
+            log.warn("No payment gateway issued reference {}", reference);
+            return new Verification(entry, null);
+        }
+        try {
+            RateLimiter limiter = rateLimiters.rateLimiter(gateway.getGatewayName());
+            return new Verification(entry, RateLimiter.decorateSupplier(limiter, () -> gateway.verifyTransaction(reference)).get());
+        } catch (Exception e) {
+            log.warn("Verification of {} failed: {}", reference, e.getMessage());
+            return new Verification(entry, null);
+        }
+    }
+
+    /**
+     * Applies outcomes a batch per transaction; a batch that fails is retried one reference at a
+     * time so one bad reference does not hold back the rest.
+     */
+    private List<Result> apply(List<Verification> verifications) {
+        List<Result> results = new ArrayList<>(verifications.size());
+        for (int from = 0; from < verifications.size(); from += applyBatchSize) {
+            List<Verification> batch = verifications.subList(from, Math.min(from + applyBatchSize, verifications.size()));
+            try {
+                results.addAll(applier.applyAll(batch));
+            } catch (Exception e) {
+                log.warn("Reconciliation batch failed, applying one by one: {}", e.getMessage());
+                for (Verification verification : batch) {
+                    results.add(applyOne(verification));
+                }
+            }
+        }
+        return results;
+    }
+
+    private Result applyOne(Verification verification) {
+        try {
+            return applier.apply(verification);
+        } catch (Exception e) {
+            log.error("Could not apply reconciled {}: {}", verification.entry().getReference(), e.getMessage());
+            return Result.UNAPPLIED;
+        }
+    }
+
+    private static final class Tally {
+        private final long[] results = new long[Result.values().length];
+        private long checked;
+        private long walked;
+        private long unresolved;
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("payment.reconciliation.references", "outcome", outcome).increment();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
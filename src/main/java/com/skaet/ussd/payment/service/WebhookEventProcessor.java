@@ -0,0 +1,172 @@
+package com.skaet.ussd.payment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skaet.ussd.account.service.AccountService;
+import com.skaet.ussd.ledger.entity.EntryKind;
+import com.skaet.ussd.ledger.entity.LedgerEntry;
+import com.skaet.ussd.ledger.service.LedgerService;
+import com.skaet.ussd.payment.dto.FlutterwaveWebhookDto;
+import com.skaet.ussd.payment.entity.WebhookEvent;
+import com.skaet.ussd.payment.entity.WebhookEventStatus;
+import com.skaet.ussd.payment.repository.WebhookEventRepository;
+import com.skaet.ussd.shard.ShardRouting;
+import com.skaet.ussd.wallet.model.WalletBalance;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Applies one stored webhook event. Claiming the event and moving money happen in the same
+ * transaction, so an event is credited or debited exactly once even if workers race or crash.
+ * When the subscriber is on another shard than the events, the money moves in a transaction of
+ * its own there, committed first; if the claim is then lost the event is retried and finds the
+ * reference already settled.
+ * Only transfers started here are settled, and only at the amount and for the subscriber
+ * recorded when they started: an event for an unknown reference moves no money, and one whose
+ * amount, currency or kind differs closes the transfer as a mismatch. Both are marked FAILED and
+ * kept for review.
+ * The time from receipt to being applied is recorded as {@code webhook.processing.lag}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WebhookEventProcessor {
+    private final WebhookEventRepository webhookEventRepository;
+    private final AccountService accountService;
+    private final LedgerService ledgerService;
+    private final ShardRouting shardRouting;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Transactional
+    public void process(Long eventId) throws IOException {
+        Instant claimedAt = Instant.now();
+        if (webhookEventRepository.claim(eventId, WebhookEventStatus.PROCESSED, claimedAt) == 0) {
+            log.debug("Webhook event {} already handled", eventId);
+            return;
+        }
+        WebhookEvent event = webhookEventRepository.findById(eventId).orElseThrow();
+        WebhookEventStatus outcome = apply(event);
+        Timer.builder("webhook.processing.lag")
+                .description("Time from receiving a webhook to applying it")
+                .tag("event", eventTag(event.getEvent()))
+                .tag("status", outcome.name().toLowerCase())
+                .register(meterRegistry)
+                .record(Duration.between(event.getReceivedAt(), claimedAt));
+    }
+
+    /**
+     * Moves the money for a claimed event and returns the status it ended in.
+     */
+    private WebhookEventStatus apply(WebhookEvent event) throws IOException {
+        Long eventId = event.getId();
+        FlutterwaveWebhookDto webhook = objectMapper.readValue(event.getPayload(), FlutterwaveWebhookDto.class);
+
+        FlutterwaveWebhookDto.TransactionData data = webhook.getData();
+        if (data == null || !"successful".equalsIgnoreCase(data.getStatus()) || !"ussd".equalsIgnoreCase(data.getPaymentType())) {
+            log.warn("⚠️ Ignored transaction - Status: {} | Type: {}",
+                    data != null ? data.getStatus() : null, data != null ? data.getPaymentType() : null);
+            webhookEventRepository.updateStatus(eventId, WebhookEventStatus.IGNORED, "not a successful ussd transaction");
+            return WebhookEventStatus.IGNORED;
+        }
+
+        BigDecimal amount = data.getAmount();
+        String phoneNumber = data.getCustomer() != null ? data.getCustomer().getPhoneNumber() : null;
+        if (phoneNumber == null || phoneNumber.equals("N/A")) {
+            log.warn("⚠️ Missing or invalid phone number for transaction: {}", data.getTxRef());
+            webhookEventRepository.updateStatus(eventId, WebhookEventStatus.IGNORED, "missing phone number");
+            return WebhookEventStatus.IGNORED;
+        }
+
+        String reference = data.getTxRef() != null ? data.getTxRef() : data.getFlwRef();
+        String currency = data.getCurrency();
+        Settlement settlement = shardRouting.inTransaction(phoneNumber, () -> settle(webhook.getEvent(), phoneNumber, amount, currency, reference));
+        switch (settlement) {
+            case ALREADY_SETTLED -> {
+                log.info("Transaction {} already settled", reference);
+                webhookEventRepository.updateStatus(eventId, WebhookEventStatus.IGNORED, "already settled");
+                return WebhookEventStatus.IGNORED;
+            }
+            case UNHANDLED -> {
+                webhookEventRepository.updateStatus(eventId, WebhookEventStatus.IGNORED, "unhandled event type");
+                return WebhookEventStatus.IGNORED;
+            }
+            case NOT_APPLIED -> {
+                webhookEventRepository.updateStatus(eventId, WebhookEventStatus.FAILED, "account not found or insufficient balance");
+                return WebhookEventStatus.FAILED;
+            }
+            case UNKNOWN_REFERENCE -> {
+                webhookEventRepository.updateStatus(eventId, WebhookEventStatus.FAILED, "unknown reference");
+                return WebhookEventStatus.FAILED;
+            }
+            case MISMATCH -> {
+                webhookEventRepository.updateStatus(eventId, WebhookEventStatus.FAILED, "differs from the pending transfer");
+                return WebhookEventStatus.FAILED;
+            }
+            default -> {
+                return WebhookEventStatus.PROCESSED;
+            }
+        }
+    }
+
+    /**
+     * Credits or debits the subscriber recorded for {@code reference}, on the shard of the number
+     * the event names.
+     */
+    private Settlement settle(String event, String phoneNumber, BigDecimal amount, String currency, String reference) {
+        EntryKind kind = "charge.completed".equalsIgnoreCase(event) ? EntryKind.DEPOSIT
+                : "transfer.completed".equalsIgnoreCase(event) ? EntryKind.WITHDRAWAL : null;
+        if (kind == null) {
+            return Settlement.UNHANDLED;
+        }
+        Optional<LedgerEntry> started = ledgerService.pendingWalletLeg(reference);
+        if (started.isEmpty()) {
+            log.warn("⚠️ No transfer {} was started for {}; {} {} not applied", reference, phoneNumber, amount, currency);
+            return Settlement.UNKNOWN_REFERENCE;
+        }
+        if (!ledgerService.lockForSettlement(reference)) {
+            return Settlement.ALREADY_SETTLED;
+        }
+        LedgerEntry entry = started.get();
+        if (entry.getKind() != kind || !LedgerService.matchesRecorded(entry, amount, currency)) {
+            ledgerService.recordMismatch(reference, entry.getWalletId(), entry.getPhoneNumber(), entry.getKind(), entry.getAmount());
+            log.error("Webhook {} for {} reports {} {} but {} {} {} was recorded; held as a mismatch",
+                    event, reference, amount, currency, entry.getKind(), entry.getAmount(), LedgerService.CURRENCY);
+            return Settlement.MISMATCH;
+        }
+        String subscriber = entry.getPhoneNumber();
+        if (!subscriber.equals(phoneNumber)) {
+            log.warn("⚠️ Webhook for {} names {}; settling for {} as recorded", reference, phoneNumber, subscriber);
+        }
+        BigDecimal recorded = entry.getAmount();
+        Optional<WalletBalance> applied;
+        if (kind == EntryKind.DEPOSIT) {
+            // USSD Deposit (Credit Account)
+            applied = accountService.creditAccount(subscriber, recorded, reference);
+            applied.ifPresent(b -> log.info("✅ USSD Deposit Successful - TX Ref: {} | Amount: {} NGN | Phone: {}", reference, recorded, subscriber));
+        } else {
+            // USSD Withdrawal (Debit Account)
+            applied = accountService.debitAccount(subscriber, recorded, reference);
+            applied.ifPresent(b -> log.info("✅ USSD Withdrawal Successful - TX Ref: {} | Amount: {} NGN | Phone: {}", reference, recorded, subscriber));
+        }
+        return applied.isPresent() ? Settlement.APPLIED : Settlement.NOT_APPLIED;
+    }
+
+    private enum Settlement {
+        APPLIED, ALREADY_SETTLED, UNHANDLED, NOT_APPLIED, UNKNOWN_REFERENCE, MISMATCH
+    }
+
+    private static String eventTag(String event) {
+        return "charge.completed".equalsIgnoreCase(event) || "transfer.completed".equalsIgnoreCase(event)
+                ? event.toLowerCase() : "other";
+    }
+}
@@ -0,0 +1,185 @@
+package com.skaet.ussd.payment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skaet.ussd.config.WorkerThreads;
+import com.skaet.ussd.payment.dto.FlutterwaveWebhookDto;
+import com.skaet.ussd.payment.entity.WebhookEvent;
+import com.skaet.ussd.payment.entity.WebhookEventStatus;
+import com.skaet.ussd.payment.repository.WebhookEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point for Flutterwave webhooks: verify, deduplicate, store, acknowledge. In async mode
+ * stored events are applied by a bounded worker pool; anything the pool cannot take right away
+ * (or that fails) is picked up again by a periodic sweep of RECEIVED events. Deliveries are
+ * counted as {@code webhook.received} by result; {@code webhook.queue.depth} shows the backlog.
+ */
+@Service
+@Slf4j
+public class WebhookIngestionService {
+    private final WebhookEventRepository webhookEventRepository;
+    private final WebhookEventProcessor webhookEventProcessor;
+    private final IdempotencyFilter idempotencyFilter;
+    private final ObjectMapper objectMapper;
+    private final byte[] secretHash;
+    private final boolean async;
+    private final int maxAttempts;
+    private final ThreadPoolExecutor workers;
+    private final MeterRegistry meterRegistry;
+
+    private static final Duration SWEEP_GRACE = Duration.ofSeconds(30);
+    private static final int SWEEP_BATCH = 200;
+
+    public WebhookIngestionService(WebhookEventRepository webhookEventRepository,
+                                   WebhookEventProcessor webhookEventProcessor,
+                                   IdempotencyFilter idempotencyFilter,
+                                   ObjectMapper objectMapper,
+                                   WorkerThreads workerThreads,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${flutterwave.secretHash}") String secretHash,
+                                   @Value("${flutterwave.webhook.async.enabled:true}") boolean async,
+                                   @Value("${flutterwave.webhook.workers:4}") int workers,
+                                   @Value("${flutterwave.webhook.queue-capacity:1000}") int queueCapacity,
+                                   @Value("${flutterwave.webhook.max-attempts:5}") int maxAttempts) {
+        this.webhookEventRepository = webhookEventRepository;
+        this.webhookEventProcessor = webhookEventProcessor;
+        this.idempotencyFilter = idempotencyFilter;
+        this.objectMapper = objectMapper;
+        if (secretHash == null || secretHash.isBlank()) {
+            throw new IllegalStateException("flutterwave.secretHash must be set to the secret hash configured on the Flutterwave dashboard");
+        }
+        this.secretHash = secretHash.getBytes(StandardCharsets.UTF_8);
+        this.async = async;
+        this.maxAttempts = maxAttempts;
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerThreads.named("webhook-worker-"));
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("webhook.queue.depth", this.workers, w -> w.getQueue().size())
+                .description("Stored webhooks waiting for a worker")
+                .register(meterRegistry);
+    }
+
+    public void ingest(String rawBody, String receivedHash) {
+        // Verify Flutterwave Signature
+        if (receivedHash == null || !MessageDigest.isEqual(secretHash, receivedHash.getBytes(StandardCharsets.UTF_8))) {
+            log.warn("⚠️ Invalid Webhook Signature! Possible spoofing attempt.");
+            count("invalid_signature");
+            return;
+        }
+
+        FlutterwaveWebhookDto webhook;
+        try {
+            webhook = objectMapper.readValue(rawBody, FlutterwaveWebhookDto.class);
+        } catch (Exception e) {
+            log.error("Failed to parse webhook payload: {}", e.getMessage());
+            count("malformed");
+            return;
+        }
+
+        FlutterwaveWebhookDto.TransactionData data = webhook.getData();
+        String reference = data == null ? null : data.getTxRef() != null ? data.getTxRef() : data.getFlwRef();
+        if (webhook.getEvent() == null || reference == null) {
+            log.warn("⚠️ Webhook without event or transaction reference ignored");
+            count("malformed");
+            return;
+        }
+
+        String idempotencyKey = webhook.getEvent() + ":" + reference;
+        if (idempotencyFilter.mightContain(idempotencyKey) && webhookEventRepository.existsByIdempotencyKey(idempotencyKey)) {
+            log.info("Duplicate webhook delivery ignored: {}", idempotencyKey);
+            count("duplicate");
+            return;
+        }
+
+        WebhookEvent event = new WebhookEvent();
+        event.setIdempotencyKey(idempotencyKey);
+        event.setEvent(webhook.getEvent());
+        event.setTxRef(data.getTxRef());
+        event.setFlwRef(data.getFlwRef());
+        event.setPayload(rawBody);
+        event.setStatus(WebhookEventStatus.RECEIVED);
+        event.setReceivedAt(Instant.now());
+        try {
+            event = webhookEventRepository.save(event);
+        } catch (DataIntegrityViolationException e) {
+            idempotencyFilter.put(idempotencyKey);
+            log.info("Duplicate webhook delivery ignored: {}", idempotencyKey);
+            count("duplicate");
+            return;
+        }
+        idempotencyFilter.put(idempotencyKey);
+        log.info("Webhook stored: {} (event {})", idempotencyKey, event.getId());
+        count("stored");
+
+        if (async) {
+            dispatch(event.getId());
+        } else {
+            process(event.getId());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${flutterwave.webhook.sweep-interval-ms:30000}")
+    public void sweepPending() {
+        List<Long> pending = webhookEventRepository.findPendingIds(Instant.now().minus(SWEEP_GRACE), PageRequest.of(0, SWEEP_BATCH));
+        if (!pending.isEmpty()) {
+            log.info("Re-dispatching {} pending webhook events", pending.size());
+        }
+        for (Long eventId : pending) {
+            if (async) {
+                if (!dispatch(eventId)) {
+                    return;
+                }
+            } else {
+                process(eventId);
+            }
+        }
+    }
+
+    private boolean dispatch(Long eventId) {
+        try {
+            workers.execute(() -> process(eventId));
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.warn("Webhook workers saturated, event {} left for the next sweep", eventId);
+            return false;
+        }
+    }
+
+    private void process(Long eventId) {
+        try {
+            webhookEventProcessor.process(eventId);
+        } catch (Exception e) {
+            log.error("Failed to process webhook event {}: {}", eventId, e.getMessage(), e);
+            webhookEventRepository.recordFailure(eventId, String.valueOf(e.getMessage()), maxAttempts);
+        }
+    }
+
+    private void count(String result) {
+        Counter.builder("webhook.received").tag("result", result).register(meterRegistry).increment();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,87 @@
+package com.skaet.ussd.session;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.skaet.ussd.config.CacheInvalidation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Bounded in-JVM session cache in front of Redis. Entries expire with the same timeout as the
+ * Redis key, and every write on another node evicts the local copy through a pub/sub message.
+ * Sessions are held encoded and decoded on every read: the menu changes a session in place, so
+ * each hop gets its own copy and a hop that fails before saving leaves the cached state as it was.
+ */
+@Component
+@Slf4j
+public class SessionNearCache implements MessageListener {
+    public static final String INVALIDATION_CHANNEL = "ussd:session:invalidate";
+
+    private final boolean enabled;
+    private final CacheInvalidation invalidation = new CacheInvalidation(INVALIDATION_CHANNEL);
+    private final UssdSessionCodec codec = new UssdSessionCodec();
+    private final Cache<String, byte[]> cache;
+
+    public SessionNearCache(MeterRegistry meterRegistry,
+                            @Value("${ussd.session.near-cache.enabled:false}") boolean enabled,
+                            @Value("${ussd.session.near-cache.max-size:10000}") long maxSize) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(UssdSessionService.SESSION_TIMEOUT))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "ussd.session.near");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public UssdSession get(String sessionId) {
+        byte[] encoded = enabled ? cache.getIfPresent(sessionId) : null;
+        return encoded != null ? codec.deserialize(encoded) : null;
+    }
+
+    public void put(UssdSession session) {
+        if (enabled) {
+            cache.put(session.getSessionId(), codec.serialize(session));
+        }
+    }
+
+    public void invalidate(String sessionId) {
+        if (enabled) {
+            cache.invalidate(sessionId);
+        }
+    }
+
+    /**
+     * Payload published after this node writes or clears a session, so other nodes drop their copy.
+     */
+    public byte[] invalidationMessage(String sessionId) {
+        return invalidation.messageBytes(sessionId);
+    }
+
+    public byte[] invalidationChannel() {
+        return invalidation.channelBytes();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            String sessionId = invalidation.keyToDrop(message);
+            if (sessionId != null) {
+                cache.invalidate(sessionId);
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring session invalidation: {}", e.getMessage());
+        }
+    }
+}
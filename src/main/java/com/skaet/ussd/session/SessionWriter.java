@@ -0,0 +1,200 @@
+package com.skaet.ussd.session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes session updates and deletes to Redis. In write-behind mode the hop only enqueues the
+ * write; a single background thread drains the queue and sends everything it finds in one
+ * pipeline, so a hop pays for the session read and nothing else. Writes still queued are served
+ * back to readers on this node through {@link #pending(String)}. Each pipeline is timed as
+ * {@code ussd.session.flush}; writes that found the queue full are counted as
+ * {@code ussd.session.write.overflow}.
+ * <p>
+ * Write-behind is off by default because it trades durability for latency: a hop is answered
+ * before its session reaches Redis, so a node that dies loses its queued writes, and a hop the
+ * aggregator sends to another node can read the previous state. Only enable it where hops of a
+ * session stick to one node. A failed pipeline is retried {@code MAX_ATTEMPTS} times; writes
+ * that still fail are counted as {@code ussd.session.write.failed}.
+ */
+@Component
+@Slf4j
+public class SessionWriter {
+    private static final int MAX_BATCH = 256;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MS = 50;
+
+    private final RedisTemplate<String, UssdSession> sessionRedisTemplate;
+    private final SessionNearCache nearCache;
+    private final boolean writeBehind;
+    private final BlockingQueue<SessionWrite> queue;
+    private final ConcurrentHashMap<String, SessionWrite> pending = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSize;
+    private final Counter overflow;
+    private final Counter failed;
+
+    public SessionWriter(RedisTemplate<String, UssdSession> sessionRedisTemplate,
+                         SessionNearCache nearCache,
+                         MeterRegistry meterRegistry,
+                         @Value("${ussd.session.write-behind.enabled:false}") boolean writeBehind,
+                         @Value("${ussd.session.write-behind.queue-capacity:10000}") int queueCapacity) {
+        this.sessionRedisTemplate = sessionRedisTemplate;
+        this.nearCache = nearCache;
+        this.writeBehind = writeBehind;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flusher = new Thread(this::drain, "session-writer");
+        this.flusher.setDaemon(true);
+
+        Gauge.builder("ussd.session.write.queue.depth", queue, BlockingQueue::size)
+                .description("Session writes waiting for the next pipeline")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("ussd.session.flush").register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("ussd.session.flush.batch.size").register(meterRegistry);
+        this.overflow = Counter.builder("ussd.session.write.overflow").register(meterRegistry);
+        this.failed = Counter.builder("ussd.session.write.failed")
+                .description("Queued session writes dropped after every retry failed")
+                .register(meterRegistry);
+        if (writeBehind) {
+            this.flusher.start();
+        }
+    }
+
+    public void save(String key, UssdSession session) {
+        submit(new SessionWrite(key, session.getSessionId(), session));
+    }
+
+    public void delete(String key, String sessionId) {
+        submit(new SessionWrite(key, sessionId, null));
+    }
+
+    /**
+     * Returns the queued write for a session that has not reached Redis yet, if any.
+     */
+    public SessionWrite pending(String sessionId) {
+        return writeBehind ? pending.get(sessionId) : null;
+    }
+
+    private void submit(SessionWrite write) {
+        if (writeBehind) {
+            pending.put(write.sessionId(), write);
+            if (queue.offer(write)) {
+                return;
+            }
+            overflow.increment();
+            log.warn("Session write queue full, writing {} synchronously", write.sessionId());
+            try {
+                writeBatch(List.of(write));
+            } finally {
+                pending.remove(write.sessionId(), write);
+            }
+            return;
+        }
+        writeBatch(List.of(write));
+    }
+
+    private void drain() {
+        List<SessionWrite> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                SessionWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                for (SessionWrite write : batch) {
+                    pending.remove(write.sessionId(), write);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes a drained batch, retrying a failed pipeline with backoff. The writes stay in
+     * {@code pending} meanwhile, so readers on this node keep seeing them.
+     */
+    private void flush(List<SessionWrite> batch) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writeBatch(batch);
+                return;
+            } catch (Exception e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    failed.increment(batch.size());
+                    log.error("Dropping {} session writes after {} attempts: {}", batch.size(), attempt, e.getMessage(), e);
+                    return;
+                }
+                log.warn("Error flushing {} session writes, retrying: {}", batch.size(), e.getMessage());
+                Thread.sleep(RETRY_BACKOFF_MS * attempt);
+            }
+        }
+    }
+
+    private void writeBatch(List<SessionWrite> batch) {
+        @SuppressWarnings("unchecked")
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) sessionRedisTemplate.getKeySerializer();
+        @SuppressWarnings("unchecked")
+        RedisSerializer<UssdSession> valueSerializer = (RedisSerializer<UssdSession>) sessionRedisTemplate.getValueSerializer();
+        boolean publish = nearCache.isEnabled();
+
+        batchSize.record(batch.size());
+        flushTimer.record(() -> sessionRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SessionWrite write : batch) {
+                byte[] key = keySerializer.serialize(write.key());
+                if (write.session() != null) {
+                    connection.stringCommands().set(key, valueSerializer.serialize(write.session()),
+                            Expiration.seconds(UssdSessionService.SESSION_TIMEOUT), RedisStringCommands.SetOption.upsert());
+                } else {
+                    connection.keyCommands().del(key);
+                }
+                if (publish) {
+                    connection.publish(nearCache.invalidationChannel(), nearCache.invalidationMessage(write.sessionId()));
+                }
+            }
+            return null;
+        }));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writeBehind) {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /**
+     * A session to store, or a delete when {@code session} is null.
+     */
+    public record SessionWrite(String key, String sessionId, UssdSession session) {
+    }
+}
@@ -1,23 +1,35 @@
 package com.skaet.ussd.session;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.skaet.ussd.menu.MenuState;
 import lombok.Data;
 
 import java.io.Serial;
 import java.io.Serializable;
-import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.math.BigDecimal;
 
 @Data
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class UssdSession implements Serializable {
     @Serial
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
     private String sessionId;
     private String phoneNumber;
-    private String currentMenu;
-    private Map<String, String> data = new HashMap<>();
-    private int level;
+    private MenuState state = MenuState.MAIN;
+    // Inputs of the aggregator's text applied so far, to spot a resent hop
+    private int inputs;
+
+    // Account creation
+    private String firstName;
+    private String lastName;
+
+    // Deposit / withdrawal
+    private String depositMethod;
+    private String withdrawMethod;
+    private BigDecimal amount;
+
+    // Currency converter
+    private String baseCurrency;
+    private String targetCurrency;
 }
\ No newline at end of file
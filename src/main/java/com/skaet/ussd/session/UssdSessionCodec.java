@@ -0,0 +1,200 @@
+package com.skaet.ussd.session;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skaet.ussd.menu.MenuState;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Versioned binary encoding of {@link UssdSession}.
+ *
+ * <pre>
+ * magic(1) version(1) state(1) presence(2) [field...]
+ * </pre>
+ * Strings are written as modified UTF-8 with a 2 byte length, the amount as scale(1) + unscaled
+ * bytes, the input count as an unsigned short. Payloads starting with '{' are sessions written
+ * by the previous JSON serializer and are still readable while those sessions drain out.
+ */
+public class UssdSessionCodec implements RedisSerializer<UssdSession> {
+    static final byte MAGIC = (byte) 0xA5;
+    static final byte VERSION = 1;
+
+    private static final int SESSION_ID = 1;
+    private static final int PHONE_NUMBER = 1 << 1;
+    private static final int FIRST_NAME = 1 << 2;
+    private static final int LAST_NAME = 1 << 3;
+    private static final int DEPOSIT_METHOD = 1 << 4;
+    private static final int WITHDRAW_METHOD = 1 << 5;
+    private static final int AMOUNT = 1 << 6;
+    private static final int BASE_CURRENCY = 1 << 7;
+    private static final int TARGET_CURRENCY = 1 << 8;
+    private static final int INPUTS = 1 << 9;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public byte[] serialize(UssdSession session) throws SerializationException {
+        if (session == null) {
+            return new byte[0];
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(session.getState() != null ? session.getState().id() : MenuState.MAIN.id());
+            out.writeShort(presence(session));
+            writeIfPresent(out, session.getSessionId());
+            writeIfPresent(out, session.getPhoneNumber());
+            writeIfPresent(out, session.getFirstName());
+            writeIfPresent(out, session.getLastName());
+            writeIfPresent(out, session.getDepositMethod());
+            writeIfPresent(out, session.getWithdrawMethod());
+            if (session.getAmount() != null) {
+                byte[] unscaled = session.getAmount().unscaledValue().toByteArray();
+                out.writeByte(session.getAmount().scale());
+                out.writeByte(unscaled.length);
+                out.write(unscaled);
+            }
+            writeIfPresent(out, session.getBaseCurrency());
+            writeIfPresent(out, session.getTargetCurrency());
+            if (session.getInputs() > 0) {
+                out.writeShort(session.getInputs());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new SerializationException("Could not encode session " + session.getSessionId(), e);
+        }
+    }
+
+    @Override
+    public UssdSession deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == '{') {
+            return readLegacyJson(bytes);
+        }
+        if (bytes[0] != MAGIC) {
+            throw new SerializationException("Unknown session encoding");
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new SerializationException("Unsupported session codec version " + version);
+            }
+            UssdSession session = new UssdSession();
+            int stateId = in.readUnsignedByte();
+            MenuState state = MenuState.fromId(stateId);
+            if (state == null) {
+                throw new SerializationException("Unknown menu state id " + stateId);
+            }
+            session.setState(state);
+            int presence = in.readUnsignedShort();
+            session.setSessionId(readIfPresent(in, presence, SESSION_ID));
+            session.setPhoneNumber(readIfPresent(in, presence, PHONE_NUMBER));
+            session.setFirstName(readIfPresent(in, presence, FIRST_NAME));
+            session.setLastName(readIfPresent(in, presence, LAST_NAME));
+            session.setDepositMethod(readIfPresent(in, presence, DEPOSIT_METHOD));
+            session.setWithdrawMethod(readIfPresent(in, presence, WITHDRAW_METHOD));
+            if ((presence & AMOUNT) != 0) {
+                int scale = in.readByte();
+                byte[] unscaled = new byte[in.readUnsignedByte()];
+                in.readFully(unscaled);
+                session.setAmount(new BigDecimal(new BigInteger(unscaled), scale));
+            }
+            session.setBaseCurrency(readIfPresent(in, presence, BASE_CURRENCY));
+            session.setTargetCurrency(readIfPresent(in, presence, TARGET_CURRENCY));
+            if ((presence & INPUTS) != 0) {
+                session.setInputs(in.readUnsignedShort());
+            }
+            return session;
+        } catch (IOException e) {
+            throw new SerializationException("Could not decode session", e);
+        }
+    }
+
+    private static int presence(UssdSession session) {
+        int presence = 0;
+        if (session.getSessionId() != null) presence |= SESSION_ID;
+        if (session.getPhoneNumber() != null) presence |= PHONE_NUMBER;
+        if (session.getFirstName() != null) presence |= FIRST_NAME;
+        if (session.getLastName() != null) presence |= LAST_NAME;
+        if (session.getDepositMethod() != null) presence |= DEPOSIT_METHOD;
+        if (session.getWithdrawMethod() != null) presence |= WITHDRAW_METHOD;
+        if (session.getAmount() != null) presence |= AMOUNT;
+        if (session.getBaseCurrency() != null) presence |= BASE_CURRENCY;
+        if (session.getTargetCurrency() != null) presence |= TARGET_CURRENCY;
+        if (session.getInputs() > 0) presence |= INPUTS;
+        return presence;
+    }
+
+    private static void writeIfPresent(DataOutputStream out, String value) throws IOException {
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readIfPresent(DataInputStream in, int presence, int field) throws IOException {
+        return (presence & field) != 0 ? in.readUTF() : null;
+    }
+
+    /**
+     * Maps a session written by GenericJackson2JsonRedisSerializer, where captured inputs lived in
+     * a string map, onto the typed fields. Those sessions had no state; where they were is worked
+     * out from {@code menuLevel}, {@code currentFlow} and the inputs captured so far.
+     */
+    private UssdSession readLegacyJson(byte[] bytes) {
+        try {
+            JsonNode root = objectMapper.readTree(bytes);
+            JsonNode data = root.path("data");
+            UssdSession session = new UssdSession();
+            session.setSessionId(text(root, "sessionId"));
+            session.setPhoneNumber(text(root, "phoneNumber"));
+            session.setFirstName(text(data, "firstName"));
+            session.setLastName(text(data, "lastName"));
+            session.setDepositMethod(text(data, "depositMethod"));
+            session.setWithdrawMethod(text(data, "withdrawMethod"));
+            String amount = text(data, "amount");
+            session.setAmount(amount != null ? new BigDecimal(amount) : null);
+            session.setBaseCurrency(text(data, "baseCurrency"));
+            session.setTargetCurrency(text(data, "targetCurrency"));
+            session.setState(legacyState(session, text(data, "menuLevel"), text(data, "currentFlow")));
+            return session;
+        } catch (IOException | NumberFormatException e) {
+            throw new SerializationException("Could not read legacy JSON session", e);
+        }
+    }
+
+    private static MenuState legacyState(UssdSession session, String menuLevel, String currentFlow) {
+        if (!"2".equals(menuLevel) || currentFlow == null) {
+            return MenuState.MAIN;
+        }
+        return switch (currentFlow) {
+            case "account_creation" -> session.getFirstName() == null ? MenuState.ACCOUNT_FIRST_NAME
+                    : session.getLastName() == null ? MenuState.ACCOUNT_LAST_NAME : MenuState.ACCOUNT_PIN;
+            case "balance" -> MenuState.BALANCE_PIN;
+            case "deposit" -> session.getDepositMethod() == null ? MenuState.DEPOSIT_METHOD : MenuState.DEPOSIT_AMOUNT;
+            case "withdraw" -> session.getAmount() != null ? MenuState.WITHDRAW_PIN
+                    : session.getWithdrawMethod() != null ? MenuState.WITHDRAW_AMOUNT : MenuState.WITHDRAW_METHOD;
+            case "currency_converter" -> session.getTargetCurrency() != null ? MenuState.CURRENCY_AMOUNT
+                    : session.getBaseCurrency() != null ? MenuState.CURRENCY_TARGET : MenuState.CURRENCY_BASE;
+            default -> MenuState.MAIN;
+        };
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value != null && value.isTextual() ? value.asText() : null;
+    }
+}
@@ -1,22 +1,94 @@
 package com.skaet.ussd.session;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
+
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Session store for the USSD hops. Reads are timed as {@code ussd.session.get}, tagged with where
+ * the session came from (near_cache, pending, redis, legacy) or miss/error, which gives the hit
+ * ratio of each layer; saves and clears as {@code ussd.session.save}/{@code ussd.session.clear}.
+ * <p>
+ * Round trips per hop, with the default synchronous writes: the dial makes one (the SET); every
+ * later hop makes two, a GET for the session and then one pipeline with its SET EX, or DEL on
+ * END, plus the invalidation publish when the near cache is on. The write depends on the menu
+ * step that ran on what was read, so the two cannot be merged. The read is a plain GET: every hop
+ * that reads a session also rewrites or deletes it, and the SET EX restarts the TTL. A near-cache
+ * hit saves the GET; with write-behind the pipeline leaves the hop too. Reading a legacy JSON
+ * session costs two more (GET and DEL), once per session.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class UssdSessionService {
+    private final RedisTemplate<String, UssdSession> sessionRedisTemplate;
     private final RedisTemplate<String, Object> redisTemplate;
-    private static final long SESSION_TIMEOUT = 300; // 5 minutes in seconds
+    private final SessionNearCache nearCache;
+    private final SessionWriter sessionWriter;
+    private final Map<String, Timer> getTimers = new HashMap<>();
+    private final Timer saveTimer;
+    private final Timer clearTimer;
+    static final long SESSION_TIMEOUT = 300; // 5 minutes in seconds
+    private static final String KEY_PREFIX = "ussd:session:";
+
+    // Sessions saved before the binary codec live under the JSON-encoded session id
+    @Value("${ussd.session.legacy-read.enabled:true}")
+    private boolean legacyReadEnabled;
+
+    public UssdSessionService(RedisTemplate<String, UssdSession> sessionRedisTemplate,
+                              RedisTemplate<String, Object> redisTemplate,
+                              SessionNearCache nearCache,
+                              SessionWriter sessionWriter,
+                              MeterRegistry meterRegistry) {
+        this.sessionRedisTemplate = sessionRedisTemplate;
+        this.redisTemplate = redisTemplate;
+        this.nearCache = nearCache;
+        this.sessionWriter = sessionWriter;
+        for (String result : List.of("near_cache", "pending", "redis", "legacy", "miss", "error")) {
+            getTimers.put(result, Timer.builder("ussd.session.get").tag("result", result).register(meterRegistry));
+        }
+        this.saveTimer = Timer.builder("ussd.session.save").register(meterRegistry);
+        this.clearTimer = Timer.builder("ussd.session.clear").register(meterRegistry);
+    }
 
     public UssdSession getSession(String sessionId, String phoneNumber) {
+        long started = System.nanoTime();
+        String result = "error";
         try {
-            UssdSession session = (UssdSession) redisTemplate.opsForValue().get(sessionId);
+            UssdSession session = nearCache.get(sessionId);
+            if (session != null) {
+                log.debug("Session served from near cache: {}", sessionId);
+                result = "near_cache";
+                return session;
+            }
+
+            SessionWriter.SessionWrite pending = sessionWriter.pending(sessionId);
+            if (pending != null) {
+                result = pending.session() != null ? "pending" : "miss";
+                return pending.session();
+            }
+
+            // The TTL restarts when this hop saves the session, so a plain GET is enough
+            session = sessionRedisTemplate.opsForValue().get(key(sessionId));
+            result = session != null ? "redis" : "miss";
+            if (session == null && legacyReadEnabled) {
+                session = readLegacySession(sessionId);
+                if (session != null) {
+                    result = "legacy";
+                }
+            }
+            if (session != null) {
+                nearCache.put(session);
+            }
 
             log.info("Existing session retrieved: {}", sessionId);
 
@@ -24,47 +96,71 @@ public class UssdSessionService {
         } catch (Exception e) {
             log.error("Error handling session {}: {}", sessionId, e.getMessage(), e);
             return createNewSession(sessionId, phoneNumber);
+        } finally {
+            getTimers.get(result).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         }
     }
 
+    private UssdSession readLegacySession(String sessionId) {
+        @SuppressWarnings("unchecked")
+        byte[] legacyKey = ((RedisSerializer<Object>) redisTemplate.getKeySerializer()).serialize(sessionId);
+        byte[] payload = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(legacyKey));
+        if (payload == null) {
+            return null;
+        }
+        log.info("Migrating legacy JSON session: {}", sessionId);
+        redisTemplate.delete(sessionId);
+        @SuppressWarnings("unchecked")
+        RedisSerializer<UssdSession> codec = (RedisSerializer<UssdSession>) sessionRedisTemplate.getValueSerializer();
+        return codec.deserialize(payload);
+    }
+
     private UssdSession createNewSession(String sessionId, String phoneNumber) {
         UssdSession session = new UssdSession();
         session.setSessionId(sessionId);
         session.setPhoneNumber(phoneNumber);
-        session.setData(new HashMap<>());
         return session;
     }
 
     public void saveSession(UssdSession session) {
+        long started = System.nanoTime();
         try {
             if (session != null && session.getSessionId() != null) {
-                redisTemplate.opsForValue().set(
-                        session.getSessionId(),
-                        session,
-                        SESSION_TIMEOUT,
-                        TimeUnit.SECONDS
-                );
+                nearCache.put(session);
+                sessionWriter.save(key(session.getSessionId()), session);
                 log.debug("Session saved: {}", session.getSessionId());
             } else {
                 log.warn("Attempted to save a null session or session ID.");
             }
         } catch (Exception e) {
+            if (session != null && session.getSessionId() != null) {
+                nearCache.invalidate(session.getSessionId());
+            }
             log.error("Error saving session {}: {}",
                     (session != null ? session.getSessionId() : "NULL"), e.getMessage(), e);
+        } finally {
+            saveTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         }
     }
 
     public void clearSession(String sessionId) {
+        long started = System.nanoTime();
         try {
             if (sessionId != null) {
-                redisTemplate.delete(sessionId);
+                nearCache.invalidate(sessionId);
+                sessionWriter.delete(key(sessionId), sessionId);
                 log.debug("Session cleared: {}", sessionId);
             } else {
                 log.warn("Attempted to clear a null session ID.");
             }
         } catch (Exception e) {
             log.error("Error clearing session {}: {}", sessionId, e.getMessage(), e);
+        } finally {
+            clearTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         }
     }
-}
 
+    private static String key(String sessionId) {
+        return KEY_PREFIX + sessionId;
+    }
+}
@@ -0,0 +1,65 @@
+package com.skaet.ussd.settlement;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Spills {@code reference<TAB>amount} lines, with an optional {@code <TAB>mark}, to one file per
+ * date, in arrival order, so each date can then be sorted and matched on its own.
+ */
+final class DatePartitions implements Closeable {
+    private final Path dir;
+    private final Map<LocalDate, BufferedWriter> writers = new HashMap<>();
+    private final Map<LocalDate, Path> files = new TreeMap<>();
+
+    DatePartitions(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    void write(LocalDate date, String reference, BigDecimal amount) throws IOException {
+        write(date, reference, amount, "");
+    }
+
+    void write(LocalDate date, String reference, BigDecimal amount, String mark) throws IOException {
+        if (reference == null || reference.isEmpty() || reference.indexOf('\t') >= 0) {
+            throw new IllegalArgumentException("invalid reference: " + reference);
+        }
+        BufferedWriter writer = writers.get(date);
+        if (writer == null) {
+            Path file = dir.resolve(date + ".tsv");
+            writer = Files.newBufferedWriter(file);
+            writers.put(date, writer);
+            files.put(date, file);
+        }
+        writer.write(reference);
+        writer.write('\t');
+        writer.write(amount.toPlainString());
+        if (!mark.isEmpty()) {
+            writer.write('\t');
+            writer.write(mark);
+        }
+        writer.newLine();
+    }
+
+    /**
+     * The file for each date written to, in date order.
+     */
+    Map<LocalDate, Path> files() {
+        return files;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BufferedWriter writer : writers.values()) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.skaet.ussd.settlement;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts a text file line by line without holding more than {@code chunkLines} lines in memory:
+ * the input is cut into sorted runs on disk, which are then merged, at most {@code fanIn} at a
+ * time. Lines compare as plain strings, so {@code reference<TAB>amount} lines sort by reference.
+ */
+final class ExternalSorter {
+    private final int chunkLines;
+    private final int fanIn;
+
+    ExternalSorter(int chunkLines, int fanIn) {
+        this.chunkLines = chunkLines;
+        this.fanIn = fanIn;
+    }
+
+    /**
+     * Sorts {@code input} into a new file in {@code workDir} and returns it; temporary runs are
+     * deleted as they are merged.
+     */
+    Path sort(Path input, Path workDir) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(input)) {
+            List<String> chunk = new ArrayList<>(chunkLines);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == chunkLines) {
+                    runs.add(writeRun(chunk, workDir));
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty() || runs.isEmpty()) {
+                runs.add(writeRun(chunk, workDir));
+            }
+        }
+        while (runs.size() > 1) {
+            List<Path> merged = new ArrayList<>();
+            for (int from = 0; from < runs.size(); from += fanIn) {
+                merged.add(merge(runs.subList(from, Math.min(from + fanIn, runs.size())), workDir));
+            }
+            runs = merged;
+        }
+        return runs.get(0);
+    }
+
+    private static Path writeRun(List<String> chunk, Path workDir) throws IOException {
+        chunk.sort(null);
+        Path run = Files.createTempFile(workDir, "run-", ".tsv");
+        Files.write(run, chunk);
+        return run;
+    }
+
+    private static Path merge(List<Path> runs, Path workDir) throws IOException {
+        if (runs.size() == 1) {
+            return runs.get(0);
+        }
+        Path merged = Files.createTempFile(workDir, "merge-", ".tsv");
+        List<BufferedReader> readers = new ArrayList<>(runs.size());
+        try (BufferedWriter writer = Files.newBufferedWriter(merged)) {
+            PriorityQueue<Head> heads = new PriorityQueue<>();
+            for (Path run : runs) {
+                BufferedReader reader = Files.newBufferedReader(run);
+                readers.add(reader);
+                Head.next(reader).ifPresent(heads::add);
+            }
+            Head head;
+            while ((head = heads.poll()) != null) {
+                writer.write(head.line());
+                writer.newLine();
+                Head.next(head.reader()).ifPresent(heads::add);
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+        for (Path run : runs) {
+            Files.delete(run);
+        }
+        return merged;
+    }
+
+    private record Head(String line, BufferedReader reader) implements Comparable<Head> {
+        static Optional<Head> next(BufferedReader reader) {
+            try {
+                String line = reader.readLine();
+                return line == null ? Optional.empty() : Optional.of(new Head(line, reader));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return line.compareTo(other.line);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.skaet.ussd.settlement;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Puts both sides of a settlement on the same calendar days. Processor timestamps are converted
+ * from their own offset (or {@code csvZone} when they carry none) to the settlement zone, and a
+ * ledger row stamped within {@code grace} of midnight also belongs to the neighbouring day, as
+ * the two clocks can fall on either side of it.
+ */
+final class SettlementDates {
+    // 2026-10-17T23:30:00Z, 2026-10-17 23:30:00.123+01:00, 2026-10-17T23:30:00+0100, 2026-10-17 23:30
+    private static final DateTimeFormatter TIMESTAMP = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .optionalStart().appendLiteral('T').optionalEnd()
+            .optionalStart().appendLiteral(' ').optionalEnd()
+            .append(DateTimeFormatter.ISO_LOCAL_TIME)
+            .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+            .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+            .toFormatter();
+
+    private final ZoneId zone;
+    private final ZoneId csvZone;
+    private final Duration grace;
+
+    SettlementDates(ZoneId zone, ZoneId csvZone, Duration grace) {
+        this.zone = zone;
+        this.csvZone = csvZone;
+        this.grace = grace;
+    }
+
+    /**
+     * The settlement day of a processor timestamp. A bare date is taken as already being one.
+     */
+    LocalDate settlementDate(String timestamp) {
+        String value = timestamp.trim();
+        if (value.length() == 10) {
+            return LocalDate.parse(value);
+        }
+        TemporalAccessor parsed = TIMESTAMP.parseBest(value, OffsetDateTime::from, LocalDateTime::from);
+        ZonedDateTime at = parsed instanceof OffsetDateTime offset
+                ? offset.atZoneSameInstant(zone)
+                : ((LocalDateTime) parsed).atZone(csvZone).withZoneSameInstant(zone);
+        return at.toLocalDate();
+    }
+
+    LocalDate ledgerDate(Instant createdAt) {
+        return createdAt.atZone(zone).toLocalDate();
+    }
+
+    /**
+     * The neighbouring day a ledger row also belongs to, or null when it is not within the grace
+     * window of midnight.
+     */
+    LocalDate neighbour(Instant createdAt) {
+        LocalDate date = ledgerDate(createdAt);
+        if (createdAt.isBefore(date.atStartOfDay(zone).toInstant().plus(grace))) {
+            return date.minusDays(1);
+        }
+        if (!createdAt.isBefore(date.plusDays(1).atStartOfDay(zone).toInstant().minus(grace))) {
+            return date.plusDays(1);
+        }
+        return null;
+    }
+
+    /**
+     * Start of the ledger rows to read for settlement days from {@code first}.
+     */
+    Instant from(LocalDate first) {
+        return first.atStartOfDay(zone).toInstant().minus(grace);
+    }
+
+    /**
+     * End (exclusive) of the ledger rows to read for settlement days up to {@code last}.
+     */
+    Instant to(LocalDate last) {
+        return last.plusDays(1).atStartOfDay(zone).toInstant().plus(grace);
+    }
+}
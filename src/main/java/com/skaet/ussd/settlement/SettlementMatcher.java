@@ -0,0 +1,152 @@
+package com.skaet.ussd.settlement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merge-joins two files of {@code reference<TAB>amount} lines, both sorted by reference: the
+ * processor's settlement rows and the deposits we credited. Only the rows under one reference
+ * are in memory at a time. Every difference is written to {@code out} as a CSV row and counted.
+ * <p>
+ * A ledger line may carry a third field: {@link #NEAR_MIDNIGHT} for a deposit credited close
+ * enough to midnight that the processor may have settled it on the neighbouring day, and
+ * {@link #SPILLED} for the copy of such a deposit in that neighbouring day's file. Neither is
+ * reported missing here; the {@link Boundary} decides once every day has been matched.
+ */
+final class SettlementMatcher {
+    enum Mismatch {
+        MISSING_IN_LEDGER,
+        MISSING_IN_SETTLEMENT,
+        DUPLICATE_IN_SETTLEMENT,
+        DUPLICATE_IN_LEDGER,
+        AMOUNT_MISMATCH
+    }
+
+    /**
+     * Rows matched on both sides with the same amount, and the count of each kind of mismatch.
+     */
+    record Result(long matched, long[] mismatches) {
+        long mismatchCount() {
+            long total = 0;
+            for (long count : mismatches) {
+                total += count;
+            }
+            return total;
+        }
+    }
+
+    static final String HEADER = "date,type,reference,settlement_amount,ledger_amount";
+    static final String NEAR_MIDNIGHT = "N";
+    static final String SPILLED = "S";
+
+    /**
+     * Collects the ledger rows near midnight whose outcome depends on the neighbouring day.
+     */
+    interface Boundary {
+        /**
+         * A deposit spilled from the neighbouring day has its settlement row on this day.
+         */
+        void claimed(String reference);
+
+        /**
+         * A deposit near midnight has no settlement row on its own day.
+         */
+        void unmatched(String reference, BigDecimal amount);
+    }
+
+    private SettlementMatcher() {
+    }
+
+    static Result match(String date, Path settlement, Path ledger, Writer out, Boundary boundary) throws IOException {
+        long matched = 0;
+        long[] mismatches = new long[Mismatch.values().length];
+        try (BufferedReader settlementReader = Files.newBufferedReader(settlement);
+             BufferedReader ledgerReader = Files.newBufferedReader(ledger)) {
+            Group settled = Group.read(settlementReader, null);
+            Group credited = Group.read(ledgerReader, null);
+            while (settled.reference() != null || credited.reference() != null) {
+                int order = settled.reference() == null ? 1
+                        : credited.reference() == null ? -1
+                        : settled.reference().compareTo(credited.reference());
+                if (order <= 0 && settled.amounts().size() > 1) {
+                    report(out, mismatches, date, Mismatch.DUPLICATE_IN_SETTLEMENT, settled.reference(), settled.amounts().get(1), null);
+                }
+                boolean spilled = SPILLED.equals(credited.mark());
+                if (order >= 0 && credited.amounts().size() > 1 && !spilled) {
+                    report(out, mismatches, date, Mismatch.DUPLICATE_IN_LEDGER, credited.reference(), null, credited.amounts().get(1));
+                }
+                if (order < 0) {
+                    report(out, mismatches, date, Mismatch.MISSING_IN_LEDGER, settled.reference(), settled.amounts().get(0), null);
+                } else if (order > 0) {
+                    if (NEAR_MIDNIGHT.equals(credited.mark())) {
+                        boundary.unmatched(credited.reference(), credited.amounts().get(0));
+                    } else if (!spilled) {
+                        report(out, mismatches, date, Mismatch.MISSING_IN_SETTLEMENT, credited.reference(), null, credited.amounts().get(0));
+                    }
+                } else {
+                    if (spilled) {
+                        boundary.claimed(credited.reference());
+                    }
+                    if (settled.amounts().get(0).compareTo(credited.amounts().get(0)) != 0) {
+                        report(out, mismatches, date, Mismatch.AMOUNT_MISMATCH, settled.reference(), settled.amounts().get(0), credited.amounts().get(0));
+                    } else {
+                        matched++;
+                    }
+                }
+                if (order <= 0) {
+                    settled = Group.read(settlementReader, settled.next());
+                }
+                if (order >= 0) {
+                    credited = Group.read(ledgerReader, credited.next());
+                }
+            }
+        }
+        return new Result(matched, mismatches);
+    }
+
+    static void report(Writer out, long[] mismatches, String date, Mismatch type, String reference,
+                               BigDecimal settlementAmount, BigDecimal ledgerAmount) throws IOException {
+        mismatches[type.ordinal()]++;
+        out.write(date + "," + type + "," + reference + ","
+                + (settlementAmount == null ? "" : settlementAmount.toPlainString()) + ","
+                + (ledgerAmount == null ? "" : ledgerAmount.toPlainString()) + "\n");
+    }
+
+    /**
+     * All consecutive lines under one reference ({@code reference} null at the end), the mark of
+     * the first ("" if none), plus the first line of the next reference, already read.
+     */
+    private record Group(String reference, List<BigDecimal> amounts, String mark, String next) {
+        static Group read(BufferedReader reader, String first) throws IOException {
+            String line = first != null ? first : reader.readLine();
+            if (line == null) {
+                return new Group(null, List.of(), "", null);
+            }
+            int tab = line.indexOf('\t');
+            String reference = line.substring(0, tab);
+            int markTab = line.indexOf('\t', tab + 1);
+            String mark = markTab < 0 ? "" : line.substring(markTab + 1);
+            List<BigDecimal> amounts = new ArrayList<>(1);
+            amounts.add(amount(line, tab));
+            while ((line = reader.readLine()) != null) {
+                tab = line.indexOf('\t');
+                if (!line.regionMatches(0, reference, 0, reference.length()) || tab != reference.length()) {
+                    break;
+                }
+                amounts.add(amount(line, tab));
+            }
+            return new Group(reference, amounts, mark, line);
+        }
+
+        private static BigDecimal amount(String line, int tab) {
+            int end = line.indexOf('\t', tab + 1);
+            return new BigDecimal(end < 0 ? line.substring(tab + 1) : line.substring(tab + 1, end));
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.skaet.ussd.settlement;
+
+import com.skaet.ussd.config.WorkerThreads;
+import com.skaet.ussd.payment.gateway.PaymentGateway;
+import com.skaet.ussd.shard.ShardMap;
+import com.skaet.ussd.shard.ShardRouting;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Offline check of the processor's settlement exports against the deposits we credited. Run the
+ * app with the {@code settlement} profile, which starts no web server or background jobs and
+ * exits when done (status 1 if anything did not match):
+ * <pre>
+ * java -jar skaet-ussd.jar --spring.profiles.active=settlement \
+ *     --settlement.files=settlement-2026-10-01.csv,settlement-2026-10-02.csv \
+ *     --settlement.output-dir=settlement-out
+ * </pre>
+ * The CSV files and the posted deposits for the dates they cover are each streamed once and
+ * spilled to one file per date. Dates are then handled in parallel: both sides are sorted by
+ * reference on disk and merge-joined, and every mismatch (missing on either side, duplicated,
+ * different amount) is written to {@code mismatches-<date>.csv}. Memory use is bounded by
+ * {@code sort-chunk-lines} per parallel date, whatever the size of the files.
+ * <p>
+ * Processor timestamps are converted to {@code settlement.zone} before they are given a date. A
+ * deposit we credited within {@code boundary-grace-minutes} of midnight is matched against both
+ * neighbouring days, and only reported missing if neither has it; the references this holds in
+ * memory are only those of such deposits that did not match on their own day.
+ */
+@Component
+@Profile("settlement")
+@Slf4j
+public class SettlementReconciliationRunner implements ApplicationRunner {
+    private static final int MERGE_FAN_IN = 64;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardMap shardMap;
+    private final ShardRouting shardRouting;
+    private final ConfigurableApplicationContext context;
+    private final WorkerThreads workerThreads;
+    private final PaymentGateway gateway;
+    private final List<String> files;
+    private final Path outputDir;
+    private final Path workDir;
+    private final int parallelism;
+    private final int sortChunkLines;
+    private final SettlementDates settlementDates;
+    private final String referenceColumn;
+    private final String amountColumn;
+    private final String dateColumn;
+
+    public SettlementReconciliationRunner(JdbcTemplate jdbcTemplate,
+                                          ShardMap shardMap,
+                                          ShardRouting shardRouting,
+                                          ConfigurableApplicationContext context,
+                                          WorkerThreads workerThreads,
+                                          List<PaymentGateway> gateways,
+                                          @Value("${settlement.gateway:flutterwave}") String gatewayName,
+                                          @Value("${settlement.files}") List<String> files,
+                                          @Value("${settlement.output-dir:settlement-out}") String outputDir,
+                                          @Value("${settlement.work-dir:${java.io.tmpdir}}") String workDir,
+                                          @Value("${settlement.parallelism:4}") int parallelism,
+                                          @Value("${settlement.sort-chunk-lines:500000}") int sortChunkLines,
+                                          @Value("${settlement.zone:Africa/Lagos}") String zone,
+                                          @Value("${settlement.csv.zone:UTC}") String csvZone,
+                                          @Value("${settlement.boundary-grace-minutes:15}") long graceMinutes,
+                                          @Value("${settlement.csv.reference-column:tx_ref}") String referenceColumn,
+                                          @Value("${settlement.csv.amount-column:amount}") String amountColumn,
+                                          @Value("${settlement.csv.date-column:created_at}") String dateColumn) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardMap = shardMap;
+        this.shardRouting = shardRouting;
+        this.context = context;
+        this.workerThreads = workerThreads;
+        this.gateway = gateways.stream()
+                .filter(g -> g.getGatewayName().equals(gatewayName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Unknown payment gateway: " + gatewayName));
+        this.files = files;
+        this.outputDir = Path.of(outputDir);
+        this.workDir = Path.of(workDir);
+        this.parallelism = parallelism;
+        this.sortChunkLines = sortChunkLines;
+        this.settlementDates = new SettlementDates(ZoneId.of(zone), ZoneId.of(csvZone), Duration.ofMinutes(graceMinutes));
+        this.referenceColumn = referenceColumn;
+        this.amountColumn = amountColumn;
+        this.dateColumn = dateColumn;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Path work = Files.createTempDirectory(Files.createDirectories(workDir), "settlement-");
+        long mismatches;
+        try {
+            mismatches = reconcile(work);
+        } finally {
+            deleteRecursively(work);
+        }
+        int exitCode = mismatches == 0 ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+
+    private long reconcile(Path work) throws Exception {
+        long started = System.nanoTime();
+        Map<LocalDate, Path> settled = partitionSettlement(work.resolve("settlement"));
+        if (settled.isEmpty()) {
+            log.warn("No settlement rows found in {}", files);
+            return 0;
+        }
+        Map<LocalDate, Path> credited = partitionLedger(settled.keySet(), work.resolve("ledger"));
+        Files.createDirectories(outputDir);
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, workerThreads.platform("settlement-"));
+        Map<LocalDate, Future<SettlementMatcher.Result>> results = new LinkedHashMap<>();
+        Set<String> claimed = ConcurrentHashMap.newKeySet();
+        Map<LocalDate, NearMidnight> nearMidnight = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<LocalDate, Path> day : settled.entrySet()) {
+                LocalDate date = day.getKey();
+                Path ledger = credited.get(date);
+                Path dayDir = work.resolve("sort-" + date);
+                NearMidnight boundary = new NearMidnight(claimed);
+                nearMidnight.put(date, boundary);
+                results.put(date, pool.submit(() -> matchDay(date, day.getValue(), ledger, dayDir, boundary)));
+            }
+            // A neighbouring day can claim a deposit near midnight, so every day is matched first
+            for (Future<SettlementMatcher.Result> result : results.values()) {
+                result.get();
+            }
+            long matched = 0;
+            long[] totals = new long[SettlementMatcher.Mismatch.values().length];
+            for (Map.Entry<LocalDate, Future<SettlementMatcher.Result>> result : results.entrySet()) {
+                SettlementMatcher.Result day = result.getValue().get();
+                nearMidnight.get(result.getKey()).reportUnclaimed(result.getKey(), day, mismatchFile(result.getKey()));
+                log.info("Settlement {}: {} matched, {} mismatches", result.getKey(), day.matched(), describe(day.mismatches()));
+                matched += day.matched();
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += day.mismatches()[i];
+                }
+            }
+            SettlementMatcher.Result total = new SettlementMatcher.Result(matched, totals);
+            log.info("Settlement reconciliation of {} days done in {}s: {} matched, {} mismatches, written to {}",
+                    results.size(), (System.nanoTime() - started) / 1_000_000_000, matched, describe(totals),
+                    outputDir.toAbsolutePath());
+            return total.mismatchCount();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private SettlementMatcher.Result matchDay(LocalDate date, Path settled, Path credited, Path dayDir,
+                                              SettlementMatcher.Boundary boundary) throws IOException {
+        Files.createDirectories(dayDir);
+        ExternalSorter sorter = new ExternalSorter(sortChunkLines, MERGE_FAN_IN);
+        Path sortedSettled = sorter.sort(settled, dayDir);
+        Path sortedCredited = credited != null ? sorter.sort(credited, dayDir) : Files.createTempFile(dayDir, "empty-", ".tsv");
+        try (Writer out = Files.newBufferedWriter(mismatchFile(date))) {
+            out.write(SettlementMatcher.HEADER + "\n");
+            return SettlementMatcher.match(date.toString(), sortedSettled, sortedCredited, out, boundary);
+        }
+    }
+
+    private Path mismatchFile(LocalDate date) {
+        return outputDir.resolve("mismatches-" + date + ".csv");
+    }
+
+    /**
+     * Streams every settlement file into per-date spill files. Rows that cannot be read are
+     * logged and skipped.
+     */
+    private Map<LocalDate, Path> partitionSettlement(Path dir) throws IOException {
+        try (DatePartitions partitions = new DatePartitions(dir)) {
+            for (String file : files) {
+                long rows = 0;
+                long skipped = 0;
+                try (BufferedReader reader = Files.newBufferedReader(Path.of(file))) {
+                    String header = reader.readLine();
+                    if (header == null) {
+                        continue;
+                    }
+                    List<String> columns = Csv.parse(header.replace("\uFEFF", ""));
+                    int reference = column(columns, referenceColumn, file);
+                    int amount = column(columns, amountColumn, file);
+                    int date = column(columns, dateColumn, file);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        rows++;
+                        try {
+                            List<String> fields = Csv.parse(line);
+                            partitions.write(settlementDates.settlementDate(fields.get(date)),
+                                    fields.get(reference).trim(),
+                                    new BigDecimal(fields.get(amount).trim().replace(",", "")));
+                        } catch (RuntimeException e) {
+                            skipped++;
+                            log.warn("{} row {} skipped: {}", file, rows + 1, e.getMessage());
+                        }
+                    }
+                }
+                log.info("Read {} settlement rows from {} ({} skipped)", rows, file, skipped);
+            }
+            return partitions.files();
+        }
+    }
+
+    /**
+     * Streams the posted deposits made through the settling gateway on {@code dates} (in the
+     * settlement time zone) into per-date spill files, one shard after the other. A deposit near
+     * midnight is also spilled, marked, into the neighbouring day when that day is settled. Rows a
+     * shard still holds for a range that has moved away are left to the shard that owns it.
+     */
+    private Map<LocalDate, Path> partitionLedger(Set<LocalDate> dates, Path dir) throws IOException {
+        LocalDate first = dates.stream().min(Comparator.naturalOrder()).orElseThrow();
+        LocalDate last = dates.stream().max(Comparator.naturalOrder()).orElseThrow();
+        Instant from = settlementDates.from(first);
+        Instant to = settlementDates.to(last);
+        try (DatePartitions partitions = new DatePartitions(dir)) {
+            long[] rows = new long[1];
+            for (String shard : shardMap.names()) {
+                shardRouting.onShard(shard, () -> jdbcTemplate.query(connection -> streamingStatement(connection, from, to), (RowCallbackHandler) rs -> {
+                    String reference = rs.getString(1);
+                    Instant createdAt = rs.getTimestamp(3).toInstant();
+                    LocalDate date = settlementDates.ledgerDate(createdAt);
+                    LocalDate neighbour = settlementDates.neighbour(createdAt);
+                    LocalDate spill = neighbour != null && dates.contains(neighbour) ? neighbour : null;
+                    if ((dates.contains(date) || spill != null) && gateway.owns(reference) && shardMap.owns(shard, rs.getString(4))) {
+                        try {
+                            if (dates.contains(date)) {
+                                partitions.write(date, reference, rs.getBigDecimal(2), spill != null ? SettlementMatcher.NEAR_MIDNIGHT : "");
+                            }
+                            if (spill != null) {
+                                partitions.write(spill, reference, rs.getBigDecimal(2), SettlementMatcher.SPILLED);
+                            }
+                        } catch (IOException e) {
+                            throw new SQLException("Could not spill ledger rows", e);
+                        }
+                        rows[0]++;
+                    }
+                }));
+            }
+            log.info("Read {} posted deposits from the ledger for {} to {}", rows[0], first, last);
+            return partitions.files();
+        }
+    }
+
+    private static PreparedStatement streamingStatement(Connection connection, Instant from, Instant to) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                "select reference, amount, created_at, phone_number from ledger_entries " +
+                        "where account = 'WALLET' and status = 'POSTED' and kind = 'DEPOSIT' " +
+                        "and created_at >= ? and created_at < ?",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        // MySQL Connector/J only streams rows one at a time with this fetch size; otherwise it
+        // buffers the whole result
+        boolean mysql = connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql");
+        statement.setFetchSize(mysql ? Integer.MIN_VALUE : 1000);
+        statement.setTimestamp(1, Timestamp.from(from));
+        statement.setTimestamp(2, Timestamp.from(to));
+        return statement;
+    }
+
+    /**
+     * Deposits of one day credited near midnight that its settlement rows did not have. Once every
+     * day has been matched, those no neighbouring day claimed are reported missing.
+     */
+    private static final class NearMidnight implements SettlementMatcher.Boundary {
+        private final Set<String> claimed;
+        private final Map<String, BigDecimal> unmatched = new LinkedHashMap<>();
+
+        NearMidnight(Set<String> claimed) {
+            this.claimed = claimed;
+        }
+
+        @Override
+        public void claimed(String reference) {
+            claimed.add(reference);
+        }
+
+        @Override
+        public void unmatched(String reference, BigDecimal amount) {
+            unmatched.put(reference, amount);
+        }
+
+        void reportUnclaimed(LocalDate date, SettlementMatcher.Result day, Path mismatches) throws IOException {
+            try (Writer out = Files.newBufferedWriter(mismatches, StandardOpenOption.APPEND)) {
+                for (Map.Entry<String, BigDecimal> deposit : unmatched.entrySet()) {
+                    if (!claimed.contains(deposit.getKey())) {
+                        SettlementMatcher.report(out, day.mismatches(), date.toString(),
+                                SettlementMatcher.Mismatch.MISSING_IN_SETTLEMENT, deposit.getKey(), null, deposit.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static int column(List<String> columns, String name, String file) {
+        int index = columns.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException(file + " has no " + name + " column (found " + columns + ")");
+        }
+        return index;
+    }
+
+    private static String describe(long[] mismatches) {
+        StringBuilder description = new StringBuilder();
+        long total = 0;
+        for (SettlementMatcher.Mismatch type : SettlementMatcher.Mismatch.values()) {
+            long count = mismatches[type.ordinal()];
+            total += count;
+            if (count > 0) {
+                description.append(description.isEmpty() ? "" : ", ").append(type.name().toLowerCase()).append('=').append(count);
+            }
+        }
+        return description.isEmpty() ? "0" : total + " (" + description + ")";
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            List<Path> all = new ArrayList<>(paths.toList());
+            all.sort(Comparator.reverseOrder());
+            for (Path path : all) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
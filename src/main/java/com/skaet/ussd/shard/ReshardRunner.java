@@ -0,0 +1,365 @@
+package com.skaet.ussd.shard;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Moves a range of buckets from one shard to another while the app keeps serving. Run the app
+ * with the {@code reshard} profile, once per step:
+ * <pre>
+ * java -jar skaet-ussd.jar --spring.profiles.active=reshard \
+ *     --reshard.buckets=512-767 --reshard.from=home --reshard.to=shard-1 --reshard.mode=copy
+ * </pre>
+ * <ol>
+ * <li>{@code copy} copies the range's wallets, accounts and ledger rows to the target with
+ * their ids, updating rows copied before that have changed since. A row on the target with the
+ * same id but another subscriber's phone number is a collision, not an earlier copy: it is
+ * reported and left alone, and the range cannot be cut over. Run it as often as needed; it takes
+ * no locks, so the target trails the live data.</li>
+ * <li>{@code cutover} freezes the range (hops for those numbers are refused, webhooks retried),
+ * waits for every node to see the freeze and for in-flight work to drain, copies what changed,
+ * and verifies the copy row by row. Only if nothing differs are the buckets assigned to the
+ * target; either way the range is unfrozen. The freeze lasts one copy of the range, so run
+ * {@code copy} first.</li>
+ * <li>{@code cleanup} deletes the range from the old shard, once the map has moved it and every
+ * row is on the target.</li>
+ * </ol>
+ * The process exits when done, with status 1 if the cutover did not verify or cleanup refused.
+ */
+@Component
+@Profile("reshard")
+@Slf4j
+public class ReshardRunner implements ApplicationRunner {
+    private static final Table WALLETS = new Table("wallets", false);
+    private static final Table ACCOUNTS = new Table("accounts", false);
+    private static final Table LEDGER_ENTRIES = new Table("ledger_entries", true);
+    private static final Table LEDGER_SETTLEMENTS = new Table("ledger_settlements", true);
+    private static final List<Table> LEDGER = List.of(LEDGER_ENTRIES, LEDGER_SETTLEMENTS);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardMap shardMap;
+    private final TransactionTemplate transactionTemplate;
+    private final ConfigurableApplicationContext context;
+    private final List<Integer> range;
+    private final Set<Integer> buckets;
+    private final String from;
+    private final String to;
+    private final String mode;
+    private final int batchSize;
+    private final long drainMs;
+    private final long refreshIntervalMs;
+
+    public ReshardRunner(JdbcTemplate jdbcTemplate,
+                         ShardMap shardMap,
+                         PlatformTransactionManager transactionManager,
+                         ConfigurableApplicationContext context,
+                         @Value("${reshard.buckets}") String buckets,
+                         @Value("${reshard.from}") String from,
+                         @Value("${reshard.to}") String to,
+                         @Value("${reshard.mode:copy}") String mode,
+                         @Value("${reshard.batch-size:1000}") int batchSize,
+                         @Value("${reshard.drain-ms:5000}") long drainMs,
+                         @Value("${datasource.sharding.refresh-interval-ms:1000}") long refreshIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardMap = shardMap;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.context = context;
+        this.range = ShardMap.range(buckets);
+        this.buckets = new HashSet<>(range);
+        this.from = from;
+        this.to = to;
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.drainMs = drainMs;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!shardMap.names().contains(from) || !shardMap.names().contains(to) || from.equals(to)) {
+            throw new IllegalArgumentException("reshard.from and reshard.to must be two different shards of " + shardMap.names());
+        }
+        if (range.isEmpty() || range.get(0) < 0 || range.get(range.size() - 1) >= shardMap.buckets()) {
+            throw new IllegalArgumentException("reshard.buckets must be within 0-" + (shardMap.buckets() - 1));
+        }
+        shardMap.refresh();
+        if (shardMap.isStale()) {
+            throw new IllegalStateException("Could not load the shard map");
+        }
+        boolean ok = switch (mode) {
+            case "copy" -> copy();
+            case "cutover" -> cutover();
+            case "cleanup" -> cleanup();
+            default -> throw new IllegalArgumentException("Unknown reshard.mode: " + mode);
+        };
+        int exitCode = ok ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+
+    private boolean copy() {
+        requireOwner(from);
+        Differences copied = sync(true);
+        log.info("Copied buckets {} from {} to {}: {}", range(), from, to, copied);
+        return true;
+    }
+
+    private boolean cutover() throws InterruptedException {
+        requireOwner(from);
+        shardMap.freeze(range);
+        try {
+            // Every node refreshes within one interval; transactions started before that must end
+            Thread.sleep(2 * refreshIntervalMs + drainMs);
+            Differences copied = sync(true);
+            Differences remaining = sync(false);
+            if (!remaining.none()) {
+                log.error("Buckets {} still differ after copying ({}), left on {}", range(), remaining, from);
+                return false;
+            }
+            shardMap.assign(range, to);
+            // Keep the range frozen until every node has also seen the new owner
+            Thread.sleep(2 * refreshIntervalMs);
+            log.info("Buckets {} moved from {} to {} (last copy: {})", range(), from, to, copied);
+            return true;
+        } finally {
+            shardMap.unfreeze(range);
+        }
+    }
+
+    private boolean cleanup() {
+        for (int bucket : range) {
+            if (!shardMap.shardOfBucket(bucket).equals(to) || shardMap.isFrozen(bucket)) {
+                log.error("Bucket {} is not moved to {} yet; nothing deleted", bucket, to);
+                return false;
+            }
+        }
+        Differences remaining = sync(false);
+        if (remaining.missing() > 0 || remaining.conflicting() > 0) {
+            log.error("Rows of buckets {} are missing on {} or collide with other rows there ({}); nothing deleted", range(), to, remaining);
+            return false;
+        }
+        long deleted = delete();
+        log.info("Deleted {} rows of buckets {} from {}", deleted, range(), from);
+        return true;
+    }
+
+    /**
+     * Compares the range on both shards and, with {@code write}, makes the target match: missing
+     * rows are inserted and changed ones updated (ledger rows never change). Wallets go before
+     * the accounts that reference them.
+     */
+    private Differences sync(boolean write) {
+        Differences total = new Differences(0, 0, 0);
+        long afterId = 0;
+        List<Map<String, Object>> page;
+        while (!(page = on(from, pageAfter(ACCOUNTS.name(), afterId))).isEmpty()) {
+            afterId = id(page.get(page.size() - 1));
+            List<Map<String, Object>> accounts = page.stream().filter(this::inRange).toList();
+            if (accounts.isEmpty()) {
+                continue;
+            }
+            // Wallets carry no phone number; each belongs to the subscriber of the account pointing at it
+            Map<Long, String> walletOwners = accounts.stream().collect(Collectors.toMap(
+                    account -> ((Number) account.get("wallet_id")).longValue(), account -> (String) account.get("phone_number")));
+            List<Map<String, Object>> wallets = on(from, () -> byId(WALLETS.name(), List.copyOf(walletOwners.keySet())));
+            total = total.plus(on(to, () -> transactionTemplate.execute(status ->
+                    compare(WALLETS, wallets, walletOwners, write).plus(compare(ACCOUNTS, accounts, owners(accounts), write)))));
+        }
+        for (Table table : LEDGER) {
+            afterId = 0;
+            while (!(page = on(from, pageAfter(table.name(), afterId))).isEmpty()) {
+                afterId = id(page.get(page.size() - 1));
+                List<Map<String, Object>> rows = page.stream().filter(this::inRange).toList();
+                if (!rows.isEmpty()) {
+                    total = total.plus(on(to, () -> transactionTemplate.execute(status -> compare(table, rows, owners(rows), write))));
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Compares {@code rows} from the source with the same ids on the current shard. {@code owners}
+     * maps each row's id to its subscriber's phone number; a row on this shard under the same id
+     * that belongs to someone else collides with it and is never overwritten.
+     */
+    private Differences compare(Table table, List<Map<String, Object>> rows, Map<Long, String> owners, boolean write) {
+        Map<Long, Map<String, Object>> existing = byId(table.name(), rows.stream().map(ReshardRunner::id).toList()).stream()
+                .collect(Collectors.toMap(ReshardRunner::id, Function.identity()));
+        Map<Long, String> existingOwners = table == WALLETS ? walletOwners(existing.keySet()) : owners(existing.values());
+        List<Map<String, Object>> missing = new ArrayList<>();
+        List<Map<String, Object>> changed = new ArrayList<>();
+        long conflicting = 0;
+        for (Map<String, Object> row : rows) {
+            long id = id(row);
+            Map<String, Object> copy = existing.get(id);
+            if (copy == null) {
+                missing.add(row);
+            } else if (!Objects.equals(owners.get(id), existingOwners.get(id))) {
+                log.error("Row {} of {} belongs to {} on {} but to {} on {}; left alone",
+                        id, table.name(), owners.get(id), from, existingOwners.get(id), to);
+                conflicting++;
+            } else if (!sameValues(row, copy)) {
+                changed.add(row);
+            }
+        }
+        if (write && !missing.isEmpty()) {
+            List<String> columns = new ArrayList<>(missing.get(0).keySet());
+            jdbcTemplate.batchUpdate("insert into " + table.name() + " (" + String.join(", ", columns) + ") values ("
+                    + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")", values(missing, columns));
+        }
+        if (write && !changed.isEmpty() && !table.immutable()) {
+            List<String> columns = new ArrayList<>(changed.get(0).keySet());
+            columns.remove("id");
+            columns.add("id");
+            jdbcTemplate.batchUpdate("update " + table.name() + " set "
+                    + columns.subList(0, columns.size() - 1).stream().map(column -> column + " = ?").collect(Collectors.joining(", "))
+                    + " where id = ?", values(changed, columns));
+        }
+        return new Differences(missing.size(), changed.size(), conflicting);
+    }
+
+    private Map<Long, String> walletOwners(Collection<Long> walletIds) {
+        if (walletIds.isEmpty()) {
+            return Map.of();
+        }
+        List<Long> ids = List.copyOf(walletIds);
+        return jdbcTemplate.queryForList("select wallet_id, phone_number from " + ACCOUNTS.name()
+                        + " where wallet_id in (" + placeholders(ids) + ")", ids.toArray()).stream()
+                .collect(Collectors.toMap(account -> ((Number) account.get("wallet_id")).longValue(),
+                        account -> (String) account.get("phone_number"), (first, second) -> first));
+    }
+
+    private static Map<Long, String> owners(Collection<Map<String, Object>> rows) {
+        return rows.stream().collect(Collectors.toMap(ReshardRunner::id, row -> (String) row.get("phone_number")));
+    }
+
+    /**
+     * Deletes the range from the old shard: ledger rows, then each page of accounts together with
+     * their wallets.
+     */
+    private long delete() {
+        long deleted = 0;
+        long afterId;
+        List<Map<String, Object>> page;
+        for (Table table : LEDGER) {
+            afterId = 0;
+            while (!(page = on(from, pageAfter(table.name(), afterId))).isEmpty()) {
+                afterId = id(page.get(page.size() - 1));
+                List<Long> ids = page.stream().filter(this::inRange).map(ReshardRunner::id).toList();
+                if (!ids.isEmpty()) {
+                    deleted += on(from, () -> deleteById(table.name(), ids));
+                }
+            }
+        }
+        afterId = 0;
+        while (!(page = on(from, pageAfter(ACCOUNTS.name(), afterId))).isEmpty()) {
+            afterId = id(page.get(page.size() - 1));
+            List<Map<String, Object>> accounts = page.stream().filter(this::inRange).toList();
+            if (!accounts.isEmpty()) {
+                List<Long> ids = accounts.stream().map(ReshardRunner::id).toList();
+                List<Long> walletIds = accounts.stream().map(account -> ((Number) account.get("wallet_id")).longValue()).toList();
+                deleted += on(from, () -> transactionTemplate.execute(status ->
+                        deleteById(ACCOUNTS.name(), ids) + deleteById(WALLETS.name(), walletIds)));
+            }
+        }
+        return deleted;
+    }
+
+    private int deleteById(String table, List<Long> ids) {
+        return jdbcTemplate.update("delete from " + table + " where id in (" + placeholders(ids) + ")", ids.toArray());
+    }
+
+    private boolean inRange(Map<String, Object> row) {
+        return buckets.contains(shardMap.bucketOf((String) row.get("phone_number")));
+    }
+
+    private Supplier<List<Map<String, Object>>> pageAfter(String table, long afterId) {
+        return () -> jdbcTemplate.queryForList("select * from " + table + " where id > ? order by id limit ?", afterId, batchSize);
+    }
+
+    private List<Map<String, Object>> byId(String table, List<Long> ids) {
+        return jdbcTemplate.queryForList("select * from " + table + " where id in (" + placeholders(ids) + ")", ids.toArray());
+    }
+
+    private void requireOwner(String shard) {
+        for (int bucket : range) {
+            if (!shardMap.shardOfBucket(bucket).equals(shard)) {
+                throw new IllegalStateException("Bucket " + bucket + " is on " + shardMap.shardOfBucket(bucket) + ", not " + shard);
+            }
+        }
+    }
+
+    private <T> T on(String shard, Supplier<T> work) {
+        return ShardContext.run(shard, work);
+    }
+
+    private String range() {
+        return range.get(0) + "-" + range.get(range.size() - 1);
+    }
+
+    private static long id(Map<String, Object> row) {
+        return ((Number) row.get("id")).longValue();
+    }
+
+    private static boolean sameValues(Map<String, Object> source, Map<String, Object> target) {
+        for (Map.Entry<String, Object> column : source.entrySet()) {
+            Object value = column.getValue();
+            Object other = target.get(column.getKey());
+            boolean same = value instanceof BigDecimal decimal && other instanceof BigDecimal otherDecimal
+                    ? decimal.compareTo(otherDecimal) == 0
+                    : Objects.equals(value, other);
+            if (!same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Object[]> values(List<Map<String, Object>> rows, List<String> columns) {
+        return rows.stream().map(row -> columns.stream().map(row::get).toArray()).toList();
+    }
+
+    private static String placeholders(List<Long> ids) {
+        return String.join(", ", Collections.nCopies(ids.size(), "?"));
+    }
+
+    private record Table(String name, boolean immutable) {
+    }
+
+    private record Differences(long missing, long changed, long conflicting) {
+        Differences plus(Differences other) {
+            return new Differences(missing + other.missing, changed + other.changed, conflicting + other.conflicting);
+        }
+
+        boolean none() {
+            return missing == 0 && changed == 0 && conflicting == 0;
+        }
+
+        @Override
+        public String toString() {
+            return missing + " missing, " + changed + " changed, " + conflicting + " colliding";
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.skaet.ussd.shard;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Row of {@code shard_buckets} on the home database: the shard a bucket of phone numbers lives
+ * on, and whether it is frozen for a move. Mapped so Hibernate creates the table in development;
+ * {@link ShardMap} reads and writes it directly.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = ShardMap.TABLE)
+public class ShardBucket {
+    @Id
+    private Integer bucket;
+
+    @Column(nullable = false, length = 64)
+    private String shard;
+
+    @Column(nullable = false)
+    private boolean frozen;
+}
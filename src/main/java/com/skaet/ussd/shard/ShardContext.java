@@ -0,0 +1,57 @@
+package com.skaet.ussd.shard;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The shard the current thread's database work goes to; none means the home database. Set by
+ * {@link ShardRouting} and carried over to background tasks with the {@code wrap} methods.
+ */
+public final class ShardContext {
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    static <T> T run(String shard, Supplier<T> work) {
+        String previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * {@code task} run on whichever thread, on the shard that is current now.
+     */
+    public static Runnable wrap(Runnable task) {
+        String shard = CURRENT.get();
+        return shard == null ? task : () -> run(shard, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> work) {
+        String shard = CURRENT.get();
+        return shard == null ? work : () -> run(shard, work);
+    }
+
+    public static <T> Consumer<T> wrap(Consumer<T> action) {
+        String shard = CURRENT.get();
+        return shard == null ? action : value -> run(shard, () -> {
+            action.accept(value);
+            return null;
+        });
+    }
+}
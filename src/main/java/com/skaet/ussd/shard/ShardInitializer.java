@@ -0,0 +1,115 @@
+package com.skaet.ussd.shard;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prepares the shards at startup. Hibernate only manages the home database's schema, so with
+ * {@code ddl-auto=create} (or {@code create-drop}) the same tables are created on every other
+ * shard here. Each shard then takes new ids from its own range, {@code index << 40} upwards, so
+ * rows keep their ids when the resharding tool copies them to another shard; a sequence is never
+ * left below an id already used in its range, such as one AUTO_INCREMENT handed out before the
+ * accounts and wallets moved to sequences. Finally the shard
+ * map is loaded, seeding {@code shard_buckets} on first start. Startup fails if an id range
+ * cannot be reserved or the map cannot be loaded: the node would otherwise risk colliding ids or
+ * routing to the wrong shard.
+ */
+@Component
+@Slf4j
+public class ShardInitializer {
+    private static final Map<String, String> SEQUENCES = Map.of(
+            "account_seq", "accounts",
+            "wallet_seq", "wallets",
+            "ledger_entry_seq", "ledger_entries",
+            "ledger_settlement_seq", "ledger_settlements");
+    // Above the allocation size: the pooled optimizer hands out ids below the value it reads
+    private static final long ID_MARGIN = 100;
+
+    private final ShardMap shardMap;
+    private final ShardingProperties properties;
+    private final EntityManagerFactory entityManagerFactory;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String ddlAuto;
+
+    public ShardInitializer(ShardMap shardMap,
+                            ShardingProperties properties,
+                            EntityManagerFactory entityManagerFactory,
+                            JdbcTemplate jdbcTemplate,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${spring.jpa.hibernate.ddl-auto:none}") String ddlAuto) {
+        this.shardMap = shardMap;
+        this.properties = properties;
+        this.entityManagerFactory = entityManagerFactory;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ddlAuto = ddlAuto;
+    }
+
+    @PostConstruct
+    void initialize() {
+        if (!shardMap.isSharded()) {
+            return;
+        }
+        Set<Integer> indexes = new HashSet<>();
+        for (Map.Entry<String, ShardingProperties.Shard> shard : properties.getShards().entrySet()) {
+            int index = shard.getValue().getIndex();
+            if (index < 1 || index >= 1 << 23 || !indexes.add(index)) {
+                throw new IllegalStateException("Shard " + shard.getKey() + " needs a unique index of 1 or more, not " + index);
+            }
+        }
+        boolean createSchema = ddlAuto.equals("create") || ddlAuto.equals("create-drop");
+        for (String shard : shardMap.names()) {
+            long index = shard.equals(ShardMap.HOME) ? 0 : properties.getShards().get(shard).getIndex();
+            ShardContext.run(shard, () -> {
+                if (createSchema && !shard.equals(ShardMap.HOME)) {
+                    entityManagerFactory.unwrap(SessionFactory.class).getSchemaManager().exportMappedObjects(true);
+                    log.info("Schema created on shard {}", shard);
+                }
+                reserveIds(shard, index);
+                return null;
+            });
+        }
+        loadShardMap();
+    }
+
+    private void loadShardMap() {
+        try {
+            ShardContext.run(ShardMap.HOME, () -> transactionTemplate.execute(status -> shardMap.seed()));
+        } catch (DuplicateKeyException e) {
+            log.info("Shard map seeded by another node");
+        }
+        shardMap.refresh();
+        if (shardMap.isStale()) {
+            throw new IllegalStateException("Could not load the shard map from " + ShardMap.TABLE);
+        }
+    }
+
+    private void reserveIds(String shard, long index) {
+        long start = index << 40;
+        long end = (index + 1) << 40;
+        for (Map.Entry<String, String> entry : SEQUENCES.entrySet()) {
+            String sequence = entry.getKey();
+            Long used = jdbcTemplate.queryForObject("select max(id) from " + entry.getValue() + " where id >= ? and id < ?",
+                    Long.class, start, end);
+            long floor = Math.max(start, used == null ? 0 : used) + ID_MARGIN;
+            // MySQL has no sequences; Hibernate keeps each one as a single-row table
+            if (jdbcTemplate.update("update " + sequence + " set next_val = greatest(next_val, ?)", floor) == 0) {
+                throw new IllegalStateException("Sequence " + sequence + " on shard " + shard
+                        + " has no row; its ids would collide with other shards");
+            }
+        }
+    }
+}
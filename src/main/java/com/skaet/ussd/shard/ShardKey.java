@@ -0,0 +1,18 @@
+package com.skaet.ussd.shard;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the phone number parameter of a bean method whose database work belongs to that
+ * subscriber: the method runs on the shard holding the number. Applied before any
+ * {@code @Transactional} on the same method, so the transaction opens on that shard.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ShardKey {
+}
@@ -0,0 +1,62 @@
+package com.skaet.ussd.shard;
+
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Applies {@link ShardKey}. Ordered ahead of the transaction interceptor so the shard is chosen
+ * before a transaction on the same method takes its connection.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class ShardKeyAspect {
+    private final ShardRouting shardRouting;
+
+    @Around("execution(* *(.., @com.skaet.ussd.shard.ShardKey (*), ..))")
+    public Object route(ProceedingJoinPoint joinPoint) throws Throwable {
+        String phoneNumber = shardKey(joinPoint);
+        if (phoneNumber == null) {
+            return joinPoint.proceed();
+        }
+        try {
+            return shardRouting.on(phoneNumber, () -> {
+                try {
+                    return joinPoint.proceed();
+                } catch (Throwable e) {
+                    throw new Rethrown(e);
+                }
+            });
+        } catch (Rethrown e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String shardKey(ProceedingJoinPoint joinPoint) {
+        Annotation[][] annotations = ((MethodSignature) joinPoint.getSignature()).getMethod().getParameterAnnotations();
+        Object[] args = joinPoint.getArgs();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof ShardKey) {
+                    return (String) args[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class Rethrown extends RuntimeException {
+        Rethrown(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.skaet.ussd.shard;
+
+import com.skaet.ussd.util.PhoneNumbers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Which shard holds each phone number. Numbers are hashed into a fixed number of buckets and
+ * buckets are assigned to shards in ranges, so capacity is added by moving ranges of buckets
+ * rather than rehashing everyone. The assignment lives in {@code shard_buckets} on the home
+ * database, seeded from {@code datasource.sharding.map} the first time; the resharding tool moves
+ * a range there (and freezes it while the last rows are copied). Every node reloads it every
+ * {@code refresh-interval-ms}. A node that has not managed to for twice that long, or has never
+ * loaded it, treats its map as stale and {@link ShardRouting} refuses sharded work until it
+ * catches up.
+ */
+@Component
+@Slf4j
+public class ShardMap {
+    public static final String HOME = "home";
+    static final String TABLE = "shard_buckets";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int buckets;
+    private final String[] configured;
+    private final Set<String> names;
+    private final long staleAfterNanos;
+    private volatile String[] assigned;
+    private volatile BitSet frozen = new BitSet();
+    // Start of the last load that succeeded, from System.nanoTime(); null before the first
+    private volatile Long refreshedAt;
+
+    public ShardMap(JdbcTemplate jdbcTemplate, ShardingProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.buckets = properties.getBuckets();
+        this.names = new LinkedHashSet<>();
+        this.names.add(HOME);
+        this.names.addAll(properties.getShards().keySet());
+        this.configured = parse(properties.getMap(), buckets, names);
+        this.staleAfterNanos = 2 * TimeUnit.MILLISECONDS.toNanos(properties.getRefreshIntervalMs());
+        this.assigned = configured;
+    }
+
+    /**
+     * Bucket of a phone number in any of the forms {@link PhoneNumbers#toLocal} accepts. The hash
+     * must never change: it decides where existing accounts are stored.
+     */
+    public static int bucketOf(String phoneNumber, int buckets) {
+        int h = PhoneNumbers.toLocal(phoneNumber).hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, buckets);
+    }
+
+    public int bucketOf(String phoneNumber) {
+        return bucketOf(phoneNumber, buckets);
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    /**
+     * All shards, the home database first.
+     */
+    public Set<String> names() {
+        return names;
+    }
+
+    public boolean isSharded() {
+        return names.size() > 1;
+    }
+
+    public String shardOf(String phoneNumber) {
+        return assigned[bucketOf(phoneNumber)];
+    }
+
+    public String shardOfBucket(int bucket) {
+        return assigned[bucket];
+    }
+
+    /**
+     * Whether the row for {@code phoneNumber} found on {@code shard} is the live one, and not a
+     * copy left behind by a move that has not been cleaned up yet.
+     */
+    public boolean owns(String shard, String phoneNumber) {
+        return !isSharded() || shardOf(phoneNumber).equals(shard);
+    }
+
+    public boolean isFrozen(int bucket) {
+        return frozen.get(bucket);
+    }
+
+    /**
+     * True if this node cannot be sure its map is current: it has not loaded it within twice
+     * the refresh interval, so a move made meanwhile may have gone unseen.
+     */
+    public boolean isStale() {
+        Long at = refreshedAt;
+        return isSharded() && (at == null || System.nanoTime() - at > staleAfterNanos);
+    }
+
+    /**
+     * Writes the configured assignment to {@code shard_buckets} if the table is empty; returns
+     * false if it already held a map, which then wins over the configuration.
+     */
+    boolean seed() {
+        Integer rows = ShardContext.run(HOME, () -> jdbcTemplate.queryForObject("select count(*) from " + TABLE, Integer.class));
+        if (rows != null && rows > 0) {
+            return false;
+        }
+        List<Object[]> values = new ArrayList<>(buckets);
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            values.add(new Object[]{bucket, configured[bucket], false});
+        }
+        ShardContext.run(HOME, () -> jdbcTemplate.batchUpdate("insert into " + TABLE + " (bucket, shard, frozen) values (?, ?, ?)", values));
+        log.info("Shard map seeded from datasource.sharding.map");
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${datasource.sharding.refresh-interval-ms:1000}")
+    public void refresh() {
+        if (!isSharded()) {
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            List<Map<String, Object>> rows = ShardContext.run(HOME, () -> jdbcTemplate.queryForList("select bucket, shard, frozen from " + TABLE));
+            String[] next = new String[buckets];
+            BitSet nextFrozen = new BitSet(buckets);
+            for (Map<String, Object> row : rows) {
+                int bucket = ((Number) row.get("bucket")).intValue();
+                String shard = (String) row.get("shard");
+                if (bucket < 0 || bucket >= buckets || !names.contains(shard)) {
+                    throw new IllegalStateException("Invalid assignment " + bucket + " -> " + shard);
+                }
+                next[bucket] = shard;
+                if (isSet(row.get("frozen"))) {
+                    nextFrozen.set(bucket);
+                }
+            }
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                if (next[bucket] == null) {
+                    throw new IllegalStateException("Bucket " + bucket + " is not assigned to a shard");
+                }
+            }
+            if (!Arrays.equals(next, assigned) || !nextFrozen.equals(frozen)) {
+                long moved = IntStream.range(0, buckets).filter(bucket -> !next[bucket].equals(configured[bucket])).count();
+                log.info("Shard map changed: {} buckets moved, {} frozen", moved, nextFrozen.cardinality());
+            }
+            assigned = next;
+            frozen = nextFrozen;
+            refreshedAt = started;
+        } catch (Exception e) {
+            log.error("Shard map refresh failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops new work on the given buckets on every node (after the next refresh).
+     */
+    public void freeze(List<Integer> range) {
+        update("frozen", true, range);
+    }
+
+    public void unfreeze(List<Integer> range) {
+        update("frozen", false, range);
+    }
+
+    /**
+     * Moves the given buckets to {@code shard} on every node (after the next refresh).
+     */
+    public void assign(List<Integer> range, String shard) {
+        if (!names.contains(shard)) {
+            throw new IllegalArgumentException("Unknown shard " + shard);
+        }
+        update("shard", shard, range);
+    }
+
+    private void update(String column, Object value, List<Integer> range) {
+        List<Object> args = new ArrayList<>(range.size() + 1);
+        args.add(value);
+        args.addAll(range);
+        int updated = ShardContext.run(HOME, () -> jdbcTemplate.update("update " + TABLE + " set " + column + " = ? where bucket in ("
+                + String.join(", ", Collections.nCopies(range.size(), "?")) + ")", args.toArray()));
+        if (updated != range.size()) {
+            throw new IllegalStateException("Only " + updated + " of " + range.size() + " buckets found in " + TABLE);
+        }
+    }
+
+    // MySQL drivers return bit and tinyint(1) columns as Boolean, others as a number
+    private static boolean isSet(Object flag) {
+        return flag instanceof Boolean set ? set : flag instanceof Number number && number.intValue() != 0;
+    }
+
+    /**
+     * Parses {@code from-to:shard} (or {@code bucket:shard}) items, comma-separated; with no map
+     * everything is on the home database.
+     */
+    static String[] parse(String map, int buckets, Set<String> names) {
+        String[] assignment = new String[buckets];
+        if (map == null || map.isBlank()) {
+            Arrays.fill(assignment, HOME);
+            return assignment;
+        }
+        for (String item : map.split(",")) {
+            String[] parts = item.trim().split(":");
+            if (parts.length != 2 || !names.contains(parts[1].trim())) {
+                throw new IllegalArgumentException("Invalid shard map item: " + item);
+            }
+            for (int bucket : range(parts[0])) {
+                if (bucket < 0 || bucket >= buckets || assignment[bucket] != null) {
+                    throw new IllegalArgumentException("Bucket " + bucket + " out of range or assigned twice");
+                }
+                assignment[bucket] = parts[1].trim();
+            }
+        }
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            if (assignment[bucket] == null) {
+                throw new IllegalArgumentException("Bucket " + bucket + " is not assigned to a shard");
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * Buckets in {@code from-to} (inclusive) or a single {@code bucket}.
+     */
+    public static List<Integer> range(String range) {
+        String[] bounds = range.trim().split("-");
+        int from = Integer.parseInt(bounds[0].trim());
+        int to = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : from;
+        List<Integer> buckets = new ArrayList<>(to - from + 1);
+        for (int bucket = from; bucket <= to; bucket++) {
+            buckets.add(bucket);
+        }
+        return buckets;
+    }
+}
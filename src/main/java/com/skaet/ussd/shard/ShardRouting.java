@@ -0,0 +1,105 @@
+package com.skaet.ussd.shard;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs database work on the right shard. A transaction stays on the shard it started on:
+ * entering another subscriber's shard inside it is refused, except through
+ * {@link #inTransaction}, which opens a separate transaction there. Nothing is routed while the
+ * node's {@link ShardMap} is stale, since it may send work to a shard that no longer owns it.
+ */
+@Component
+public class ShardRouting {
+    private final ShardMap shardMap;
+    private final TransactionTemplate required;
+    private final TransactionTemplate requiresNew;
+
+    public ShardRouting(ShardMap shardMap, PlatformTransactionManager transactionManager) {
+        this.shardMap = shardMap;
+        this.required = new TransactionTemplate(transactionManager);
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Runs {@code work} on the shard holding {@code phoneNumber}.
+     *
+     * @throws ShardUnavailableException while the number's bucket is being moved or the map is stale
+     * @throws IllegalStateException     inside a transaction on another shard
+     */
+    public <T> T on(String phoneNumber, Supplier<T> work) {
+        if (!shardMap.isSharded()) {
+            return work.get();
+        }
+        String shard = target(phoneNumber);
+        if (shard.equals(ShardContext.current())) {
+            return work.get();
+        }
+        if (!shard.equals(currentShard()) && TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Cannot use shard " + shard + " inside a transaction on " + currentShard());
+        }
+        return ShardContext.run(shard, work);
+    }
+
+    /**
+     * Runs {@code work} in a transaction on the shard holding {@code phoneNumber}: the current
+     * transaction if it is on that shard, otherwise a new one there that commits on its own.
+     */
+    public <T> T inTransaction(String phoneNumber, Supplier<T> work) {
+        if (!shardMap.isSharded()) {
+            return required.execute(status -> work.get());
+        }
+        String shard = target(phoneNumber);
+        if (shard.equals(currentShard())) {
+            return ShardContext.run(shard, () -> required.execute(status -> work.get()));
+        }
+        return ShardContext.run(shard, () -> requiresNew.execute(status -> work.get()));
+    }
+
+    /**
+     * Runs {@code work} on the named shard, for jobs that go through every shard in turn.
+     *
+     * @throws ShardUnavailableException while the map is stale
+     * @throws IllegalStateException     inside a transaction on another shard
+     */
+    public <T> T onShard(String shard, Supplier<T> work) {
+        requireCurrentMap();
+        if (TransactionSynchronizationManager.isActualTransactionActive() && !shard.equals(currentShard())) {
+            throw new IllegalStateException("Cannot use shard " + shard + " inside a transaction on " + currentShard());
+        }
+        return ShardContext.run(shard, work);
+    }
+
+    public void onShard(String shard, Runnable work) {
+        onShard(shard, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    private String target(String phoneNumber) {
+        requireCurrentMap();
+        int bucket = shardMap.bucketOf(phoneNumber);
+        if (shardMap.isFrozen(bucket)) {
+            throw new ShardUnavailableException("Bucket " + bucket + " is being moved");
+        }
+        return shardMap.shardOfBucket(bucket);
+    }
+
+    private void requireCurrentMap() {
+        if (shardMap.isStale()) {
+            throw new ShardUnavailableException("Shard map is stale");
+        }
+    }
+
+    private static String currentShard() {
+        String current = ShardContext.current();
+        return current == null ? ShardMap.HOME : current;
+    }
+}
@@ -0,0 +1,49 @@
+package com.skaet.ussd.shard;
+
+import com.skaet.ussd.config.ReadWriteRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out connections from the shard in {@link ShardContext} (the home database when none is
+ * set). Each shard is a {@link ReadWriteRoutingDataSource}, so read-only transactions still go to
+ * that shard's replicas. Like that one it must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+    private final Map<String, ReadWriteRoutingDataSource> shards;
+    private final List<HikariDataSource> shardPrimaries;
+
+    public ShardRoutingDataSource(Map<String, ReadWriteRoutingDataSource> shards, List<HikariDataSource> shardPrimaries) {
+        this.shards = shards;
+        this.shardPrimaries = shardPrimaries;
+        setTargetDataSources(new HashMap<>(shards));
+        setDefaultTargetDataSource(shards.get(ShardMap.HOME));
+        setLenientFallback(false);
+    }
+
+    public boolean hasReplicas() {
+        return shards.values().stream().anyMatch(ReadWriteRoutingDataSource::hasReplicas);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String shard = ShardContext.current();
+        return shard == null ? ShardMap.HOME : shard;
+    }
+
+    @Scheduled(fixedDelayString = "${datasource.replica.check-interval-ms:5000}")
+    public void checkReplicas() {
+        shards.values().forEach(ReadWriteRoutingDataSource::checkReplicas);
+    }
+
+    public void close() {
+        shards.values().forEach(ReadWriteRoutingDataSource::close);
+        shardPrimaries.forEach(HikariDataSource::close);
+    }
+}
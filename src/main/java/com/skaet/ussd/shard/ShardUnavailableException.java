@@ -0,0 +1,11 @@
+package com.skaet.ussd.shard;
+
+/**
+ * The subscriber's bucket is frozen while it is moved to another shard, or this node's shard map
+ * is stale; the caller should ask them to try again shortly.
+ */
+public class ShardUnavailableException extends RuntimeException {
+    public ShardUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,42 @@
+package com.skaet.ussd.shard;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Account shards besides the home database ({@code spring.datasource}), and which buckets of
+ * phone numbers live where.
+ */
+@Data
+@ConfigurationProperties(prefix = "datasource.sharding")
+public class ShardingProperties {
+    /** Phone numbers are hashed into this many buckets; fixed for the life of the data. */
+    private int buckets = 1024;
+    /**
+     * Bucket ranges and their shard, e.g. {@code 0-511:home,512-1023:shard-1}. Only seeds
+     * {@code shard_buckets} on first start; after that the table is the map.
+     */
+    private String map = "";
+    /**
+     * How often each node reloads the map from {@code shard_buckets}; a node that has not managed
+     * to for twice this long refuses sharded work.
+     */
+    private long refreshIntervalMs = 1000;
+    private Map<String, Shard> shards = new LinkedHashMap<>();
+
+    @Data
+    public static class Shard {
+        /** Unique, 1 or more (the home database is 0); picks the range new ids are taken from. */
+        private int index;
+        private String url;
+        private String username;
+        private String password;
+        /** Read replicas of this shard, used like {@code datasource.replica.urls}. */
+        private List<String> replicaUrls = new ArrayList<>();
+    }
+}
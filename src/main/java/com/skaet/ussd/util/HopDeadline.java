@@ -0,0 +1,92 @@
+package com.skaet.ussd.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Deadline of the USSD hop being handled on the current thread. The controller opens one per
+ * request; services check it before optional or slow work, and outbound HTTP calls made on the
+ * hop are cut off when it passes. Threads that are not serving a hop have no deadline, so work
+ * handed to background threads runs with its normal timeouts.
+ */
+public final class HopDeadline {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private HopDeadline() {
+    }
+
+    /**
+     * Starts a deadline {@code budget} from now for this thread; close the scope when the hop ends.
+     */
+    public static Scope start(Duration budget) {
+        Long previous = DEADLINE.get();
+        DEADLINE.set(System.nanoTime() + budget.toNanos());
+        return new Scope(previous);
+    }
+
+    public static boolean isActive() {
+        return DEADLINE.get() != null;
+    }
+
+    /**
+     * Time left before the deadline (zero once it has passed), or null when there is no deadline.
+     */
+    public static Duration remaining() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? null : Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    /**
+     * True unless a deadline is set and less than {@code needed} is left before it.
+     */
+    public static boolean allows(Duration needed) {
+        Duration remaining = remaining();
+        return remaining == null || remaining.compareTo(needed) >= 0;
+    }
+
+    /**
+     * The shorter of {@code timeout} and the time left.
+     */
+    public static Duration cap(Duration timeout) {
+        Duration remaining = remaining();
+        return remaining == null || remaining.compareTo(timeout) >= 0 ? timeout : remaining;
+    }
+
+    /**
+     * Waits for {@code future} until {@code reserve} before the deadline, or without a limit when
+     * there is no deadline. Returns null if the future did not complete in time; it is left
+     * running.
+     */
+    public static <T> T await(CompletableFuture<T> future, Duration reserve) throws ExecutionException, InterruptedException {
+        Duration remaining = remaining();
+        if (remaining == null) {
+            return future.get();
+        }
+        long waitNanos = remaining.minus(reserve).toNanos();
+        try {
+            return waitNanos > 0 ? future.get(waitNanos, TimeUnit.NANOSECONDS) : future.getNow(null);
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final Long previous;
+
+        private Scope(Long previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                DEADLINE.remove();
+            } else {
+                DEADLINE.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.skaet.ussd.util;
+
+/**
+ * Phone number normalization shared by every entry point, so an account is always looked up
+ * under the same key whichever form the aggregator or gateway sent. The local form also decides
+ * an account's shard bucket, so every form accepted here must keep mapping to the same string.
+ */
+public final class PhoneNumbers {
+    private static final String COUNTRY_CODE = "234";
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Converts a Nigerian number to the local 0... form: spaces and dashes are dropped, and an
+     * international number (234..., +234... or 00234..., with or without the trunk 0 after the
+     * country code) gets its leading 0 back. Anything else is returned without the separators.
+     */
+    public static String toLocal(String phoneNumber) {
+        String digits = stripSeparators(phoneNumber);
+        int start = digits.startsWith("+") ? 1 : digits.startsWith("00") ? 2 : 0;
+        if (!digits.startsWith(COUNTRY_CODE, start)) {
+            return digits;
+        }
+        start += COUNTRY_CODE.length();
+        return digits.startsWith("0", start) ? digits.substring(start) : "0" + digits.substring(start);
+    }
+
+    private static String stripSeparators(String phoneNumber) {
+        if (phoneNumber.indexOf(' ') < 0 && phoneNumber.indexOf('-') < 0) {
+            return phoneNumber;
+        }
+        StringBuilder digits = new StringBuilder(phoneNumber.length());
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (c != ' ' && c != '-') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+}
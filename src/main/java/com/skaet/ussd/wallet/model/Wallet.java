@@ -9,9 +9,13 @@ import java.math.BigDecimal;
 @Data
 public class Wallet {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "wallet_seq")
+    @SequenceGenerator(name = "wallet_seq", sequenceName = "wallet_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
     private BigDecimal balance;
+
+    @Version
+    private Long version;
 }
\ No newline at end of file
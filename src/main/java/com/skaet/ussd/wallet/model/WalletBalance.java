@@ -0,0 +1,9 @@
+package com.skaet.ussd.wallet.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Balance of a wallet as of a given entity version.
+ */
+public record WalletBalance(Long walletId, BigDecimal balance, Long version) {
+}
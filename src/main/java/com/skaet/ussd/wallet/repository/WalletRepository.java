@@ -1,10 +1,41 @@
 package com.skaet.ussd.wallet.repository;
 
 import com.skaet.ussd.wallet.model.Wallet;
+import com.skaet.ussd.wallet.model.WalletBalance;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface WalletRepository extends JpaRepository<Wallet, Long> {
 
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Wallet w set w.balance = w.balance + :amount, w.version = w.version + 1 where w.id = :walletId")
+    int credit(@Param("walletId") Long walletId, @Param("amount") BigDecimal amount);
+
+    // Only applies when the balance covers the amount, so concurrent debits cannot overdraw
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Wallet w set w.balance = w.balance - :amount, w.version = w.version + 1 " +
+            "where w.id = :walletId and w.balance >= :amount")
+    int debit(@Param("walletId") Long walletId, @Param("amount") BigDecimal amount);
+
+    @Query("select new com.skaet.ussd.wallet.model.WalletBalance(w.id, w.balance, w.version) " +
+            "from Account a join a.wallet w where a.phoneNumber = :phoneNumber")
+    Optional<WalletBalance> findBalanceByPhoneNumber(@Param("phoneNumber") String phoneNumber);
+
+    @Query("select new com.skaet.ussd.wallet.model.WalletBalance(w.id, w.balance, w.version) " +
+            "from Wallet w where w.id = :walletId")
+    Optional<WalletBalance> findBalanceById(@Param("walletId") Long walletId);
+
+    // Keyset page over all wallets, for projection rebuilds and checks
+    @Query("select new com.skaet.ussd.wallet.model.WalletBalance(w.id, w.balance, w.version) " +
+            "from Wallet w where w.id > :afterId order by w.id")
+    List<WalletBalance> findBalancesAfter(@Param("afterId") Long afterId, Pageable pageable);
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+package com.skaet.ussd.wallet.service;
+
+import com.skaet.ussd.config.ReplicaReads;
+import com.skaet.ussd.shard.ShardKey;
+import com.skaet.ussd.shard.ShardMap;
+import com.skaet.ussd.shard.ShardRouting;
+import com.skaet.ussd.wallet.model.WalletBalance;
+import com.skaet.ussd.wallet.repository.WalletRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Read model of wallet balances in Redis, one hash per wallet holding the balance and the
+ * entity version it was taken at. Committed credits and debits are applied after commit; the
+ * write is skipped if Redis already holds a newer version, so out-of-order applies, rebuilds
+ * and read-repairs can never move a balance backwards. MySQL stays the source of truth: any
+ * miss or Redis failure falls back to it.
+ */
+@Service
+@Slf4j
+public class BalanceProjection {
+    static final String KEY_PREFIX = "wallet:balance:";
+    private static final int PAGE_SIZE = 500;
+    private static final int MAX_REPORTED = 50;
+
+    // KEYS[1] = hash, ARGV[1] = balance, ARGV[2] = version
+    private static final String APPLY_SCRIPT = """
+            local current = redis.call('HGET', KEYS[1], 'version')
+            if current and tonumber(current) > tonumber(ARGV[2]) then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], 'balance', ARGV[1], 'version', ARGV[2])
+            return 1
+            """;
+    private static final RedisScript<Long> APPLY = new DefaultRedisScript<>(APPLY_SCRIPT, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final WalletRepository walletRepository;
+    private final ReplicaReads replicaReads;
+    private final ShardMap shardMap;
+    private final ShardRouting shardRouting;
+    private final boolean enabled;
+
+    public BalanceProjection(StringRedisTemplate redisTemplate,
+                             WalletRepository walletRepository,
+                             ReplicaReads replicaReads,
+                             ShardMap shardMap,
+                             ShardRouting shardRouting,
+                             @Value("${wallet.balance-projection.enabled:true}") boolean enabled) {
+        this.redisTemplate = redisTemplate;
+        this.walletRepository = walletRepository;
+        this.replicaReads = replicaReads;
+        this.shardMap = shardMap;
+        this.shardRouting = shardRouting;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Publishes a balance once the surrounding transaction commits, or straight away if there is none.
+     */
+    public void apply(WalletBalance balance) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    write(balance);
+                }
+            });
+        } else {
+            write(balance);
+        }
+    }
+
+    /**
+     * Current balance of a wallet, from the projection when it has one and from MySQL otherwise
+     * (a replica, unless {@code phoneNumber}, the owner, was just written).
+     */
+    public Optional<BigDecimal> getBalance(Long walletId, @ShardKey String phoneNumber) {
+        if (enabled) {
+            try {
+                String balance = (String) redisTemplate.opsForHash().get(KEY_PREFIX + walletId, "balance");
+                if (balance != null) {
+                    return Optional.of(new BigDecimal(balance));
+                }
+            } catch (Exception e) {
+                log.error("Balance projection read failed: {}", e.getMessage());
+            }
+        }
+
+        Optional<WalletBalance> balance = replicaReads.read(phoneNumber, () -> walletRepository.findBalanceById(walletId));
+        balance.ifPresent(this::write);
+        return balance.map(WalletBalance::balance);
+    }
+
+    /**
+     * Re-publishes every wallet from MySQL, shard by shard. Safe to run while traffic is flowing,
+     * and while a range is being moved: a copy left on the old shard is never newer than the
+     * wallet it was copied from.
+     */
+    public int rebuild() {
+        int written = 0;
+        for (String shard : shardMap.names()) {
+            written += shardRouting.onShard(shard, this::rebuildShard);
+        }
+        log.info("Balance projection rebuilt for {} wallets", written);
+        return written;
+    }
+
+    private int rebuildShard() {
+        int written = 0;
+        long afterId = 0;
+        List<WalletBalance> page;
+        while (!(page = walletRepository.findBalancesAfter(afterId, PageRequest.of(0, PAGE_SIZE))).isEmpty()) {
+            List<WalletBalance> batch = page;
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection strings = (StringRedisConnection) connection;
+                for (WalletBalance balance : batch) {
+                    strings.eval(APPLY_SCRIPT, ReturnType.INTEGER, 1, KEY_PREFIX + balance.walletId(),
+                            balance.balance().toPlainString(), String.valueOf(balance.version()));
+                }
+                return null;
+            });
+            written += batch.size();
+            afterId = batch.get(batch.size() - 1).walletId();
+        }
+        return written;
+    }
+
+    /**
+     * Compares the projection with MySQL wallet by wallet. Balances are compared by value, so
+     * 100 and 100.00 agree. Run it after a moved range has been cleaned up, or the copies left on
+     * the old shard are reported as mismatched.
+     */
+    public ConsistencyReport check() {
+        int checked = 0;
+        int missing = 0;
+        int mismatched = 0;
+        List<Long> samples = new ArrayList<>();
+        for (String shard : shardMap.names()) {
+            ConsistencyReport report = shardRouting.onShard(shard, () -> checkShard(samples));
+            checked += report.checked();
+            missing += report.missing();
+            mismatched += report.mismatched();
+        }
+        return new ConsistencyReport(checked, missing, mismatched, samples);
+    }
+
+    private ConsistencyReport checkShard(List<Long> samples) {
+        int checked = 0;
+        int missing = 0;
+        int mismatched = 0;
+        long afterId = 0;
+        List<WalletBalance> page;
+        while (!(page = walletRepository.findBalancesAfter(afterId, PageRequest.of(0, PAGE_SIZE))).isEmpty()) {
+            List<WalletBalance> batch = page;
+            List<Object> projected = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection strings = (StringRedisConnection) connection;
+                for (WalletBalance balance : batch) {
+                    strings.hGet(KEY_PREFIX + balance.walletId(), "balance");
+                }
+                return null;
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                WalletBalance expected = batch.get(i);
+                Object actual = projected.get(i);
+                checked++;
+                if (actual == null) {
+                    missing++;
+                } else if (new BigDecimal((String) actual).compareTo(expected.balance()) != 0) {
+                    mismatched++;
+                } else {
+                    continue;
+                }
+                if (samples.size() < MAX_REPORTED) {
+                    samples.add(expected.walletId());
+                }
+            }
+            afterId = batch.get(batch.size() - 1).walletId();
+        }
+        return new ConsistencyReport(checked, missing, mismatched, samples);
+    }
+
+    private void write(WalletBalance balance) {
+        try {
+            redisTemplate.execute(APPLY, List.of(KEY_PREFIX + balance.walletId()),
+                    balance.balance().toPlainString(), String.valueOf(balance.version()));
+        } catch (Exception e) {
+            // The next read of this wallet falls back to MySQL and repairs the entry
+            log.error("Balance projection write failed for wallet {}: {}", balance.walletId(), e.getMessage());
+            try {
+                redisTemplate.delete(KEY_PREFIX + balance.walletId());
+            } catch (Exception ignored) {
+                // Redis is unreachable; nothing more to do until it is back
+            }
+        }
+    }
+
+    public record ConsistencyReport(int checked, int missing, int mismatched, List<Long> sampleWalletIds) {
+        public boolean consistent() {
+            return missing == 0 && mismatched == 0;
+        }
+    }
+}
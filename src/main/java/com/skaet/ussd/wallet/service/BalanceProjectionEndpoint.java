@@ -0,0 +1,29 @@
+package com.skaet.ussd.wallet.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Operator access to the balance projection: GET checks it against MySQL, POST rebuilds it.
+ */
+@Component
+@Endpoint(id = "balanceprojection")
+@RequiredArgsConstructor
+public class BalanceProjectionEndpoint {
+    private final BalanceProjection balanceProjection;
+
+    @ReadOperation
+    public BalanceProjection.ConsistencyReport check() {
+        return balanceProjection.check();
+    }
+
+    @WriteOperation
+    public Map<String, Integer> rebuild() {
+        return Map.of("rebuilt", balanceProjection.rebuild());
+    }
+}
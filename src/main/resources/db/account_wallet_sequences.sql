@@ -0,0 +1,31 @@
+-- Migration for a database created while accounts and wallets still took AUTO_INCREMENT ids
+-- (MySQL 8). Run it once on the home database before the first start of this version with
+-- ddl-auto other than create or create-drop; it is safe to run again.
+--
+-- Both entities now take ids from Hibernate's table-emulated sequences, account_seq and
+-- wallet_seq, which hand out blocks of 50 below the stored value. A sequence table created by
+-- Hibernate starts at 1 and would reissue ids already in use, so each one is seeded above the
+-- highest existing id here, with the same margin the shard initializer keeps. When sharding is
+-- on, the initializer also raises every sequence above the ids in its shard's range on each
+-- start; existing rows must then all be on the home database, whose range starts at 0, and
+-- shards added later must start empty.
+--
+-- The id columns can keep their AUTO_INCREMENT attribute: Hibernate always supplies the id.
+
+CREATE TABLE IF NOT EXISTS account_seq (
+    next_val BIGINT
+) ENGINE = InnoDB;
+
+INSERT INTO account_seq (next_val)
+SELECT 1 FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM account_seq);
+
+UPDATE account_seq SET next_val = GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) + 100 FROM accounts));
+
+CREATE TABLE IF NOT EXISTS wallet_seq (
+    next_val BIGINT
+) ENGINE = InnoDB;
+
+INSERT INTO wallet_seq (next_val)
+SELECT 1 FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM wallet_seq);
+
+UPDATE wallet_seq SET next_val = GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) + 100 FROM wallets));
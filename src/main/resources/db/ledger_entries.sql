@@ -0,0 +1,77 @@
+-- Production schema for the ledger journal (MySQL 8).
+--
+-- Hibernate creates an unpartitioned table in development; this is the layout to deploy.
+-- Rows are append-only and read per wallet by time range, so the table is partitioned by
+-- month on created_at and old months can be archived by exchanging or dropping partitions.
+-- MySQL requires the partitioning column in every unique key, hence the composite primary key.
+-- With sharding, create it on every shard; each shard moves ledger_entry_seq and
+-- ledger_settlement_seq into its own id range at startup.
+
+CREATE TABLE IF NOT EXISTS ledger_entry_seq (
+    next_val BIGINT NOT NULL
+) ENGINE = InnoDB;
+
+INSERT INTO ledger_entry_seq (next_val)
+SELECT 1 FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM ledger_entry_seq);
+
+CREATE TABLE IF NOT EXISTS ledger_entries (
+    id            BIGINT         NOT NULL,
+    reference     VARCHAR(64)    NOT NULL,
+    wallet_id     BIGINT         NOT NULL,
+    phone_number  VARCHAR(255)   NOT NULL,
+    account       VARCHAR(16)    NOT NULL,
+    direction     VARCHAR(8)     NOT NULL,
+    kind          VARCHAR(16)    NOT NULL,
+    status        VARCHAR(16)    NOT NULL,
+    amount        DECIMAL(19, 2) NOT NULL,
+    balance_after DECIMAL(19, 2) NULL,
+    created_at    DATETIME(6)    NOT NULL,
+    PRIMARY KEY (id, created_at),
+    KEY idx_ledger_entries_wallet_created (wallet_id, created_at),
+    KEY idx_ledger_entries_reference (reference),
+    KEY idx_ledger_entries_status_id (status, id)
+) ENGINE = InnoDB
+PARTITION BY RANGE COLUMNS (created_at) (
+    PARTITION p2026_10 VALUES LESS THAN ('2026-11-01'),
+    PARTITION p2026_11 VALUES LESS THAN ('2026-12-01'),
+    PARTITION p2026_12 VALUES LESS THAN ('2027-01-01'),
+    PARTITION p_future VALUES LESS THAN (MAXVALUE)
+);
+
+-- The months listed are only the first ones. LedgerPartitionMaintenance splits the next
+-- ledger.partitions.months-ahead months off p_future once a day on every shard, which needs ALTER
+-- on this table. With ledger.partitions.enabled=false, split them by hand before each month
+-- starts, e.g.
+-- ALTER TABLE ledger_entries REORGANIZE PARTITION p_future INTO (
+--     PARTITION p2027_01 VALUES LESS THAN ('2027-02-01'),
+--     PARTITION p_future VALUES LESS THAN (MAXVALUE)
+-- );
+-- Rows written to p_future while a month is missing are moved into the new partition by the split.
+
+-- One row per closed transfer. The unique reference makes a second post (or a post after a
+-- failure) of the same transfer fail, rolling back its balance change.
+CREATE TABLE IF NOT EXISTS ledger_settlement_seq (
+    next_val BIGINT NOT NULL
+) ENGINE = InnoDB;
+
+INSERT INTO ledger_settlement_seq (next_val)
+SELECT 1 FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM ledger_settlement_seq);
+
+CREATE TABLE IF NOT EXISTS ledger_settlements (
+    id           BIGINT       NOT NULL,
+    reference    VARCHAR(64)  NOT NULL,
+    phone_number VARCHAR(255) NOT NULL,
+    status       VARCHAR(16)  NOT NULL,
+    settled_at   DATETIME(6)  NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_ledger_settlements_reference (reference)
+) ENGINE = InnoDB;
+
+-- Transfers closed before this table existed
+INSERT IGNORE INTO ledger_settlements (id, reference, phone_number, status, settled_at)
+SELECT MIN(id), reference, MIN(phone_number), MIN(status), MIN(created_at)
+FROM ledger_entries
+WHERE status <> 'PENDING' AND account = 'WALLET'
+GROUP BY reference;
+
+UPDATE ledger_settlement_seq SET next_val = GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) + 100 FROM ledger_settlements));
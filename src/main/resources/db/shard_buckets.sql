@@ -0,0 +1,15 @@
+-- Production schema for the shard map (MySQL 8), on the home database only.
+--
+-- One row per bucket of phone numbers: the shard it lives on and whether it is frozen while
+-- the resharding tool moves it. Every node reloads the table each
+-- datasource.sharding.refresh-interval-ms and refuses sharded work if it cannot for twice that.
+-- The first node to start with an empty table fills it from datasource.sharding.map; after that
+-- the table wins over the configuration, and ranges are moved with the reshard profile only.
+-- Every bucket must have a row: a node that finds one missing keeps refusing sharded work.
+
+CREATE TABLE IF NOT EXISTS shard_buckets (
+    bucket INT         NOT NULL,
+    shard  VARCHAR(64) NOT NULL,
+    frozen BIT(1)      NOT NULL,
+    PRIMARY KEY (bucket)
+) ENGINE = InnoDB;
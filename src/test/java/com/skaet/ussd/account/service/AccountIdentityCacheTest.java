@@ -0,0 +1,96 @@
+package com.skaet.ussd.account.service;
+
+import com.skaet.ussd.account.model.AccountIdentity;
+import com.skaet.ussd.account.repository.AccountRepository;
+import com.skaet.ussd.config.ReplicaReads;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AccountIdentityCacheTest {
+    private static final String PHONE = "08031234567";
+
+    private final AccountRepository accountRepository = mock(AccountRepository.class);
+    private final ReplicaReads replicaReads = mock(ReplicaReads.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private final AccountIdentityCache nodeA = cache();
+    private final AccountIdentityCache nodeB = cache();
+
+    @BeforeEach
+    void lookupsHitTheRepository() {
+        when(replicaReads.read(anyString(), any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(1)).get());
+        when(accountRepository.findIdentityByPhoneNumber(PHONE))
+                .thenReturn(Optional.of(new AccountIdentity(1L, 2L, PHONE, "old-hash", "Ada", "Obi")));
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void invalidationOnOneNodeDropsTheEntryOnTheOthers() {
+        nodeA.get(PHONE);
+        nodeB.get(PHONE);
+
+        nodeA.invalidate(PHONE);
+        nodeB.onMessage(published(), null);
+        nodeB.get(PHONE);
+
+        verify(accountRepository, times(3)).findIdentityByPhoneNumber(PHONE);
+    }
+
+    @Test
+    void ignoresItsOwnInvalidation() {
+        nodeA.invalidate(PHONE);
+        nodeA.get(PHONE);
+
+        nodeA.onMessage(published(), null);
+        nodeA.get(PHONE);
+
+        verify(accountRepository, times(1)).findIdentityByPhoneNumber(PHONE);
+    }
+
+    @Test
+    void publishesOnlyAfterTheTransactionCommits() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        nodeA.invalidate(PHONE);
+        verify(redisTemplate, never()).convertAndSend(anyString(), anyString());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        verify(redisTemplate).convertAndSend(eq(AccountIdentityCache.INVALIDATION_CHANNEL), anyString());
+    }
+
+    private DefaultMessage published() {
+        ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq(AccountIdentityCache.INVALIDATION_CHANNEL), message.capture());
+        return new DefaultMessage(AccountIdentityCache.INVALIDATION_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                message.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private AccountIdentityCache cache() {
+        return new AccountIdentityCache(accountRepository, replicaReads, redisTemplate, new SimpleMeterRegistry(), true, 100, 600);
+    }
+}
@@ -0,0 +1,65 @@
+package com.skaet.ussd.config;
+
+import com.skaet.ussd.shard.ShardRoutingDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ReplicaReadsTest {
+    private static final String PHONE = "08031234567";
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ReplicaReads replicaReads = replicaReads();
+
+    @Test
+    void readsAnUnpinnedNumberOnAReplicaWithoutAskingRedis() {
+        assertThat(replicaReads.read(PHONE, () -> "row")).isEqualTo("row");
+
+        verify(transactionManager).getTransaction(any());
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void readsANumberPinnedOnAnotherNodeOnThePrimary() {
+        CacheInvalidation otherNode = new CacheInvalidation(ReplicaReads.PIN_CHANNEL);
+        replicaReads.onMessage(new DefaultMessage(otherNode.channelBytes(), otherNode.messageBytes(PHONE)), null);
+
+        replicaReads.read(PHONE, () -> "row");
+
+        verify(transactionManager, never()).getTransaction(any());
+        assertThat(meterRegistry.counter("db.replica.fallback", "reason", "pinned").count()).isEqualTo(1);
+    }
+
+    @Test
+    void publishesAPinAndKeepsItLocallyWhenRedisIsDown() {
+        doThrow(new IllegalStateException("down")).when(redisTemplate).convertAndSend(anyString(), anyString());
+
+        replicaReads.pinToPrimary(PHONE);
+        replicaReads.read(PHONE, () -> "row");
+
+        verify(redisTemplate, times(1)).convertAndSend(anyString(), anyString());
+        verify(transactionManager, never()).getTransaction(any());
+        assertThat(meterRegistry.counter("db.replica.pin.unpublished").count()).isEqualTo(1);
+    }
+
+    private ReplicaReads replicaReads() {
+        ShardRoutingDataSource routingDataSource = mock(ShardRoutingDataSource.class);
+        when(routingDataSource.hasReplicas()).thenReturn(true);
+        return new ReplicaReads(redisTemplate, transactionManager, routingDataSource, meterRegistry, 5000);
+    }
+}
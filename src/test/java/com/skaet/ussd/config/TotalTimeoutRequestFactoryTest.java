@@ -0,0 +1,99 @@
+package com.skaet.ussd.config;
+
+import com.skaet.ussd.util.HopDeadline;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TotalTimeoutRequestFactoryTest {
+    private HttpServer server;
+    private CloseableHttpClient httpClient;
+    private String url;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Headers at once, then one body byte every 100ms for 3s: never idle long enough for a read timeout
+        server.createContext("/slow", exchange -> {
+            exchange.sendResponseHeaders(200, 30);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int i = 0; i < 30; i++) {
+                    body.write('x');
+                    body.flush();
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException | IOException e) {
+                // the client went away
+            }
+        });
+        server.createContext("/fast", exchange -> {
+            exchange.sendResponseHeaders(200, 2);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write("ok".getBytes());
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+        httpClient = HttpClients.custom()
+                .setDefaultRequestConfig(RequestConfig.custom().setResponseTimeout(Timeout.ofSeconds(1)).build())
+                .build();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    void abortsAnExchangeThatOutlivesTheTotalTimeoutThoughBytesKeepArriving() {
+        RestTemplate restTemplate = restTemplate(Duration.ofMillis(500));
+
+        long started = System.nanoTime();
+        assertThatThrownBy(() -> restTemplate.getForObject(url + "/slow", String.class))
+                .isInstanceOf(RestClientException.class);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofMillis(1000));
+    }
+
+    @Test
+    void cutsTheLimitToTheHopDeadline() {
+        RestTemplate restTemplate = restTemplate(Duration.ofSeconds(10));
+
+        long started = System.nanoTime();
+        try (HopDeadline.Scope ignored = HopDeadline.start(Duration.ofMillis(300))) {
+            assertThatThrownBy(() -> restTemplate.getForObject(url + "/slow", String.class))
+                    .isInstanceOf(RestClientException.class);
+        }
+
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofMillis(1000));
+    }
+
+    @Test
+    void leavesAnExchangeThatFinishesInTimeAlone() throws InterruptedException {
+        RestTemplate restTemplate = restTemplate(Duration.ofMillis(200));
+
+        assertThat(restTemplate.getForObject(url + "/fast", String.class)).isEqualTo("ok");
+        Thread.sleep(300);
+        assertThat(restTemplate.getForObject(url + "/fast", String.class)).isEqualTo("ok");
+    }
+
+    private RestTemplate restTemplate(Duration totalTimeout) {
+        return new RestTemplate(new TotalTimeoutRequestFactory(httpClient, Duration.ofSeconds(2), totalTimeout));
+    }
+}
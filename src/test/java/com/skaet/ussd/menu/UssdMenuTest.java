@@ -0,0 +1,105 @@
+package com.skaet.ussd.menu;
+
+import com.skaet.ussd.account.service.AccountService;
+import com.skaet.ussd.currency.CurrencyService;
+import com.skaet.ussd.session.UssdSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UssdMenuTest {
+    private final AccountService accountService = mock(AccountService.class);
+    private final CurrencyService currencyService = mock(CurrencyService.class);
+    private final UssdMenu menu = new UssdMenuDefinition(accountService, currencyService).ussdMenu();
+    private UssdSession session;
+
+    @BeforeEach
+    void startSession() {
+        session = new UssdSession();
+        session.setPhoneNumber("08031234567");
+        menu.start(session);
+    }
+
+    @Test
+    void createsAnAccountFromTheCumulativeText() {
+        when(accountService.createAccount(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn("END Account created successfully");
+
+        assertThat(menu.advance(session, "1")).isEqualTo("CON Enter your first name:");
+        assertThat(menu.advance(session, "1*John")).isEqualTo("CON Enter your last name:");
+        assertThat(menu.advance(session, "1*John*Doe")).isEqualTo("CON Create your 4-digit PIN:");
+        assertThat(menu.advance(session, "1*John*Doe*1234")).isEqualTo("END Account created successfully");
+
+        verify(accountService).createAccount("08031234567", "John", "Doe", "1234");
+    }
+
+    @Test
+    void resentHopRepeatsThePromptWithoutAdvancing() {
+        menu.advance(session, "1");
+        menu.advance(session, "1*John");
+
+        assertThat(menu.advance(session, "1*John")).isEqualTo("CON Enter your last name:");
+        assertThat(session.getState()).isEqualTo(MenuState.ACCOUNT_LAST_NAME);
+        assertThat(session.getFirstName()).isEqualTo("John");
+        assertThat(menu.advance(session, "1*John*Doe")).isEqualTo("CON Create your 4-digit PIN:");
+        assertThat(session.getLastName()).isEqualTo("Doe");
+    }
+
+    @Test
+    void resentActionHopIsNotAppliedTwice() {
+        when(accountService.handleDeposit(anyString(), anyString())).thenReturn("END Deposit initiated");
+        menu.advance(session, "3");
+        menu.advance(session, "3*1");
+
+        menu.advance(session, "3*1*500");
+        menu.advance(session, "3*1*500");
+
+        verify(accountService, times(1)).handleDeposit("08031234567", "500.0");
+    }
+
+    @Test
+    void optionsLeadToTheirStateAndBackToMain() {
+        assertThat(menu.advance(session, "3")).startsWith("CON Select deposit method:");
+        assertThat(menu.advance(session, "3*0")).startsWith("CON Welcome to SKAET USSD Banking");
+        assertThat(session.getState()).isEqualTo(MenuState.MAIN);
+        assertThat(menu.advance(session, "3*0*5")).startsWith("CON Select base currency:");
+        assertThat(menu.advance(session, "3*0*5*2")).startsWith("CON Select target currency:");
+        assertThat(session.getBaseCurrency()).isEqualTo("USD");
+    }
+
+    @Test
+    void rejectsInputsThatAreNotOptions() {
+        assertThat(menu.advance(session, "9")).isEqualTo("END Invalid option selected");
+        startSession();
+        assertThat(menu.advance(session, "12")).isEqualTo("END Invalid option selected");
+        startSession();
+        menu.advance(session, "5");
+        assertThat(menu.advance(session, "5*7")).isEqualTo("END Invalid currency selected");
+    }
+
+    @Test
+    void exitEndsTheSession() {
+        assertThat(menu.advance(session, "6")).isEqualTo("END Thank you for using our service");
+    }
+
+    @Test
+    void countsInputs() {
+        assertThat(UssdMenu.inputCount("1")).isEqualTo(1);
+        assertThat(UssdMenu.inputCount("1*John*Doe*1234")).isEqualTo(4);
+        assertThat(UssdMenu.lastInput("1*John*Doe*1234")).isEqualTo("1234");
+    }
+
+    @Test
+    void graphMustDefineEveryState() {
+        MenuGraph graph = new MenuGraph().options(MenuState.MAIN, "CON Main").on('1', MenuState.BALANCE_PIN).and();
+
+        assertThatThrownBy(graph::compile).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,226 @@
+package com.skaet.ussd.payment.gateway;
+
+import com.skaet.ussd.config.OffHopExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PaymentGatewayRouterTest {
+    private static final BigDecimal AMOUNT = new BigDecimal("100");
+    private static final int MIN_CALLS = 2;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OffHopExecutor offHopExecutor = offHopExecutor();
+
+    @Test
+    void bestSendsEverythingToTheFastestHealthyGateway() {
+        FakeGateway slow = new FakeGateway("slow", 30);
+        FakeGateway fast = new FakeGateway("fast", 0);
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.BEST, slow, fast);
+        warmUp(router, slow, fast);
+
+        withdraw(router, 20);
+
+        assertThat(fast.calls).hasValue(20);
+        assertThat(slow.calls).hasValue(0);
+    }
+
+    @Test
+    void weightedKeepsSomeTrafficOnTheSlowerGateway() {
+        FakeGateway slow = new FakeGateway("slow", 60);
+        FakeGateway fast = new FakeGateway("fast", 0);
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.WEIGHTED, slow, fast);
+        warmUp(router, slow, fast);
+
+        withdraw(router, 40);
+
+        assertThat(slow.calls.get()).isGreaterThan(5);
+        assertThat(fast.calls.get()).isGreaterThan(5);
+    }
+
+    @Test
+    void dropsAGatewayBelowTheSuccessRateOnceItHasEnoughCalls() {
+        FakeGateway flaky = new FakeGateway("flaky", 0);
+        flaky.result = PaymentGateway.FAILED;
+        FakeGateway steady = new FakeGateway("steady", 20);
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.BEST, flaky, steady);
+
+        withdraw(router, 10);
+
+        // Too few calls to judge at first, so it keeps being tried until it has MIN_CALLS
+        assertThat(flaky.calls).hasValue(MIN_CALLS);
+        assertThat(steady.calls).hasValue(10 - MIN_CALLS);
+    }
+
+    @Test
+    void movesOnWhenAGatewayDoesNotAttemptTheCall() {
+        FakeGateway full = new FakeGateway("full", 0);
+        full.result = PaymentGateway.UNAVAILABLE;
+        FakeGateway down = new FakeGateway("down", 0);
+        down.available = false;
+        FakeGateway spare = new FakeGateway("spare", 0);
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.BEST, full, down, spare);
+
+        assertThat(router.initiateDeposit("08031234567", AMOUNT)).startsWith("spare-");
+        assertThat(full.calls).hasValue(1);
+        assertThat(down.calls).hasValue(0);
+        assertThat(meterRegistry.find("payment.router.routed").tag("gateway", "full").counter()).isNull();
+    }
+
+    @Test
+    void answersUnavailableWhenNoGatewayAttemptsTheCall() {
+        FakeGateway full = new FakeGateway("full", 0);
+        full.result = PaymentGateway.UNAVAILABLE;
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.BEST, full);
+
+        assertThat(router.initiateDeposit("08031234567", AMOUNT)).isEqualTo(PaymentGateway.UNAVAILABLE);
+    }
+
+    @Test
+    void sendsCallsAboutATransferToTheGatewayThatIssuedItsReference() {
+        FakeGateway first = new FakeGateway("first", 0);
+        FakeGateway second = new FakeGateway("second", 0);
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.BEST, first, second);
+
+        assertThat(router.initiateDeposit("08031234567", AMOUNT, "second-1")).isEqualTo("second-1");
+        assertThat(router.verifyTransaction("second-1").status()).isEqualTo(PaymentGateway.SUCCESSFUL);
+
+        assertThat(second.calls).hasValue(1);
+        assertThat(second.verifications).hasValue(1);
+        assertThat(first.calls).hasValue(0);
+        assertThat(first.verifications).hasValue(0);
+        assertThat(router.gatewayFor("second-1")).isSameAs(second);
+    }
+
+    @Test
+    void refusesAReferenceNoGatewayIssued() {
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.BEST, new FakeGateway("only", 0));
+
+        assertThat(router.owns("other-1")).isFalse();
+        assertThat(router.initiateDeposit("08031234567", AMOUNT, "other-1")).isEqualTo(PaymentGateway.FAILED);
+        assertThat(router.verifyTransaction("other-1")).isNull();
+    }
+
+    @Test
+    void hedgesASlowVerificationButNeverADepositOrWithdrawal() {
+        FakeGateway slow = new FakeGateway("slow", 100);
+        PaymentGatewayRouter router = router(PaymentGatewayRouter.Strategy.BEST, slow);
+
+        router.initiateDeposit("08031234567", AMOUNT);
+        withdraw(router, 1);
+        assertThat(slow.calls).hasValue(2);
+        assertThat(meterRegistry.find("payment.router.hedged").counter()).isNull();
+
+        assertThat(router.verifyTransaction("slow-1").status()).isEqualTo(PaymentGateway.SUCCESSFUL);
+        assertThat(slow.verifications).hasValue(2);
+        assertThat(meterRegistry.counter("payment.router.hedged", "gateway", "slow").count()).isEqualTo(1);
+    }
+
+    private PaymentGatewayRouter router(PaymentGatewayRouter.Strategy strategy, PaymentGateway... gateways) {
+        return new PaymentGatewayRouter(List.of(gateways), offHopExecutor, meterRegistry, strategy,
+                100, 300, MIN_CALLS, 0.8, true, 10);
+    }
+
+    /**
+     * Routes calls until every gateway has enough to be judged (with no figures yet a gateway
+     * ranks as fastest, so each gets its turn), then starts their counts again.
+     */
+    private static void warmUp(PaymentGatewayRouter router, FakeGateway... gateways) {
+        for (int i = 0; i < 100 && Arrays.stream(gateways).anyMatch(g -> g.calls.get() < MIN_CALLS); i++) {
+            withdraw(router, 1);
+        }
+        for (FakeGateway gateway : gateways) {
+            assertThat(gateway.calls.getAndSet(0)).isGreaterThanOrEqualTo(MIN_CALLS);
+        }
+    }
+
+    private static void withdraw(PaymentGatewayRouter router, int times) {
+        for (int i = 0; i < times; i++) {
+            router.initiateWithdrawal("08031234567", AMOUNT, "044", "0123456789");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static OffHopExecutor offHopExecutor() {
+        OffHopExecutor executor = mock(OffHopExecutor.class);
+        when(executor.submit(any())).thenAnswer(i -> CompletableFuture.supplyAsync((Supplier<Object>) i.getArgument(0)));
+        return executor;
+    }
+
+    private static final class FakeGateway implements PaymentGateway {
+        private final String name;
+        private final long latencyMs;
+        private final AtomicInteger references = new AtomicInteger();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger verifications = new AtomicInteger();
+        private volatile String result;
+        private volatile boolean available = true;
+
+        FakeGateway(String name, long latencyMs) {
+            this.name = name;
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public String initiateDeposit(String phoneNumber, BigDecimal amount, String reference) {
+            return call(reference);
+        }
+
+        @Override
+        public String newReference() {
+            return name + "-" + references.incrementAndGet();
+        }
+
+        @Override
+        public boolean owns(String reference) {
+            return reference.startsWith(name + "-");
+        }
+
+        @Override
+        public String initiateWithdrawal(String phoneNumber, BigDecimal amount, String bankCode, String accountNumber) {
+            return call(newReference());
+        }
+
+        @Override
+        public VerifiedTransaction verifyTransaction(String reference) {
+            verifications.incrementAndGet();
+            pause();
+            return new VerifiedTransaction(SUCCESSFUL, AMOUNT, "NGN");
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return available;
+        }
+
+        @Override
+        public String getGatewayName() {
+            return name;
+        }
+
+        private String call(String reference) {
+            calls.incrementAndGet();
+            pause();
+            return result != null ? result : reference;
+        }
+
+        private void pause() {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
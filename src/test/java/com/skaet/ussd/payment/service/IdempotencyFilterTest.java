@@ -0,0 +1,43 @@
+package com.skaet.ussd.payment.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyFilterTest {
+
+    @Test
+    void containsEveryKeyPut() {
+        IdempotencyFilter filter = new IdempotencyFilter(1000, 0.01);
+        IntStream.range(0, 1000).forEach(i -> filter.put("charge.completed:TX-" + i));
+
+        assertThat(IntStream.range(0, 1000)).allMatch(i -> filter.mightContain("charge.completed:TX-" + i));
+    }
+
+    @Test
+    void keepsFalsePositivesNearTheConfiguredRate() {
+        IdempotencyFilter filter = new IdempotencyFilter(1000, 0.01);
+        IntStream.range(0, 1000).forEach(i -> filter.put("charge.completed:TX-" + i));
+
+        long falsePositives = IntStream.range(0, 10_000)
+                .filter(i -> filter.mightContain("transfer.completed:TR-" + i))
+                .count();
+        assertThat(falsePositives).isLessThan(300);
+    }
+
+    @Test
+    void keepsThePreviousGenerationAndDropsTheOneBefore() {
+        IdempotencyFilter filter = new IdempotencyFilter(10, 0.01);
+        IntStream.range(0, 10).forEach(i -> filter.put("old:" + i));
+        IntStream.range(0, 9).forEach(i -> filter.put("recent:" + i));
+
+        assertThat(IntStream.range(0, 10)).allMatch(i -> filter.mightContain("old:" + i));
+
+        // The tenth key fills the current generation, which then replaces the previous one
+        filter.put("recent:9");
+        assertThat(IntStream.range(0, 10)).allMatch(i -> filter.mightContain("recent:" + i));
+        assertThat(IntStream.range(0, 10).filter(i -> filter.mightContain("old:" + i)).count()).isLessThan(3);
+    }
+}
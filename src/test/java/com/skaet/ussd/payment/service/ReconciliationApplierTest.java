@@ -0,0 +1,91 @@
+package com.skaet.ussd.payment.service;
+
+import com.skaet.ussd.account.service.AccountService;
+import com.skaet.ussd.ledger.entity.EntryKind;
+import com.skaet.ussd.ledger.entity.LedgerEntry;
+import com.skaet.ussd.ledger.service.LedgerService;
+import com.skaet.ussd.payment.gateway.PaymentGateway;
+import com.skaet.ussd.payment.gateway.PaymentGateway.VerifiedTransaction;
+import com.skaet.ussd.payment.service.ReconciliationApplier.Result;
+import com.skaet.ussd.payment.service.ReconciliationApplier.Verification;
+import com.skaet.ussd.wallet.model.WalletBalance;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReconciliationApplierTest {
+    private static final String PHONE = "08031234567";
+
+    private final AccountService accountService = mock(AccountService.class);
+    private final LedgerService ledgerService = mock(LedgerService.class);
+    private final ReconciliationApplier applier = new ReconciliationApplier(accountService, ledgerService);
+
+    @Test
+    void creditsTheVerifiedAmountWhenItMatchesTheLedger() {
+        LedgerEntry entry = deposit("DEP-1", "500.00");
+        when(ledgerService.lockForSettlement("DEP-1")).thenReturn(true);
+        when(accountService.creditAccount(PHONE, entry.getAmount(), "DEP-1")).thenReturn(Optional.of(mock(WalletBalance.class)));
+
+        Result result = applier.apply(new Verification(entry, successful("500", "NGN")));
+
+        assertThat(result).isEqualTo(Result.SETTLED);
+        verify(ledgerService, never()).recordMismatch(anyString(), any(), anyString(), any(), any());
+    }
+
+    @Test
+    void holdsAnotherAmountAsAMismatch() {
+        LedgerEntry entry = deposit("DEP-2", "500.00");
+        when(ledgerService.lockForSettlement("DEP-2")).thenReturn(true);
+
+        Result result = applier.apply(new Verification(entry, successful("50000", "NGN")));
+
+        assertThat(result).isEqualTo(Result.MISMATCH);
+        verify(ledgerService).recordMismatch("DEP-2", 1L, PHONE, EntryKind.DEPOSIT, entry.getAmount());
+        verify(accountService, never()).creditAccount(anyString(), any(), anyString());
+    }
+
+    @Test
+    void holdsAnotherOrMissingCurrencyAsAMismatch() {
+        LedgerEntry usd = deposit("DEP-3", "500.00");
+        LedgerEntry unreported = deposit("DEP-4", "500.00");
+        when(ledgerService.lockForSettlement(anyString())).thenReturn(true);
+
+        assertThat(applier.apply(new Verification(usd, successful("500", "USD")))).isEqualTo(Result.MISMATCH);
+        assertThat(applier.apply(new Verification(unreported, successful(null, null)))).isEqualTo(Result.MISMATCH);
+        verify(accountService, never()).creditAccount(anyString(), any(), anyString());
+    }
+
+    @Test
+    void closesAFailedTransferWhateverAmountIsReported() {
+        LedgerEntry entry = deposit("DEP-5", "500.00");
+        when(ledgerService.lockForSettlement("DEP-5")).thenReturn(true);
+
+        Result result = applier.apply(new Verification(entry, new VerifiedTransaction(PaymentGateway.FAILED, null, null)));
+
+        assertThat(result).isEqualTo(Result.FAILED);
+        verify(ledgerService).recordFailed("DEP-5", 1L, PHONE, EntryKind.DEPOSIT, entry.getAmount());
+    }
+
+    private static VerifiedTransaction successful(String amount, String currency) {
+        return new VerifiedTransaction(PaymentGateway.SUCCESSFUL, amount == null ? null : new BigDecimal(amount), currency);
+    }
+
+    private static LedgerEntry deposit(String reference, String amount) {
+        LedgerEntry entry = new LedgerEntry();
+        entry.setReference(reference);
+        entry.setWalletId(1L);
+        entry.setPhoneNumber(PHONE);
+        entry.setKind(EntryKind.DEPOSIT);
+        entry.setAmount(new BigDecimal(amount));
+        return entry;
+    }
+}
@@ -0,0 +1,126 @@
+package com.skaet.ussd.payment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skaet.ussd.account.service.AccountService;
+import com.skaet.ussd.ledger.entity.EntryKind;
+import com.skaet.ussd.ledger.entity.LedgerEntry;
+import com.skaet.ussd.ledger.service.LedgerService;
+import com.skaet.ussd.payment.entity.WebhookEvent;
+import com.skaet.ussd.payment.entity.WebhookEventStatus;
+import com.skaet.ussd.payment.repository.WebhookEventRepository;
+import com.skaet.ussd.shard.ShardRouting;
+import com.skaet.ussd.wallet.model.WalletBalance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WebhookEventProcessorTest {
+    private static final String PHONE = "08031234567";
+
+    private final WebhookEventRepository webhookEventRepository = mock(WebhookEventRepository.class);
+    private final AccountService accountService = mock(AccountService.class);
+    private final LedgerService ledgerService = mock(LedgerService.class);
+    private final ShardRouting shardRouting = mock(ShardRouting.class);
+    private final WebhookEventProcessor processor = new WebhookEventProcessor(webhookEventRepository, accountService,
+            ledgerService, shardRouting, new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry());
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void runWorkInPlace() {
+        when(shardRouting.inTransaction(anyString(), any())).thenAnswer(i -> ((Supplier<Object>) i.getArgument(1)).get());
+        when(webhookEventRepository.claim(eq(1L), eq(WebhookEventStatus.PROCESSED), any())).thenReturn(1);
+    }
+
+    @Test
+    void creditsTheRecordedAmountAndSubscriber() throws Exception {
+        LedgerEntry entry = leg("DEP-1", EntryKind.DEPOSIT, "500.00");
+        when(ledgerService.lockForSettlement("DEP-1")).thenReturn(true);
+        when(accountService.creditAccount(PHONE, entry.getAmount(), "DEP-1")).thenReturn(Optional.of(mock(WalletBalance.class)));
+
+        process("charge.completed", "DEP-1", "2348031234567", "500", "NGN");
+
+        verify(accountService).creditAccount(PHONE, entry.getAmount(), "DEP-1");
+        verify(webhookEventRepository, never()).updateStatus(eq(1L), any(), anyString());
+    }
+
+    @Test
+    void movesNoMoneyForAnUnknownReference() throws Exception {
+        when(ledgerService.pendingWalletLeg("LT-TRF-1")).thenReturn(Optional.empty());
+
+        process("transfer.completed", "LT-TRF-1", PHONE, "100", "NGN");
+
+        verify(ledgerService, never()).lockForSettlement(anyString());
+        verify(accountService, never()).debitAccount(anyString(), any(), anyString());
+        verify(webhookEventRepository).updateStatus(1L, WebhookEventStatus.FAILED, "unknown reference");
+    }
+
+    @Test
+    void holdsAnotherAmountOrCurrencyAsAMismatch() throws Exception {
+        LedgerEntry entry = leg("DEP-2", EntryKind.DEPOSIT, "500.00");
+        when(ledgerService.lockForSettlement("DEP-2")).thenReturn(true);
+
+        process("charge.completed", "DEP-2", PHONE, "50000", "NGN");
+
+        verify(ledgerService).recordMismatch("DEP-2", 1L, PHONE, EntryKind.DEPOSIT, entry.getAmount());
+        verify(accountService, never()).creditAccount(anyString(), any(), anyString());
+        verify(webhookEventRepository).updateStatus(1L, WebhookEventStatus.FAILED, "differs from the pending transfer");
+    }
+
+    @Test
+    void holdsAnEventOfTheWrongKindAsAMismatch() throws Exception {
+        LedgerEntry entry = leg("WDR-1", EntryKind.WITHDRAWAL, "100.00");
+        when(ledgerService.lockForSettlement("WDR-1")).thenReturn(true);
+
+        process("charge.completed", "WDR-1", PHONE, "100", "NGN");
+
+        verify(ledgerService).recordMismatch("WDR-1", 1L, PHONE, EntryKind.WITHDRAWAL, entry.getAmount());
+        verify(accountService, never()).creditAccount(anyString(), any(), anyString());
+    }
+
+    @Test
+    void leavesASettledReferenceAlone() throws Exception {
+        leg("DEP-3", EntryKind.DEPOSIT, "500.00");
+        when(ledgerService.lockForSettlement("DEP-3")).thenReturn(false);
+
+        process("charge.completed", "DEP-3", PHONE, "500", "NGN");
+
+        verify(accountService, never()).creditAccount(anyString(), any(), anyString());
+        verify(webhookEventRepository).updateStatus(1L, WebhookEventStatus.IGNORED, "already settled");
+    }
+
+    private void process(String event, String reference, String phone, String amount, String currency) throws Exception {
+        WebhookEvent stored = new WebhookEvent();
+        stored.setId(1L);
+        stored.setEvent(event);
+        stored.setReceivedAt(Instant.now());
+        stored.setPayload("""
+                {"event":"%s","data":{"tx_ref":"%s","amount":%s,"currency":"%s","status":"successful",
+                "payment_type":"ussd","customer":{"phone_number":"%s"}}}""".formatted(event, reference, amount, currency, phone));
+        when(webhookEventRepository.findById(1L)).thenReturn(Optional.of(stored));
+        processor.process(1L);
+    }
+
+    private LedgerEntry leg(String reference, EntryKind kind, String amount) {
+        LedgerEntry entry = new LedgerEntry();
+        entry.setReference(reference);
+        entry.setWalletId(1L);
+        entry.setPhoneNumber(PHONE);
+        entry.setKind(kind);
+        entry.setAmount(new BigDecimal(amount));
+        when(ledgerService.pendingWalletLeg(reference)).thenReturn(Optional.of(entry));
+        return entry;
+    }
+}
@@ -0,0 +1,102 @@
+package com.skaet.ussd.payment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skaet.ussd.config.WorkerThreads;
+import com.skaet.ussd.payment.entity.WebhookEvent;
+import com.skaet.ussd.payment.repository.WebhookEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WebhookIngestionServiceTest {
+    private static final String HASH = "test-secret-hash";
+    private static final String PAYLOAD = """
+            {"event":"charge.completed","data":{"id":1,"tx_ref":"DEP-1","flw_ref":"FLW-1","amount":500,"currency":"NGN","status":"successful"}}""";
+
+    private final WebhookEventRepository repository = mock(WebhookEventRepository.class);
+    private final WebhookEventProcessor processor = mock(WebhookEventProcessor.class);
+    private final IdempotencyFilter filter = new IdempotencyFilter(1000, 0.01);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final WebhookIngestionService service = service(HASH);
+
+    @Test
+    void refusesToStartWithoutASecretHash() {
+        assertThatThrownBy(() -> service(" ")).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("flutterwave.secretHash");
+    }
+
+    @Test
+    void ignoresAnInvalidSignature() {
+        service.ingest(PAYLOAD, "MY_FLUTTERWAVE_SECRET_HASH");
+        service.ingest(PAYLOAD, null);
+
+        verify(repository, never()).save(any());
+        assertThat(received("invalid_signature")).isEqualTo(2);
+    }
+
+    @Test
+    void storesANewEventWithoutLookingItUp() throws Exception {
+        whenSaved(7L);
+
+        service.ingest(PAYLOAD, HASH);
+
+        verify(repository, never()).existsByIdempotencyKey(anyString());
+        verify(processor).process(7L);
+        assertThat(filter.mightContain("charge.completed:DEP-1")).isTrue();
+        assertThat(received("stored")).isEqualTo(1);
+    }
+
+    @Test
+    void ignoresARedeliveredEvent() throws Exception {
+        whenSaved(7L);
+        service.ingest(PAYLOAD, HASH);
+        when(repository.existsByIdempotencyKey("charge.completed:DEP-1")).thenReturn(true);
+
+        service.ingest(PAYLOAD, HASH);
+
+        verify(repository, times(1)).save(any());
+        verify(processor, times(1)).process(anyLong());
+        assertThat(received("duplicate")).isEqualTo(1);
+    }
+
+    @Test
+    void treatsALostInsertRaceAsADuplicate() throws Exception {
+        // Another node stored the same delivery between our lookup and our insert
+        when(repository.save(any())).thenThrow(new DataIntegrityViolationException("uk_webhook_idempotency_key"));
+
+        service.ingest(PAYLOAD, HASH);
+
+        verify(processor, never()).process(anyLong());
+        assertThat(filter.mightContain("charge.completed:DEP-1")).isTrue();
+        assertThat(received("duplicate")).isEqualTo(1);
+    }
+
+    private void whenSaved(Long id) {
+        when(repository.save(any())).thenAnswer(invocation -> {
+            WebhookEvent event = invocation.getArgument(0);
+            event.setId(id);
+            return event;
+        });
+    }
+
+    private double received(String result) {
+        return meterRegistry.counter("webhook.received", "result", result).count();
+    }
+
+    private WebhookIngestionService service(String secretHash) {
+        return new WebhookIngestionService(repository, processor, filter, new ObjectMapper().findAndRegisterModules(),
+                new WorkerThreads(new MockEnvironment()), meterRegistry, secretHash, false, 1, 10, 5);
+    }
+}
@@ -0,0 +1,46 @@
+package com.skaet.ussd.session;
+
+import com.skaet.ussd.menu.MenuState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionNearCacheTest {
+    private final SessionNearCache nearCache = new SessionNearCache(new SimpleMeterRegistry(), true, 100);
+
+    @Test
+    void keepsTheSavedStateWhenTheCallerChangesItsSession() {
+        UssdSession session = session("ATUid_1");
+        nearCache.put(session);
+
+        session.setState(MenuState.DEPOSIT_AMOUNT);
+        session.setAmount(new BigDecimal("500"));
+
+        UssdSession cached = nearCache.get("ATUid_1");
+        assertThat(cached.getState()).isEqualTo(MenuState.MAIN);
+        assertThat(cached.getAmount()).isNull();
+    }
+
+    @Test
+    void handsEveryReaderItsOwnCopy() {
+        nearCache.put(session("ATUid_2"));
+
+        UssdSession first = nearCache.get("ATUid_2");
+        UssdSession second = nearCache.get("ATUid_2");
+        first.setState(MenuState.DEPOSIT_AMOUNT);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getState()).isEqualTo(MenuState.MAIN);
+        assertThat(nearCache.get("ATUid_2")).isEqualTo(session("ATUid_2"));
+    }
+
+    private static UssdSession session(String sessionId) {
+        UssdSession session = new UssdSession();
+        session.setSessionId(sessionId);
+        session.setPhoneNumber("08031234567");
+        return session;
+    }
+}
@@ -0,0 +1,69 @@
+package com.skaet.ussd.session;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SessionWriterTest {
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, UssdSession> template = mock(RedisTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SessionWriter writer = new SessionWriter(template, mock(SessionNearCache.class), meterRegistry, true, 100);
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        writer.shutdown();
+    }
+
+    @Test
+    void retriesAFailedPipelineAndKeepsTheWritePendingMeanwhile() throws InterruptedException {
+        when(template.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("down"))
+                .thenReturn(List.of());
+
+        writer.save("ussd:session:ATUid_1", session("ATUid_1"));
+
+        assertThat(writer.pending("ATUid_1")).isNotNull();
+        awaitFlushed("ATUid_1");
+        verify(template, times(2)).executePipelined(any(RedisCallback.class));
+        assertThat(meterRegistry.counter("ussd.session.write.failed").count()).isZero();
+    }
+
+    @Test
+    void countsWritesDroppedAfterEveryAttemptFailed() throws InterruptedException {
+        when(template.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        writer.save("ussd:session:ATUid_2", session("ATUid_2"));
+
+        awaitFlushed("ATUid_2");
+        verify(template, times(3)).executePipelined(any(RedisCallback.class));
+        assertThat(meterRegistry.counter("ussd.session.write.failed").count()).isEqualTo(1);
+    }
+
+    private void awaitFlushed(String sessionId) throws InterruptedException {
+        for (int i = 0; i < 100 && writer.pending(sessionId) != null; i++) {
+            Thread.sleep(20);
+        }
+        assertThat(writer.pending(sessionId)).isNull();
+    }
+
+    private static UssdSession session(String sessionId) {
+        UssdSession session = new UssdSession();
+        session.setSessionId(sessionId);
+        session.setPhoneNumber("08031234567");
+        return session;
+    }
+}
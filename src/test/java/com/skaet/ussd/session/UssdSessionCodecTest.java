@@ -0,0 +1,83 @@
+package com.skaet.ussd.session;
+
+import com.skaet.ussd.menu.MenuState;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UssdSessionCodecTest {
+    private final UssdSessionCodec codec = new UssdSessionCodec();
+
+    @Test
+    void roundTripsEveryField() {
+        UssdSession session = new UssdSession();
+        session.setSessionId("ATUid_1");
+        session.setPhoneNumber("08031234567");
+        session.setState(MenuState.WITHDRAW_PIN);
+        session.setInputs(3);
+        session.setFirstName("Adé");
+        session.setWithdrawMethod("flutterwave");
+        session.setAmount(new BigDecimal("1500.50"));
+        session.setTargetCurrency("USD");
+
+        assertThat(codec.deserialize(codec.serialize(session))).isEqualTo(session);
+    }
+
+    @Test
+    void stateIdsAreStable() {
+        // Stored in live sessions: changing any of these moves subscribers to another menu node
+        assertThat(MenuState.MAIN.id()).isEqualTo(0);
+        assertThat(MenuState.ACCOUNT_PIN.id()).isEqualTo(3);
+        assertThat(MenuState.DEPOSIT_AMOUNT.id()).isEqualTo(6);
+        assertThat(MenuState.WITHDRAW_PIN.id()).isEqualTo(9);
+        assertThat(MenuState.CURRENCY_AMOUNT.id()).isEqualTo(12);
+    }
+
+    @Test
+    void rejectsUnknownStateIds() {
+        byte[] bytes = codec.serialize(new UssdSession());
+        bytes[2] = (byte) 200;
+
+        assertThatThrownBy(() -> codec.deserialize(bytes)).isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void resumesBaselineJsonSessionWhereItWas() {
+        // As written by GenericJackson2JsonRedisSerializer before the binary codec
+        String payload = """
+                {"@class":"com.skaet.ussd.session.UssdSession","sessionId":"ATUid_1","phoneNumber":"08031234567",\
+                "currentMenu":null,"data":{"@class":"java.util.HashMap","withdrawMethod":"flutterwave",\
+                "menuLevel":"2","currentFlow":"withdraw"},"level":0}""";
+
+        UssdSession session = codec.deserialize(payload.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(session.getSessionId()).isEqualTo("ATUid_1");
+        assertThat(session.getPhoneNumber()).isEqualTo("08031234567");
+        assertThat(session.getWithdrawMethod()).isEqualTo("flutterwave");
+        assertThat(session.getState()).isEqualTo(MenuState.WITHDRAW_AMOUNT);
+    }
+
+    @Test
+    void mapsEachBaselineFlowToItsState() {
+        assertThat(legacy("\"menuLevel\":\"1\"")).isEqualTo(MenuState.MAIN);
+        assertThat(legacy("\"menuLevel\":\"2\",\"currentFlow\":\"balance\"")).isEqualTo(MenuState.BALANCE_PIN);
+        assertThat(legacy("\"menuLevel\":\"2\",\"currentFlow\":\"account_creation\",\"firstName\":\"John\""))
+                .isEqualTo(MenuState.ACCOUNT_LAST_NAME);
+        assertThat(legacy("\"menuLevel\":\"2\",\"currentFlow\":\"deposit\",\"depositMethod\":\"flutterwave\""))
+                .isEqualTo(MenuState.DEPOSIT_AMOUNT);
+        assertThat(legacy("\"menuLevel\":\"2\",\"currentFlow\":\"currency_converter\",\"baseCurrency\":\"NGN\""))
+                .isEqualTo(MenuState.CURRENCY_TARGET);
+        assertThat(legacy("\"menuLevel\":\"2\",\"currentFlow\":\"withdraw\",\"amount\":\"500.0\""))
+                .isEqualTo(MenuState.WITHDRAW_PIN);
+    }
+
+    private MenuState legacy(String data) {
+        String payload = "{\"sessionId\":\"s\",\"data\":{\"@class\":\"java.util.HashMap\"," + data + "}}";
+        return codec.deserialize(payload.getBytes(StandardCharsets.UTF_8)).getState();
+    }
+}
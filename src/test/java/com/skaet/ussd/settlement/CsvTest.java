@@ -0,0 +1,28 @@
+package com.skaet.ussd.settlement;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvTest {
+    @Test
+    void splitsPlainFields() {
+        assertThat(Csv.parse("DEP-1,500.00,2026-10-17")).containsExactly("DEP-1", "500.00", "2026-10-17");
+    }
+
+    @Test
+    void keepsCommasInsideQuotedFields() {
+        assertThat(Csv.parse("DEP-1,\"1,500.00\",\"Lagos, NG\"")).containsExactly("DEP-1", "1,500.00", "Lagos, NG");
+    }
+
+    @Test
+    void unescapesDoubledQuotesInsideQuotedFields() {
+        assertThat(Csv.parse("\"say \"\"hi\"\"\",\"\"\"\",x")).containsExactly("say \"hi\"", "\"", "x");
+    }
+
+    @Test
+    void keepsEmptyFieldsIncludingTheLast() {
+        assertThat(Csv.parse(",\"\",a,")).containsExactly("", "", "a", "");
+        assertThat(Csv.parse("")).containsExactly("");
+    }
+}
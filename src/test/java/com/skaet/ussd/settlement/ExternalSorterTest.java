@@ -0,0 +1,64 @@
+package com.skaet.ussd.settlement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExternalSorterTest {
+    @TempDir
+    Path workDir;
+
+    @Test
+    void mergesMoreRunsThanTheFanInOverSeveralPasses() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            lines.add("REF-" + random.nextInt(300) + "\t" + random.nextInt(10_000));
+        }
+        Path input = write(lines);
+
+        // 100 runs of 10 lines, merged 3 at a time: five passes
+        Path sorted = new ExternalSorter(10, 3).sort(input, workDir);
+
+        List<String> expected = new ArrayList<>(lines);
+        Collections.sort(expected);
+        assertThat(Files.readAllLines(sorted)).isEqualTo(expected);
+        assertThat(filesIn(workDir)).containsExactlyInAnyOrder(input, sorted);
+    }
+
+    @Test
+    void sortsAReferenceBeforeTheReferencesItIsAPrefixOf() throws IOException {
+        Path input = write(List.of("ABC1\t50", "ABC\t100", "AB\t7", "ABC\t20"));
+
+        Path sorted = new ExternalSorter(1, 2).sort(input, workDir);
+
+        assertThat(Files.readAllLines(sorted)).containsExactly("AB\t7", "ABC\t100", "ABC\t20", "ABC1\t50");
+    }
+
+    @Test
+    void sortsAnEmptyFileIntoAnEmptyFile() throws IOException {
+        Path sorted = new ExternalSorter(10, 3).sort(write(List.of()), workDir);
+
+        assertThat(Files.readAllLines(sorted)).isEmpty();
+    }
+
+    private Path write(List<String> lines) throws IOException {
+        return Files.write(workDir.resolve("input.tsv"), lines);
+    }
+
+    private static List<Path> filesIn(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+}
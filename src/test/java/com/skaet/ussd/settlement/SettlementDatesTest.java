@@ -0,0 +1,52 @@
+package com.skaet.ussd.settlement;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SettlementDatesTest {
+    private static final LocalDate DAY = LocalDate.parse("2026-10-17");
+
+    private final SettlementDates dates = new SettlementDates(ZoneId.of("Africa/Lagos"), ZoneId.of("UTC"), Duration.ofMinutes(15));
+
+    @Test
+    void convertsProcessorTimestampsToTheSettlementZone() {
+        assertThat(dates.settlementDate("2026-10-16T23:30:00Z")).isEqualTo(DAY);
+        assertThat(dates.settlementDate("2026-10-16T23:30:00.000+00:00")).isEqualTo(DAY);
+        assertThat(dates.settlementDate("2026-10-16 23:30:00+0000")).isEqualTo(DAY);
+        assertThat(dates.settlementDate("2026-10-17T23:30:00+01:00")).isEqualTo(DAY);
+        assertThat(dates.settlementDate("2026-10-17T00:30:00+02:00")).isEqualTo(DAY.minusDays(1));
+    }
+
+    @Test
+    void readsTimestampsWithoutAnOffsetInTheCsvZone() {
+        assertThat(dates.settlementDate(" 2026-10-16 23:30:00 ")).isEqualTo(DAY);
+        assertThat(dates.settlementDate("2026-10-17 22:59")).isEqualTo(DAY);
+        assertThat(dates.settlementDate("2026-10-17 23:00")).isEqualTo(DAY.plusDays(1));
+    }
+
+    @Test
+    void takesABareDateAsTheSettlementDay() {
+        assertThat(dates.settlementDate("2026-10-17")).isEqualTo(DAY);
+    }
+
+    @Test
+    void putsLedgerRowsNearMidnightInTheNeighbouringDayToo() {
+        // Midnight in Lagos is 23:00 UTC
+        assertThat(dates.neighbour(Instant.parse("2026-10-16T23:10:00Z"))).isEqualTo(DAY.minusDays(1));
+        assertThat(dates.neighbour(Instant.parse("2026-10-17T22:50:00Z"))).isEqualTo(DAY.plusDays(1));
+        assertThat(dates.neighbour(Instant.parse("2026-10-17T12:00:00Z"))).isNull();
+        assertThat(dates.neighbour(Instant.parse("2026-10-16T23:15:00Z"))).isNull();
+    }
+
+    @Test
+    void readsTheLedgerAcrossTheGraceWindow() {
+        assertThat(dates.from(DAY)).isEqualTo(Instant.parse("2026-10-16T22:45:00Z"));
+        assertThat(dates.to(DAY)).isEqualTo(Instant.parse("2026-10-17T23:15:00Z"));
+    }
+}
@@ -0,0 +1,122 @@
+package com.skaet.ussd.settlement;
+
+import com.skaet.ussd.settlement.SettlementMatcher.Mismatch;
+import com.skaet.ussd.settlement.SettlementMatcher.Result;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SettlementMatcherTest {
+    private static final String DATE = "2026-10-17";
+
+    @TempDir
+    Path workDir;
+
+    private final StringWriter out = new StringWriter();
+    private final List<String> claimed = new ArrayList<>();
+    private final List<String> unmatched = new ArrayList<>();
+
+    @Test
+    void keepsAReferenceApartFromTheOnesItIsAPrefixOf() throws IOException {
+        Result result = match(List.of("ABC\t100", "ABC1\t50", "ABC12\t5"), List.of("ABC\t100", "ABC1\t50", "ABC12\t5"));
+
+        assertThat(result.matched()).isEqualTo(3);
+        assertThat(result.mismatchCount()).isZero();
+        assertThat(out.toString()).isEmpty();
+    }
+
+    @Test
+    void reportsAPrefixReferenceMissingOnOneSide() throws IOException {
+        Result result = match(List.of("ABC\t100", "ABC1\t50"), List.of("ABC1\t50"));
+
+        assertThat(result.matched()).isEqualTo(1);
+        assertThat(count(result, Mismatch.MISSING_IN_LEDGER)).isEqualTo(1);
+        assertThat(out.toString()).isEqualTo(DATE + ",MISSING_IN_LEDGER,ABC,100,\n");
+    }
+
+    @Test
+    void reportsDuplicatesOnBothSidesAndMatchesTheFirstRows() throws IOException {
+        Result result = match(List.of("DEP-1\t500", "DEP-1\t500", "DEP-2\t10"),
+                List.of("DEP-1\t500.00", "DEP-1\t500.00", "DEP-2\t10"));
+
+        assertThat(result.matched()).isEqualTo(2);
+        assertThat(count(result, Mismatch.DUPLICATE_IN_SETTLEMENT)).isEqualTo(1);
+        assertThat(count(result, Mismatch.DUPLICATE_IN_LEDGER)).isEqualTo(1);
+        assertThat(out.toString()).isEqualTo(DATE + ",DUPLICATE_IN_SETTLEMENT,DEP-1,500,\n"
+                + DATE + ",DUPLICATE_IN_LEDGER,DEP-1,,500.00\n");
+    }
+
+    @Test
+    void reportsEverySettlementRowWhenTheLedgerSideIsEmpty() throws IOException {
+        Result result = match(List.of("DEP-1\t500", "DEP-2\t10"), List.of());
+
+        assertThat(result.matched()).isZero();
+        assertThat(count(result, Mismatch.MISSING_IN_LEDGER)).isEqualTo(2);
+        assertThat(result.mismatchCount()).isEqualTo(2);
+    }
+
+    @Test
+    void reportsEveryLedgerRowWhenTheSettlementSideIsEmpty() throws IOException {
+        Result result = match(List.of(), List.of("DEP-1\t500"));
+
+        assertThat(count(result, Mismatch.MISSING_IN_SETTLEMENT)).isEqualTo(1);
+        assertThat(out.toString()).isEqualTo(DATE + ",MISSING_IN_SETTLEMENT,DEP-1,,500\n");
+    }
+
+    @Test
+    void reportsADifferentAmount() throws IOException {
+        Result result = match(List.of("DEP-1\t500"), List.of("DEP-1\t50"));
+
+        assertThat(result.matched()).isZero();
+        assertThat(count(result, Mismatch.AMOUNT_MISMATCH)).isEqualTo(1);
+        assertThat(out.toString()).isEqualTo(DATE + ",AMOUNT_MISMATCH,DEP-1,500,50\n");
+    }
+
+    @Test
+    void leavesDepositsNearMidnightThatAreMissingToTheBoundary() throws IOException {
+        Result result = match(List.of("DEP-1\t500"), List.of("DEP-1\t500\tN", "DEP-2\t10\tN", "DEP-3\t20\tS"));
+
+        assertThat(result.matched()).isEqualTo(1);
+        assertThat(result.mismatchCount()).isZero();
+        assertThat(unmatched).containsExactly("DEP-2\t10");
+        assertThat(claimed).isEmpty();
+    }
+
+    @Test
+    void matchesASpilledDepositAndReportsItClaimed() throws IOException {
+        Result result = match(List.of("DEP-1\t500", "DEP-2\t10"), List.of("DEP-1\t500\tS", "DEP-2\t20\tS"));
+
+        assertThat(result.matched()).isEqualTo(1);
+        assertThat(count(result, Mismatch.AMOUNT_MISMATCH)).isEqualTo(1);
+        assertThat(claimed).containsExactly("DEP-1", "DEP-2");
+    }
+
+    private Result match(List<String> settlement, List<String> ledger) throws IOException {
+        Path settlementFile = Files.write(workDir.resolve("settlement.tsv"), settlement);
+        Path ledgerFile = Files.write(workDir.resolve("ledger.tsv"), ledger);
+        return SettlementMatcher.match(DATE, settlementFile, ledgerFile, out, new SettlementMatcher.Boundary() {
+            @Override
+            public void claimed(String reference) {
+                claimed.add(reference);
+            }
+
+            @Override
+            public void unmatched(String reference, BigDecimal amount) {
+                unmatched.add(reference + "\t" + amount.toPlainString());
+            }
+        });
+    }
+
+    private static long count(Result result, Mismatch type) {
+        return result.mismatches()[type.ordinal()];
+    }
+}
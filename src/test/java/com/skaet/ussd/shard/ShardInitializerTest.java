@@ -0,0 +1,66 @@
+package com.skaet.ussd.shard;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ShardInitializerTest {
+    private static final long SHARD_1 = 1L << 40;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final ShardMap shardMap = mock(ShardMap.class);
+    private final ShardingProperties properties = properties();
+    private final ShardInitializer initializer = new ShardInitializer(shardMap, properties, mock(EntityManagerFactory.class),
+            jdbcTemplate, mock(PlatformTransactionManager.class), "none");
+
+    @Test
+    void startsEachSequenceAboveTheIdsAlreadyUsedInItsRange() {
+        sharded();
+        when(jdbcTemplate.queryForObject("select max(id) from accounts where id >= ? and id < ?", Long.class, 0L, SHARD_1))
+                .thenReturn(5_000L);
+        when(jdbcTemplate.queryForObject("select max(id) from accounts where id >= ? and id < ?", Long.class, SHARD_1, 2 * SHARD_1))
+                .thenReturn(null);
+        when(jdbcTemplate.update(anyString(), anyLong())).thenReturn(1);
+
+        initializer.initialize();
+
+        verify(jdbcTemplate).update("update account_seq set next_val = greatest(next_val, ?)", 5_100L);
+        verify(jdbcTemplate).update("update account_seq set next_val = greatest(next_val, ?)", SHARD_1 + 100);
+        verify(jdbcTemplate).update("update wallet_seq set next_val = greatest(next_val, ?)", 100L);
+    }
+
+    @Test
+    void failsWhenASequenceHasNoRow() {
+        sharded();
+        when(jdbcTemplate.update(anyString(), anyLong())).thenReturn(1);
+        when(jdbcTemplate.update(eq("update wallet_seq set next_val = greatest(next_val, ?)"), anyLong())).thenReturn(0);
+
+        assertThatThrownBy(initializer::initialize)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Sequence wallet_seq on shard");
+    }
+
+    private void sharded() {
+        when(shardMap.isSharded()).thenReturn(true);
+        when(shardMap.names()).thenReturn(Set.of(ShardMap.HOME, "shard-1"));
+    }
+
+    private static ShardingProperties properties() {
+        ShardingProperties.Shard shard = new ShardingProperties.Shard();
+        shard.setIndex(1);
+        ShardingProperties properties = new ShardingProperties();
+        properties.getShards().put("shard-1", shard);
+        return properties;
+    }
+}
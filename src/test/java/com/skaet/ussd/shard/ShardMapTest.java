@@ -0,0 +1,162 @@
+package com.skaet.ussd.shard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShardMapTest {
+    private static final Set<String> NAMES = Set.of(ShardMap.HOME, "shard-1");
+    private static final String SELECT = "select bucket, shard, frozen from " + ShardMap.TABLE;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    @Test
+    void parsesRangesAndSingleBuckets() {
+        assertThat(ShardMap.parse("0-2:home, 3:shard-1", 4, NAMES)).containsExactly("home", "home", "home", "shard-1");
+        assertThat(ShardMap.parse("", 2, NAMES)).containsExactly("home", "home");
+    }
+
+    @Test
+    void rejectsAGap() {
+        assertThatThrownBy(() -> ShardMap.parse("0-1:home,3:shard-1", 4, NAMES))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Bucket 2 is not assigned to a shard");
+    }
+
+    @Test
+    void rejectsOverlappingRanges() {
+        assertThatThrownBy(() -> ShardMap.parse("0-2:home,2-3:shard-1", 4, NAMES))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Bucket 2 out of range or assigned twice");
+    }
+
+    @Test
+    void rejectsBucketsOutOfRange() {
+        assertThatThrownBy(() -> ShardMap.parse("0-4:home", 4, NAMES))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Bucket 4 out of range or assigned twice");
+    }
+
+    @Test
+    void rejectsAnUnknownShard() {
+        assertThatThrownBy(() -> ShardMap.parse("0-1:home,2-3:shard-2", 4, NAMES))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid shard map item: 2-3:shard-2");
+    }
+
+    // Pinned values: a different hash would strand every existing account on the wrong shard
+    @Test
+    void keepsTheBucketOfEveryNumber() {
+        assertThat(ShardMap.bucketOf("08031234567", 1024)).isEqualTo(66);
+        assertThat(ShardMap.bucketOf("07012345678", 1024)).isEqualTo(416);
+        assertThat(ShardMap.bucketOf("09099999999", 1024)).isEqualTo(1020);
+        assertThat(ShardMap.bucketOf("08100000000", 1024)).isEqualTo(852);
+        assertThat(ShardMap.bucketOf("08031234567", 16)).isEqualTo(2);
+    }
+
+    @Test
+    void putsEveryFormOfANumberInTheSameBucket() {
+        for (String phone : List.of("2348031234567", "+2348031234567", "002348031234567", "+234 803 123 4567", "0803-123-4567")) {
+            assertThat(ShardMap.bucketOf(phone, 1024)).as(phone).isEqualTo(66);
+        }
+    }
+
+    @Test
+    void isStaleUntilTheTableHasBeenLoaded() {
+        ShardMap shardMap = shardMap(1000);
+        assertThat(shardMap.isStale()).isTrue();
+
+        when(jdbcTemplate.queryForList(SELECT)).thenReturn(rows("home", "home", "shard-1", "shard-1"));
+        shardMap.refresh();
+
+        assertThat(shardMap.isStale()).isFalse();
+        assertThat(shardMap.shardOfBucket(1)).isEqualTo("home");
+        assertThat(shardMap.shardOfBucket(2)).isEqualTo("shard-1");
+    }
+
+    @Test
+    void takesMovesAndFreezesFromTheTable() {
+        ShardMap shardMap = shardMap(1000);
+        List<Map<String, Object>> rows = rows("home", "home", "home", "shard-1");
+        rows.set(1, Map.of("bucket", 1, "shard", "home", "frozen", true));
+        when(jdbcTemplate.queryForList(SELECT)).thenReturn(rows);
+
+        shardMap.refresh();
+
+        assertThat(shardMap.shardOfBucket(2)).isEqualTo("home");
+        assertThat(shardMap.isFrozen(1)).isTrue();
+        assertThat(shardMap.isFrozen(2)).isFalse();
+    }
+
+    @Test
+    void neverFallsBackToTheConfiguredMapWhenABucketIsMissing() {
+        ShardMap shardMap = shardMap(1000);
+        when(jdbcTemplate.queryForList(SELECT)).thenReturn(rows("home", "home", "shard-1"));
+
+        shardMap.refresh();
+
+        assertThat(shardMap.isStale()).isTrue();
+    }
+
+    @Test
+    void goesStaleWhenTheTableCannotBeReadForTwoIntervals() throws InterruptedException {
+        ShardMap shardMap = shardMap(5);
+        when(jdbcTemplate.queryForList(SELECT))
+                .thenReturn(rows("home", "home", "shard-1", "shard-1"))
+                .thenThrow(new DataAccessResourceFailureException("down"));
+        shardMap.refresh();
+        assertThat(shardMap.isStale()).isFalse();
+
+        Thread.sleep(20);
+        shardMap.refresh();
+
+        assertThat(shardMap.isStale()).isTrue();
+        assertThat(shardMap.shardOfBucket(2)).isEqualTo("shard-1");
+    }
+
+    @Test
+    void refusesToMoveBucketsTheTableDoesNotHave() {
+        ShardMap shardMap = shardMap(1000);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+
+        assertThatThrownBy(() -> shardMap.assign(List.of(2, 3), "home"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Only 1 of 2 buckets");
+    }
+
+    @Test
+    void isNeverStaleWithoutShards() {
+        assertThat(new ShardMap(jdbcTemplate, new ShardingProperties()).isStale()).isFalse();
+    }
+
+    private ShardMap shardMap(long refreshIntervalMs) {
+        ShardingProperties.Shard shard = new ShardingProperties.Shard();
+        shard.setIndex(1);
+        ShardingProperties properties = new ShardingProperties();
+        properties.setBuckets(4);
+        properties.setMap("0-1:home,2-3:shard-1");
+        properties.setRefreshIntervalMs(refreshIntervalMs);
+        properties.getShards().put("shard-1", shard);
+        return new ShardMap(jdbcTemplate, properties);
+    }
+
+    private static List<Map<String, Object>> rows(String... shards) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int bucket = 0; bucket < shards.length; bucket++) {
+            rows.add(Map.of("bucket", bucket, "shard", shards[bucket], "frozen", false));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,110 @@
+package com.skaet.ussd.shard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShardRoutingTest {
+    private static final int BUCKETS = 8;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final ShardMap shardMap = shardMap();
+    private final ShardRouting routing = new ShardRouting(shardMap, mock(PlatformTransactionManager.class));
+
+    @AfterEach
+    void endTransaction() {
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+    }
+
+    @Test
+    void runsWorkOnTheSubscribersShard() {
+        load(-1);
+
+        assertThat(routing.on(phoneOn("home"), ShardContext::current)).isEqualTo("home");
+        assertThat(routing.on(phoneOn("shard-1"), ShardContext::current)).isEqualTo("shard-1");
+    }
+
+    @Test
+    void refusesAnotherShardInsideATransaction() {
+        load(-1);
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+
+        assertThatThrownBy(() -> routing.on(phoneOn("shard-1"), ShardContext::current))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Cannot use shard shard-1 inside a transaction on home");
+        assertThatThrownBy(() -> routing.onShard("shard-1", ShardContext::current))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Cannot use shard shard-1 inside a transaction on home");
+    }
+
+    @Test
+    void allowsTheSameShardInsideATransaction() {
+        load(-1);
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+
+        assertThat(routing.on(phoneOn("home"), ShardContext::current)).isEqualTo("home");
+        assertThat(routing.onShard("home", ShardContext::current)).isEqualTo("home");
+    }
+
+    @Test
+    void refusesAFrozenBucket() {
+        String phone = phoneOn("shard-1");
+        load(shardMap.bucketOf(phone));
+
+        assertThatThrownBy(() -> routing.on(phone, ShardContext::current))
+                .isInstanceOf(ShardUnavailableException.class);
+    }
+
+    @Test
+    void refusesAllShardedWorkWhileTheMapIsStale() {
+        assertThatThrownBy(() -> routing.on("08031234567", ShardContext::current))
+                .isInstanceOf(ShardUnavailableException.class)
+                .hasMessage("Shard map is stale");
+        assertThatThrownBy(() -> routing.inTransaction("08031234567", ShardContext::current))
+                .isInstanceOf(ShardUnavailableException.class);
+        assertThatThrownBy(() -> routing.onShard("home", ShardContext::current))
+                .isInstanceOf(ShardUnavailableException.class);
+    }
+
+    /**
+     * Loads the configured map from the table, with {@code frozenBucket} frozen (none if -1).
+     */
+    private void load(int frozenBucket) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            rows.add(Map.of("bucket", bucket, "shard", bucket < BUCKETS / 2 ? "home" : "shard-1", "frozen", bucket == frozenBucket));
+        }
+        when(jdbcTemplate.queryForList("select bucket, shard, frozen from " + ShardMap.TABLE)).thenReturn(rows);
+        shardMap.refresh();
+    }
+
+    private String phoneOn(String shard) {
+        for (int i = 0; ; i++) {
+            String phone = String.format("0803%07d", i);
+            if (shardMap.shardOf(phone).equals(shard)) {
+                return phone;
+            }
+        }
+    }
+
+    private ShardMap shardMap() {
+        ShardingProperties.Shard shard = new ShardingProperties.Shard();
+        shard.setIndex(1);
+        ShardingProperties properties = new ShardingProperties();
+        properties.setBuckets(BUCKETS);
+        properties.setMap("0-3:home,4-7:shard-1");
+        properties.getShards().put("shard-1", shard);
+        return new ShardMap(jdbcTemplate, properties);
+    }
+}
@@ -0,0 +1,29 @@
+package com.skaet.ussd.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PhoneNumbersTest {
+    private static final String LOCAL = "08031234567";
+
+    @Test
+    void bringsEveryAcceptedFormToTheLocalOne() {
+        assertThat(PhoneNumbers.toLocal("08031234567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal("2348031234567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal("+2348031234567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal("002348031234567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal("+23408031234567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal("+234 803 123 4567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal("234-803-123-4567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal("0803 123-4567")).isEqualTo(LOCAL);
+        assertThat(PhoneNumbers.toLocal(" +234 803 123 4567 ")).isEqualTo(LOCAL);
+    }
+
+    @Test
+    void leavesOtherNumbersAsTheyAre() {
+        assertThat(PhoneNumbers.toLocal("+447700900123")).isEqualTo("+447700900123");
+        assertThat(PhoneNumbers.toLocal("12345")).isEqualTo("12345");
+        assertThat(PhoneNumbers.toLocal("")).isEqualTo("");
+    }
+}